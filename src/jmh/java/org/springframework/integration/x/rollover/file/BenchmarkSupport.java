@@ -0,0 +1,72 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Helpers shared by the benchmarks.
+ */
+final class BenchmarkSupport {
+
+	private BenchmarkSupport() {
+	}
+
+	static File createTempDir(String name) throws IOException {
+		File dir = File.createTempFile("rollover-" + name + "-", "");
+		if (!dir.delete() || !dir.mkdir()) {
+			throw new IOException("Can't create benchmark directory: " + dir);
+		}
+		return dir;
+	}
+
+	/**
+	 * Stands in for the compressor and deletes the rolled files, so long benchmark runs do not fill the disk.
+	 */
+	static class DeletingFileCompressor extends FileCompressor {
+
+		@Override
+		public void compressFile(String filePath) {
+			new File(filePath).delete();
+		}
+	}
+
+	/**
+	 * Gzips the rolled files in the background, as the @Async compressor of the module does, and deletes the
+	 * archives once written.
+	 */
+	static class CompressingFileCompressor extends FileCompressor {
+
+		private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+		@Override
+		public void compressFile(final String filePath) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					CompressingFileCompressor.super.compressFile(filePath);
+					new File(filePath + ".gz").delete();
+				}
+			});
+		}
+
+		void shutdown() throws InterruptedException {
+			executor.shutdown();
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		}
+	}
+}
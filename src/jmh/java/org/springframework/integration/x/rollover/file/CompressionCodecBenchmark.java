@@ -0,0 +1,145 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.integration.x.rollover.file.codec.CompressionCodec;
+import org.springframework.integration.x.rollover.file.codec.CompressionCodecs;
+
+/**
+ * Compares the compression throughput of the archive codecs on a 4MB sample of JSON lines, similar to the events the
+ * sink usually receives. The score is the number of samples compressed per second. The uncompressedBytes and
+ * compressedBytes counters are reported with it, their quotient is the compression ratio of the codec and level.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressionCodecBenchmark {
+
+	private static final int SAMPLE_SIZE = 4 * 1024 * 1024;
+
+	@Param({ "gzip", "deflate", "lz4", "zstd", "snappy" })
+	public String codecName;
+
+	@Param({ "-1", "1", "9" })
+	public int level;
+
+	private byte[] sample;
+
+	private ForkJoinPool pool;
+
+	private CompressionCodec codec;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		sample = jsonLines(SAMPLE_SIZE);
+		pool = new ForkJoinPool();
+		codec = CompressionCodecs.create(codecName, level, ".gz", 0, pool);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	@Benchmark
+	public long compress(ByteCounters counters) throws IOException {
+		CountingOutputStream out = new CountingOutputStream(NullOutputStream.NULL_OUTPUT_STREAM);
+		codec.compress(new ByteArrayInputStream(sample), out);
+		return counters.count(sample.length, out.getByteCount());
+	}
+
+	@Benchmark
+	public long stream(ByteCounters counters) throws IOException {
+		// the way a compressing writer sees the data: one record at a time
+		CountingOutputStream counter = new CountingOutputStream(NullOutputStream.NULL_OUTPUT_STREAM);
+		OutputStream out = codec.createOutputStream(counter);
+		int start = 0;
+		for (int i = 0; i < sample.length; i++) {
+			if (sample[i] == '\n') {
+				out.write(sample, start, i + 1 - start);
+				start = i + 1;
+			}
+		}
+		out.write(sample, start, sample.length - start);
+		IOUtils.closeQuietly(out);
+		return counters.count(sample.length, counter.getByteCount());
+	}
+
+	/**
+	 * The bytes in and out of the codec, reported by JMH as rates next to the score.
+	 */
+	@AuxCounters
+	@State(Scope.Thread)
+	public static class ByteCounters {
+
+		public long uncompressedBytes;
+
+		public long compressedBytes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			uncompressedBytes = 0;
+			compressedBytes = 0;
+		}
+
+		long count(long uncompressed, long compressed) {
+			uncompressedBytes += uncompressed;
+			compressedBytes += compressed;
+			return compressed;
+		}
+	}
+
+	static byte[] jsonLines(int length) {
+		Random random = new Random(42);
+		String[] levels = { "INFO", "WARN", "DEBUG", "ERROR" };
+		StringBuilder lines = new StringBuilder(length + 512);
+		long timestamp = 1450000000000L;
+		while (lines.length() < length) {
+			timestamp += random.nextInt(1000);
+			lines.append("{\"timestamp\":").append(timestamp).append(",\"level\":\"")
+					.append(levels[random.nextInt(levels.length)]).append("\",\"host\":\"node-")
+					.append(random.nextInt(16)).append("\",\"user\":").append(random.nextInt(100000))
+					.append(",\"path\":\"/api/v1/items/").append(random.nextInt(5000))
+					.append("\",\"status\":").append(random.nextInt(10) == 0 ? 500 : 200)
+					.append(",\"latencyMs\":").append(random.nextInt(2000)).append("}\n");
+		}
+		return lines.substring(0, length).getBytes();
+	}
+}
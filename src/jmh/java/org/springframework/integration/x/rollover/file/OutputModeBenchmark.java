@@ -0,0 +1,91 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the write throughput of the {@link RolloverFileOutputStream.OutputMode} backends. Segments roll every
+ * 64MB and rolled segments are deleted right away so the benchmark does not fill the disk. A positive maxBufferSize
+ * sizes the buffer adaptively from bufferSize, in the STREAM and CHANNEL modes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutputModeBenchmark {
+
+	@Param({ "STREAM", "CHANNEL", "MAPPED" })
+	public RolloverFileOutputStream.OutputMode outputMode;
+
+	@Param({ "64", "1024", "16384" })
+	public int payloadSize;
+
+	@Param({ "8192", "65536" })
+	public int bufferSize;
+
+	@Param({ "0", "1048576" })
+	public int maxBufferSize;
+
+	private File dir;
+
+	private RolloverFileOutputStream stream;
+
+	private byte[] payload;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		dir = BenchmarkSupport.createTempDir("output-mode");
+		payload = new byte[payloadSize];
+		Arrays.fill(payload, (byte) 'x');
+		stream = new RolloverFileOutputStream(new File(dir, "bench_yyyy_mm_dd").getPath(), true,
+				TimeZone.getDefault(), "yyyyMMdd_HHmmssSSS", -1, -1, 64L * 1024 * 1024, "archive", true, bufferSize,
+				outputMode, new BenchmarkSupport.DeletingFileCompressor(), null);
+		if (outputMode != RolloverFileOutputStream.OutputMode.MAPPED) {
+			stream.setAdaptiveBufferSize(4096, maxBufferSize);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		stream.close();
+		FileUtils.deleteDirectory(dir);
+	}
+
+	@Benchmark
+	public void write() throws IOException {
+		stream.write(payload);
+		stream.rolloverOnFileSize();
+	}
+}
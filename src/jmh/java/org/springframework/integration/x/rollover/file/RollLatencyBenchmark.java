@@ -0,0 +1,85 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Samples the latency of single writes while the segments roll every few thousand writes, so the tail percentiles
+ * (p99, p99.9) reported by JMH show the pause a roll costs the writer. The rolled segments are gzipped and deleted.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class RollLatencyBenchmark {
+
+	@Param({ "STREAM", "CHANNEL", "MAPPED" })
+	public RolloverFileOutputStream.OutputMode outputMode;
+
+	@Param({ "1048576", "8388608" })
+	public long segmentSize;
+
+	private File dir;
+
+	private BenchmarkSupport.CompressingFileCompressor fileCompressor;
+
+	private RolloverFileOutputStream stream;
+
+	private byte[] payload;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		dir = BenchmarkSupport.createTempDir("roll-latency");
+		payload = new byte[256];
+		Arrays.fill(payload, (byte) 'x');
+		fileCompressor = new BenchmarkSupport.CompressingFileCompressor();
+		stream = new RolloverFileOutputStream(new File(dir, "bench_yyyy_mm_dd").getPath(), true,
+				TimeZone.getDefault(), "yyyyMMdd_HHmmssSSS", -1, -1, segmentSize, "archive", true, 8192, outputMode,
+				fileCompressor, null);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		stream.close();
+		fileCompressor.shutdown();
+		FileUtils.deleteDirectory(dir);
+	}
+
+	@Benchmark
+	public void write() throws IOException {
+		stream.write(payload);
+		stream.rolloverOnFileSize();
+	}
+}
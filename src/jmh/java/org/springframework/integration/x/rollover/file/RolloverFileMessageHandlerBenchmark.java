@@ -0,0 +1,130 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.GenericMessage;
+
+/**
+ * Measures {@link RolloverFileMessageHandler#handleMessageInternal(Message)}, the hot path of the sink, for String and
+ * byte[] payloads. Run with the gc profiler (the default of the jmh task) to see the allocation rate per message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RolloverFileMessageHandlerBenchmark {
+
+	public enum Rollover {
+		/** Never roll over during the measurement. */
+		NONE,
+		/** Roll over every 1MB, rolled files are discarded. */
+		SIZE,
+		/** Roll over every 1MB and gzip the rolled files in the background. */
+		SIZE_COMPRESSED
+	}
+
+	@Param({ "STRING", "BYTES" })
+	public String payloadType;
+
+	@Param({ "64", "1024" })
+	public int payloadSize;
+
+	@Param({ "8192", "65536" })
+	public int bufferSize;
+
+	@Param({ "0", "1", "100" })
+	public long flushRate;
+
+	@Param({ "NONE", "SIZE", "SIZE_COMPRESSED" })
+	public Rollover rollover;
+
+	private File dir;
+
+	private RolloverFileMessageHandler handler;
+
+	private BenchmarkSupport.CompressingFileCompressor compressingFileCompressor;
+
+	private Message<?> message;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		dir = BenchmarkSupport.createTempDir("handler");
+
+		handler = new RolloverFileMessageHandler();
+		handler.setFilename(new File(dir, "bench_yyyy_mm_dd").getPath());
+		handler.setAppend(true);
+		handler.setTimeZoneID("UTC");
+		handler.setDateFormat("yyyyMMdd_HHmmssSSS");
+		handler.setBufferSize(bufferSize);
+		handler.setFlushRate(flushRate);
+		handler.setArchivePrefix("archive");
+		// a trial per parameter combination, each would register its MBeans under the same names
+		handler.setJmxEnabled(false);
+		handler.setCompressArchive(true);
+		if (rollover == Rollover.NONE) {
+			handler.setMaxRolledFileSize(-1);
+			handler.setFileCompressor(new BenchmarkSupport.DeletingFileCompressor());
+		} else if (rollover == Rollover.SIZE) {
+			handler.setMaxRolledFileSize(1024 * 1024);
+			handler.setFileCompressor(new BenchmarkSupport.DeletingFileCompressor());
+		} else {
+			handler.setMaxRolledFileSize(1024 * 1024);
+			compressingFileCompressor = new BenchmarkSupport.CompressingFileCompressor();
+			handler.setFileCompressor(compressingFileCompressor);
+		}
+		handler.start();
+
+		String text = StringUtils.repeat("x", payloadSize - 1);
+		if ("STRING".equals(payloadType)) {
+			message = new GenericMessage<String>(text);
+		} else {
+			message = new GenericMessage<byte[]>((text + "\n").getBytes());
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		handler.stop();
+		if (compressingFileCompressor != null) {
+			compressingFileCompressor.shutdown();
+		}
+		FileUtils.deleteDirectory(dir);
+	}
+
+	@Benchmark
+	public void handleMessage() throws Exception {
+		handler.handleMessageInternal(message);
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks the write buffer size of a stream from its observed throughput and flush cadence, between a minimum and a
+ * maximum size.
+ * 
+ * The buffer should take about {@link #FILL_TIME_MS} to fill, so a busy stream writes at most a hundred times per
+ * second, and not exceed the bytes written between two flushes, which drain it anyway. Idle streams shrink to the
+ * minimum size. Sizes are powers of two, to be pooled, and only shrink below a quarter of the current size, so a
+ * stream does not swap buffers back and forth around a boundary.
+ * 
+ * Not thread safe, {@link RolloverFileOutputStream} guards all access with its own lock.
+ */
+public class AdaptiveBufferSizer {
+
+	static final long FILL_TIME_MS = 10;
+
+	// Throughput samples shorter than this are too noisy, the bytes are carried over to the next sample.
+	private static final long MIN_SAMPLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	// Weight of the latest sample in the moving averages.
+	private static final double SMOOTHING = 0.5;
+
+	private final int minSize;
+
+	private final int maxSize;
+
+	private int size;
+
+	private long samplePosition;
+
+	private long sampleNanos;
+
+	private double bytesPerSecond;
+
+	private long flushPosition;
+
+	// Moving average of the bytes written between two flushes, negative until the first flush.
+	private double bytesPerFlush = -1;
+
+	/**
+	 * @param minSize
+	 *            Smallest buffer size, rounded up to a power of two.
+	 * @param maxSize
+	 *            Largest buffer size, rounded up to a power of two.
+	 * @param initialSize
+	 *            Size until the first sample, clamped to the minimum and maximum sizes.
+	 * @param position
+	 *            Bytes written by the stream so far.
+	 * @param nowNanos
+	 *            {@link System#nanoTime()}
+	 */
+	public AdaptiveBufferSizer(int minSize, int maxSize, int initialSize, long position, long nowNanos) {
+		if (minSize <= 0 || maxSize < minSize) {
+			throw new IllegalArgumentException("Invalid buffer size range: " + minSize + " - " + maxSize);
+		}
+		this.minSize = BufferPool.roundUpSize(minSize);
+		this.maxSize = BufferPool.roundUpSize(maxSize);
+		this.size = clamp(BufferPool.roundUpSize(Math.max(initialSize, 1)));
+		this.samplePosition = position;
+		this.sampleNanos = nowNanos;
+		this.flushPosition = position;
+	}
+
+	/**
+	 * Records a flush of the stream.
+	 */
+	public void flushed(long position) {
+		long bytes = position - flushPosition;
+		flushPosition = position;
+		bytesPerFlush = (bytesPerFlush < 0) ? bytes : average(bytesPerFlush, bytes);
+	}
+
+	/**
+	 * Updates the throughput with the bytes written since the previous sample.
+	 * 
+	 * @return The buffer size the stream should use from now on.
+	 */
+	public int sample(long position, long nowNanos) {
+		long elapsedNanos = nowNanos - sampleNanos;
+		if (elapsedNanos < MIN_SAMPLE_NANOS) {
+			return size;
+		}
+		double rate = (position - samplePosition) * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+		bytesPerSecond = average(bytesPerSecond, rate);
+		samplePosition = position;
+		sampleNanos = nowNanos;
+
+		double target = bytesPerSecond * FILL_TIME_MS / 1000;
+		if (bytesPerFlush >= 0) {
+			target = Math.min(target, bytesPerFlush);
+		}
+		// the unclamped target, so a stream shrinks down to the minimum size once idle
+		int targetSize = BufferPool.roundUpSize((int) Math.min(target, maxSize));
+		if (targetSize > size || targetSize <= size / 4) {
+			size = clamp(targetSize);
+		}
+		return size;
+	}
+
+	/**
+	 * @return The buffer size the stream should use.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	public int getMinSize() {
+		return minSize;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @return Moving average of the stream throughput, as of the last sample.
+	 */
+	public double getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	private int clamp(int candidate) {
+		return Math.max(minSize, Math.min(maxSize, candidate));
+	}
+
+	private static double average(double average, double sample) {
+		return SMOOTHING * sample + (1 - SMOOTHING) * average;
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of direct write buffers shared by the streams. Buffer sizes are powers of two, a released buffer is kept for
+ * the next stream asking for its size as long as the pool retains less than maxRetainedBytes, otherwise it is left to
+ * the garbage collector. Thread safe.
+ */
+public class BufferPool {
+
+	private static final int MAX_SIZE_CLASS = 30;
+
+	// 32MB kept for reuse across all the streams of the container
+	private static final BufferPool SHARED = new BufferPool(32L * 1024 * 1024);
+
+	private final long maxRetainedBytes;
+
+	// The free buffers of every power of two size, by exponent.
+	private final List<Queue<ByteBuffer>> sizeClasses = new ArrayList<Queue<ByteBuffer>>(MAX_SIZE_CLASS + 1);
+
+	private final AtomicLong retainedBytes = new AtomicLong();
+
+	private final AtomicLong allocatedCount = new AtomicLong();
+
+	private final AtomicLong reusedCount = new AtomicLong();
+
+	/**
+	 * @param maxRetainedBytes
+	 *            Total capacity of the buffers kept for reuse.
+	 */
+	public BufferPool(long maxRetainedBytes) {
+		this.maxRetainedBytes = maxRetainedBytes;
+		for (int i = 0; i <= MAX_SIZE_CLASS; i++) {
+			sizeClasses.add(new ConcurrentLinkedQueue<ByteBuffer>());
+		}
+	}
+
+	/**
+	 * @return The pool shared by all the streams.
+	 */
+	public static BufferPool getSharedPool() {
+		return SHARED;
+	}
+
+	/**
+	 * @return The smallest power of two not below size, at least 1.
+	 */
+	public static int roundUpSize(int size) {
+		if (size <= 1) {
+			return 1;
+		}
+		if (size > (1 << MAX_SIZE_CLASS)) {
+			throw new IllegalArgumentException("Buffer size too large: " + size);
+		}
+		return Integer.highestOneBit(size - 1) << 1;
+	}
+
+	/**
+	 * @return An empty direct buffer of {@link #roundUpSize(int)} capacity, reused if the pool has one.
+	 */
+	public ByteBuffer acquire(int size) {
+		int capacity = roundUpSize(size);
+		ByteBuffer buffer = sizeClasses.get(Integer.numberOfTrailingZeros(capacity)).poll();
+		if (buffer != null) {
+			retainedBytes.addAndGet(-capacity);
+			reusedCount.incrementAndGet();
+			buffer.clear();
+			return buffer;
+		}
+		allocatedCount.incrementAndGet();
+		return ByteBuffer.allocateDirect(capacity);
+	}
+
+	/**
+	 * Hands a buffer obtained from {@link #acquire(int)} back to the pool. The caller must not use it anymore.
+	 */
+	public void release(ByteBuffer buffer) {
+		int capacity = buffer.capacity();
+		if (!buffer.isDirect() || Integer.bitCount(capacity) != 1) {
+			return;
+		}
+		if (retainedBytes.addAndGet(capacity) > maxRetainedBytes) {
+			retainedBytes.addAndGet(-capacity);
+			return;
+		}
+		sizeClasses.get(Integer.numberOfTrailingZeros(capacity)).offer(buffer);
+	}
+
+	/**
+	 * @return Total capacity of the buffers kept for reuse.
+	 */
+	public long getRetainedBytes() {
+		return retainedBytes.get();
+	}
+
+	/**
+	 * @return Number of buffers allocated because the pool had none of the size.
+	 */
+	public long getAllocatedCount() {
+		return allocatedCount.get();
+	}
+
+	/**
+	 * @return Number of buffers handed out again after they were released.
+	 */
+	public long getReusedCount() {
+		return reusedCount.get();
+	}
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compresses the rolled files on a fixed number of worker threads, which caps the concurrent compression I/O. The
+ * queue is unbounded, so a burst of rolls is never rejected, and the oldest file is compressed first.
+ * 
+ * The pending jobs need no journal of their own: a rolled file that is not compressed yet is the record of its job.
+ * Jobs lost with the process, because it stopped or crashed, are found again by
+ * {@link SegmentRecovery} when the sink starts.
+ */
+public class CompressionScheduler {
+
+	/**
+	 * Compresses one file, called on the worker threads.
+	 */
+	public interface Compressor {
+
+		void compress(File file) throws IOException;
+	}
+
+	private final Logger logger = LoggerFactory.getLogger(CompressionScheduler.class);
+
+	private final Compressor compressor;
+
+	private final int maxConcurrentJobs;
+
+	private final String threadNamePrefix;
+
+	private final PriorityBlockingQueue<Job> queue = new PriorityBlockingQueue<Job>();
+
+	// Files queued or being compressed, a file submitted twice is compressed once.
+	private final Set<File> pending = Collections.synchronizedSet(new HashSet<File>());
+
+	private final AtomicLong sequence = new AtomicLong();
+
+	private final AtomicInteger activeJobs = new AtomicInteger();
+
+	private final AtomicLong completedCount = new AtomicLong();
+
+	private final AtomicLong failedCount = new AtomicLong();
+
+	private final AtomicLong compressedBytes = new AtomicLong();
+
+	private final AtomicLong compressionNanos = new AtomicLong();
+
+	private Thread[] workers;
+
+	private volatile boolean running;
+
+	/**
+	 * @param compressor
+	 *            Compresses the files.
+	 * @param maxConcurrentJobs
+	 *            Number of worker threads, the maximal number of files compressed at the same time.
+	 * @param threadNamePrefix
+	 *            Prefix of the worker thread names.
+	 */
+	public CompressionScheduler(Compressor compressor, int maxConcurrentJobs, String threadNamePrefix) {
+		if (maxConcurrentJobs <= 0) {
+			throw new IllegalArgumentException("maxConcurrentJobs must be positive");
+		}
+		this.compressor = compressor;
+		this.maxConcurrentJobs = maxConcurrentJobs;
+		this.threadNamePrefix = threadNamePrefix;
+	}
+
+	public synchronized void start() {
+		if (workers != null) {
+			return;
+		}
+		running = true;
+		workers = new Thread[maxConcurrentJobs];
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					work();
+				}
+			}, threadNamePrefix + (i + 1));
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * Stops the workers once their current job is done. The queued files stay uncompressed until the next start.
+	 */
+	public synchronized void stop() throws InterruptedException {
+		if (workers == null) {
+			return;
+		}
+		running = false;
+		for (Thread worker : workers) {
+			worker.interrupt();
+		}
+		for (Thread worker : workers) {
+			worker.join(TimeUnit.MINUTES.toMillis(1));
+		}
+		workers = null;
+		if (!queue.isEmpty()) {
+			logger.info("{} files left uncompressed, they are compressed on the next start", queue.size());
+			queue.clear();
+			pending.clear();
+		}
+	}
+
+	/**
+	 * Queues the file for compression.
+	 * 
+	 * @return false if the file is already queued or being compressed
+	 */
+	public boolean submit(File file) {
+		if (!pending.add(file)) {
+			return false;
+		}
+		queue.add(new Job(file, file.lastModified(), sequence.incrementAndGet(), System.nanoTime()));
+		return true;
+	}
+
+	private void work() {
+		while (running) {
+			Job job;
+			try {
+				job = queue.take();
+			} catch (InterruptedException e) {
+				continue;
+			}
+			activeJobs.incrementAndGet();
+			try {
+				long size = job.file.length();
+				long start = System.nanoTime();
+				compressor.compress(job.file);
+				compressionNanos.addAndGet(System.nanoTime() - start);
+				compressedBytes.addAndGet(size);
+				completedCount.incrementAndGet();
+			} catch (Exception e) {
+				failedCount.incrementAndGet();
+				logger.error("Compression failed for: " + job.file, e);
+			} finally {
+				pending.remove(job.file);
+				activeJobs.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * @return Number of files waiting for a worker.
+	 */
+	public int getQueueLength() {
+		return queue.size();
+	}
+
+	/**
+	 * @return Number of files being compressed.
+	 */
+	public int getActiveJobs() {
+		return activeJobs.get();
+	}
+
+	/**
+	 * @return How long (in ms) the next file to compress has been waiting, zero if none is waiting.
+	 */
+	public long getLagMs() {
+		Job next = queue.peek();
+		return (next != null) ? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - next.submitNanos) : 0;
+	}
+
+	public int getMaxConcurrentJobs() {
+		return maxConcurrentJobs;
+	}
+
+	public long getCompletedCount() {
+		return completedCount.get();
+	}
+
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+
+	/**
+	 * @return Total size of the files compressed, before compression.
+	 */
+	public long getCompressedBytes() {
+		return compressedBytes.get();
+	}
+
+	/**
+	 * @return Throughput of a worker: the uncompressed bytes compressed per second of compression time.
+	 */
+	public long getBytesPerSecond() {
+		long nanos = compressionNanos.get();
+		return (nanos > 0) ? (long) (compressedBytes.get() * 1e9 / nanos) : 0;
+	}
+
+	private static class Job implements Comparable<Job> {
+
+		final File file;
+
+		final long lastModified;
+
+		final long sequence;
+
+		final long submitNanos;
+
+		Job(File file, long lastModified, long sequence, long submitNanos) {
+			this.file = file;
+			this.lastModified = lastModified;
+			this.sequence = sequence;
+			this.submitNanos = submitNanos;
+		}
+
+		@Override
+		public int compareTo(Job other) {
+			if (lastModified != other.lastModified) {
+				return (lastModified < other.lastModified) ? -1 : 1;
+			}
+			return (sequence < other.sequence) ? -1 : ((sequence == other.sequence) ? 0 : 1);
+		}
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import java.util.zip.Checksum;
+
+/**
+ * CRC-32C (Castagnoli), the checksum of iSCSI, ext4 and most record formats, which has better error detection than
+ * the CRC-32 of {@link java.util.zip.CRC32}. Java 7 has no implementation, this one processes 8 bytes per step with
+ * the slicing-by-8 tables.
+ */
+public class Crc32c implements Checksum {
+
+	// Reversed Castagnoli polynomial.
+	private static final int POLYNOMIAL = 0x82F63B78;
+
+	private static final int[][] TABLES = new int[8][256];
+
+	static {
+		for (int n = 0; n < 256; n++) {
+			int crc = n;
+			for (int k = 0; k < 8; k++) {
+				crc = ((crc & 1) != 0) ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+			}
+			TABLES[0][n] = crc;
+		}
+		for (int n = 0; n < 256; n++) {
+			int crc = TABLES[0][n];
+			for (int k = 1; k < 8; k++) {
+				crc = TABLES[0][crc & 0xff] ^ (crc >>> 8);
+				TABLES[k][n] = crc;
+			}
+		}
+	}
+
+	private int crc = 0xffffffff;
+
+	@Override
+	public void update(int b) {
+		crc = TABLES[0][(crc ^ b) & 0xff] ^ (crc >>> 8);
+	}
+
+	@Override
+	public void update(byte[] b, int off, int len) {
+		int c = crc;
+		int end = off + len;
+		int[] t0 = TABLES[0], t1 = TABLES[1], t2 = TABLES[2], t3 = TABLES[3];
+		int[] t4 = TABLES[4], t5 = TABLES[5], t6 = TABLES[6], t7 = TABLES[7];
+		while (end - off >= 8) {
+			int low = c ^ ((b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | b[off + 3] << 24);
+			c = t7[low & 0xff] ^ t6[(low >>> 8) & 0xff] ^ t5[(low >>> 16) & 0xff] ^ t4[low >>> 24]
+					^ t3[b[off + 4] & 0xff] ^ t2[b[off + 5] & 0xff] ^ t1[b[off + 6] & 0xff] ^ t0[b[off + 7] & 0xff];
+			off += 8;
+		}
+		while (off < end) {
+			c = t0[(c ^ b[off++]) & 0xff] ^ (c >>> 8);
+		}
+		crc = c;
+	}
+
+	public void update(byte[] b) {
+		update(b, 0, b.length);
+	}
+
+	@Override
+	public long getValue() {
+		return (~crc) & 0xffffffffL;
+	}
+
+	@Override
+	public void reset() {
+		crc = 0xffffffff;
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Output stream writing a segment file through a {@link FileChannel}. Small writes are collected in a direct
+ * {@link ByteBuffer} that the caller can hand over from one segment to the next, so rolling over does not allocate a
+ * new direct buffer. Writes larger than the buffer go straight to the channel.
+ *
+ * Not thread safe, {@link RolloverFileOutputStream} guards all access with its own lock.
+ */
+public class FileChannelOutputStream extends OutputStream {
+
+	private final FileChannel channel;
+
+	private ByteBuffer buffer;
+
+	/**
+	 * @param file
+	 *            The segment file to write.
+	 * @param append
+	 *            If true, existing content is kept and new data is appended.
+	 * @param buffer
+	 *            Direct buffer used to collect small writes. Must be empty, it is cleared before use.
+	 */
+	public FileChannelOutputStream(File file, boolean append, ByteBuffer buffer) throws IOException {
+		this(new FileOutputStream(file, append).getChannel(), buffer);
+	}
+
+	/**
+	 * @param channel
+	 *            Channel of the segment file, opened ahead, e.g. as a spare segment.
+	 * @param buffer
+	 *            Direct buffer used to collect small writes. Must be empty, it is cleared before use.
+	 */
+	public FileChannelOutputStream(FileChannel channel, ByteBuffer buffer) {
+		this.channel = channel;
+		this.buffer = buffer;
+		this.buffer.clear();
+	}
+
+	public static ByteBuffer allocateBuffer(int bufferSize) {
+		return ByteBuffer.allocateDirect(bufferSize > 0 ? bufferSize : 8192);
+	}
+
+	public FileChannel getChannel() {
+		return channel;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (!buffer.hasRemaining()) {
+			drainBuffer();
+		}
+		buffer.put((byte) b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (len >= buffer.capacity()) {
+			drainBuffer();
+			writeFully(ByteBuffer.wrap(b, off, len));
+			return;
+		}
+		if (len > buffer.remaining()) {
+			drainBuffer();
+		}
+		buffer.put(b, off, len);
+	}
+
+	/**
+	 * Gathering write of all remaining bytes of the given buffers, after the pending buffered bytes.
+	 *
+	 * @return number of bytes written
+	 */
+	public long write(ByteBuffer[] buffers) throws IOException {
+		drainBuffer();
+		long total = 0;
+		for (ByteBuffer b : buffers) {
+			total += b.remaining();
+		}
+		long written = 0;
+		while (written < total) {
+			written += channel.write(buffers);
+		}
+		return total;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		drainBuffer();
+	}
+
+	/**
+	 * Flushes the buffered bytes and forces the file content (not the metadata) to the storage device.
+	 */
+	public void force() throws IOException {
+		drainBuffer();
+		channel.force(false);
+	}
+
+	/**
+	 * Flushes the buffered bytes and continues with the given buffer, e.g. one of another size.
+	 *
+	 * @return The previous buffer, empty.
+	 */
+	public ByteBuffer replaceBuffer(ByteBuffer next) throws IOException {
+		drainBuffer();
+		ByteBuffer previous = buffer;
+		buffer = next;
+		buffer.clear();
+		return previous;
+	}
+
+	/**
+	 * @return Capacity of the buffer collecting small writes.
+	 */
+	public int getBufferCapacity() {
+		return buffer.capacity();
+	}
+
+	/**
+	 * Flushes the buffered bytes and releases the buffer, so it can be handed over to the next segment while this
+	 * one is closed on another thread. No more bytes can be written.
+	 */
+	public void releaseBuffer() throws IOException {
+		try {
+			drainBuffer();
+		} finally {
+			buffer = null;
+		}
+	}
+
+	/**
+	 * Flushes and closes the channel. The buffer is released so it can be handed over to the next segment.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (buffer != null) {
+				drainBuffer();
+			}
+		} finally {
+			buffer = null;
+			channel.close();
+		}
+	}
+
+	private void drainBuffer() throws IOException {
+		if (buffer.position() > 0) {
+			buffer.flip();
+			writeFully(buffer);
+			buffer.clear();
+		}
+	}
+
+	private void writeFully(ByteBuffer src) throws IOException {
+		while (src.hasRemaining()) {
+			channel.write(src);
+		}
+	}
+}
@@ -1,59 +1,117 @@
 package org.springframework.integration.x.rollover.file;
 
-import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.integration.x.rollover.file.codec.BlockGzipCodec;
+import org.springframework.integration.x.rollover.file.codec.BlockIndex;
+import org.springframework.integration.x.rollover.file.codec.CompressionCodec;
+import org.springframework.integration.x.rollover.file.codec.CompressionCodecs;
 
 import java.io.*;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
 
 /**
  * @author Markus Bukowski
  */
-public class FileCompressor {
+public class FileCompressor implements DisposableBean {
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
 
     private Logger logger = LoggerFactory.getLogger(FileCompressor.class);
 
     //private String archivePrefix = "archive";
 
     @Value("${rollover.file.suffix.compress:.gz}")
-    private String gzipExtention;
+    private String gzipExtention = ".gz";
 
     @Value("${rollover.file.suffix.temp:.tmp}")
-    private String tempExtention;
+    private String tempExtention = ".tmp";
+
+    // gzip, deflate, lz4, zstd, snappy, bgzf or the class name of a custom CompressionCodec
+    @Value("${compressionCodec:gzip}")
+    private String compressionCodec = CompressionCodecs.GZIP;
+
+    // Codec specific level, -1 for the default level of the codec
+    @Value("${compressionLevel:-1}")
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    // If positive, gzip files are split in blocks of this size that are compressed in parallel
+    @Value("${compressionBlockSize:0}")
+    private int compressionBlockSize = 0;
+
+    private ForkJoinPool compressionPool;
+
+    private CompressionCodec codec;
+
+    // Number of files compressed at the same time in the background, zero compresses on the calling thread
+    private int maxConcurrentJobs = 0;
+
+    private String threadNamePrefix = "file-compressor-";
 
-    @Async("fileCompressorExecutor")
+    private CompressionScheduler compressionScheduler;
+
+    private final AtomicLong uncompressedBytes = new AtomicLong();
+
+    private final AtomicLong compressedBytes = new AtomicLong();
+
+    /**
+     * Compresses the file, in the background if maxConcurrentJobs is positive.
+     */
     public void compressFile(String filePath) {
+        File file = new File(filePath);
+        if (maxConcurrentJobs > 0) {
+            getCompressionScheduler().submit(file);
+            return;
+        }
         try {
-            logger.debug("Started compressing file {}", filePath);
-            File file = new File(filePath);
-            if (file != null) {
-                gzipFile(file);
-            }
-            logger.debug("Finished compressing file {}", filePath);
+            compressNow(file);
         } catch (IOException e) {
             logger.error("Compression failed for: {}. Exception: {}", filePath, e);
         }
+    }
 
+    private void compressNow(File file) throws IOException {
+        logger.debug("Started compressing file {}", file);
+        compress(file);
+        logger.debug("Finished compressing file {}", file);
     }
 
-    private File gzipFile(File sourceFile) throws IOException {
+    private File compress(File sourceFile) throws IOException {
 
         if (!sourceFile.exists()) {
             logger.error("Source file doesn't exist: {}", sourceFile);
             return null;
         }
 
+        CompressionCodec codec = getCodec();
+        long size = sourceFile.length();
+
         InputStream is = new FileInputStream(sourceFile);
         File tmpCompressedFile = new File(sourceFile.getParentFile(),
-                sourceFile.getName() + gzipExtention + tempExtention);
+                sourceFile.getName() + codec.getExtension() + tempExtention);
 
-        OutputStream os = new GZIPOutputStream(new FileOutputStream(tmpCompressedFile));
-        IOUtils.copy(is, os);
-        is.close();
-        os.close();
+        BlockIndex blockIndex = null;
+        try {
+            OutputStream os = new BufferedOutputStream(new FileOutputStream(tmpCompressedFile), COPY_BUFFER_SIZE);
+            try {
+                if (codec instanceof BlockGzipCodec) {
+                    blockIndex = ((BlockGzipCodec) codec).compressIndexed(is, os);
+                } else {
+                    codec.compress(is, os);
+                }
+            } finally {
+                os.close();
+            }
+        } finally {
+            is.close();
+        }
+
+        uncompressedBytes.addAndGet(size);
+        compressedBytes.addAndGet(tmpCompressedFile.length());
 
         if (!sourceFile.delete()) {
             throw new IOException("Can't delete file: " + sourceFile.getPath());
@@ -65,7 +123,116 @@ public class FileCompressor {
             throw new IOException("Failed to remove .tmp from the name of: " + tmpCompressedFile);
         }
 
+        // written once the archive is complete, readers can rebuild a missing index from the block headers
+        if (blockIndex != null) {
+            blockIndex.writeTo(new File(compressedFile.getPath() + BlockIndex.EXTENSION));
+        }
+
         return compressedFile;
     }
 
+    /**
+     * @return The codec selected by the compressionCodec option.
+     */
+    public synchronized CompressionCodec getCodec() {
+        if (codec == null) {
+            if (compressionBlockSize > 0 && compressionPool == null) {
+                compressionPool = new ForkJoinPool();
+            }
+            codec = CompressionCodecs.create(compressionCodec, compressionLevel, gzipExtention, compressionBlockSize,
+                    compressionPool);
+        }
+        return codec;
+    }
+
+    /**
+     * @return The scheduler running the background compression, exposing its queue length and throughput.
+     */
+    public synchronized CompressionScheduler getCompressionScheduler() {
+        if (compressionScheduler == null && maxConcurrentJobs > 0) {
+            compressionScheduler = new CompressionScheduler(new CompressionScheduler.Compressor() {
+                @Override
+                public void compress(File file) throws IOException {
+                    compressNow(file);
+                }
+            }, maxConcurrentJobs, threadNamePrefix);
+            compressionScheduler.start();
+        }
+        return compressionScheduler;
+    }
+
+    @Override
+    public synchronized void destroy() {
+        if (compressionScheduler != null) {
+            try {
+                compressionScheduler.stop();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            compressionScheduler = null;
+        }
+        if (compressionPool != null) {
+            compressionPool.shutdown();
+            compressionPool = null;
+        }
+    }
+
+    public String getCompressionCodec() {
+        return compressionCodec;
+    }
+
+    public synchronized void setCompressionCodec(String compressionCodec) {
+        this.compressionCodec = compressionCodec;
+        this.codec = null;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public synchronized void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+        this.codec = null;
+    }
+
+    /**
+     * @return Uncompressed size divided by compressed size of all files compressed so far, zero if none.
+     */
+    public double getCompressionRatio() {
+        long compressed = compressedBytes.get();
+        return (compressed > 0) ? (double) uncompressedBytes.get() / compressed : 0.0;
+    }
+
+    /**
+     * @return Extension of the compressed file while it is written, e.g. ".tmp" in "file.gz.tmp".
+     */
+    public String getTempExtension() {
+        return tempExtention;
+    }
+
+    public int getMaxConcurrentJobs() {
+        return maxConcurrentJobs;
+    }
+
+    public void setMaxConcurrentJobs(int maxConcurrentJobs) {
+        this.maxConcurrentJobs = maxConcurrentJobs;
+    }
+
+    public String getThreadNamePrefix() {
+        return threadNamePrefix;
+    }
+
+    public void setThreadNamePrefix(String threadNamePrefix) {
+        this.threadNamePrefix = threadNamePrefix;
+    }
+
+    public int getCompressionBlockSize() {
+        return compressionBlockSize;
+    }
+
+    public synchronized void setCompressionBlockSize(int compressionBlockSize) {
+        this.compressionBlockSize = compressionBlockSize;
+        this.codec = null;
+    }
+
 }
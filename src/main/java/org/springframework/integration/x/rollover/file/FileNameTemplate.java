@@ -0,0 +1,249 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import org.apache.commons.lang.time.FastDateFormat;
+
+/**
+ * The names of the segments of a stream: the file name with "yyyy_mm_dd" replaced by the date formatted with the
+ * dateFormat. Several segments started in the same time bucket are told apart by a zero padded "_N" sequence between
+ * the date and the rest of the name, e.g. app_2015_01_01_0001.log, so the extension stays last. A file name that is
+ * not dated gets the sequence before its extension.
+ * 
+ * The file name is split once. The date is formatted with a thread safe {@link FastDateFormat} and the formatted
+ * name is cached for the time bucket of the finest field of the format, milliseconds, seconds or minutes (time zone
+ * offsets are whole minutes), so rolls in the same bucket don't format again.
+ * 
+ * Names are parsed back with a non lenient {@link SimpleDateFormat}, created on first use.
+ */
+public class FileNameTemplate {
+
+	private static final long MINUTE_IN_MS = 60 * 1000;
+
+	private static final int SEQUENCE_DIGITS = 4;
+
+	// Longer sequences are not written by a stream, and would overflow a long.
+	private static final int MAX_SEQUENCE_DIGITS = 18;
+
+	private final String prefix;
+
+	private final String suffix;
+
+	private final FastDateFormat dateFormat;
+
+	private final long bucketMs;
+
+	private volatile CachedName cachedName;
+
+	// Guarded by this.
+	private SimpleDateFormat parseFormat;
+
+	/**
+	 * @param fileName
+	 *            The file name, without directory, including the string "yyyy_mm_dd" if it is dated.
+	 * @param dateFormat
+	 *            A {@link java.text.SimpleDateFormat} pattern.
+	 */
+	public FileNameTemplate(String fileName, String dateFormat) {
+		int i = fileName.toLowerCase(Locale.ENGLISH).indexOf(RolloverFileOutputStream.YYYY_MM_DD);
+		if (i >= 0) {
+			this.prefix = fileName.substring(0, i);
+			this.suffix = fileName.substring(i + RolloverFileOutputStream.YYYY_MM_DD.length());
+			this.dateFormat = FastDateFormat.getInstance(dateFormat);
+			this.bucketMs = getBucketMs(dateFormat);
+		} else {
+			int extension = fileName.lastIndexOf('.');
+			this.prefix = (extension > 0) ? fileName.substring(0, extension) : fileName;
+			this.suffix = (extension > 0) ? fileName.substring(extension) : "";
+			this.dateFormat = null;
+			this.bucketMs = Long.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * @return The length of the time span in which all times format to the same string, at most a minute.
+	 */
+	private static long getBucketMs(String pattern) {
+		boolean quoted = false;
+		long bucketMs = MINUTE_IN_MS;
+		for (int i = 0; i < pattern.length(); i++) {
+			char c = pattern.charAt(i);
+			if (c == '\'') {
+				quoted = !quoted;
+			} else if (!quoted && c == 'S') {
+				return 1;
+			} else if (!quoted && c == 's') {
+				bucketMs = 1000;
+			}
+		}
+		return bucketMs;
+	}
+
+	/**
+	 * @return The name of a segment started at the given time.
+	 */
+	public String format(long timeMs) {
+		if (dateFormat == null) {
+			return prefix + suffix;
+		}
+		long bucket = timeMs / bucketMs;
+		CachedName cached = cachedName;
+		if (cached == null || cached.bucket != bucket) {
+			cached = new CachedName(bucket, prefix + dateFormat.format(timeMs) + suffix);
+			cachedName = cached;
+		}
+		return cached.name;
+	}
+
+	/**
+	 * @param sequence
+	 *            The sequence of the segment in its time bucket, 0 for the first one, which has no sequence in its name.
+	 * @return The name of a segment started at the given time.
+	 */
+	public String format(long timeMs, long sequence) {
+		String name = format(timeMs);
+		if (sequence == 0) {
+			return name;
+		}
+		String number = Long.toString(sequence);
+		StringBuilder sequenced = new StringBuilder(name.length() + 1 + Math.max(number.length(), SEQUENCE_DIGITS));
+		sequenced.append(name, 0, name.length() - suffix.length()).append('_');
+		for (int i = number.length(); i < SEQUENCE_DIGITS; i++) {
+			sequenced.append('0');
+		}
+		return sequenced.append(number).append(suffix).toString();
+	}
+
+	/**
+	 * Parses the name of a segment of this template: the prefix, the date, an optional "_N" sequence, then exactly
+	 * the suffix. The archivePrefix and extensions must be removed first.
+	 * 
+	 * @return The start time of the segment, 0 if the file name is not dated, or -1 if the name is not a segment of
+	 *         this template, e.g. a segment of another stripe or partition whose suffix starts with this suffix.
+	 */
+	public long parseTime(String name) {
+		ParsedName parsed = parse(name);
+		return (parsed != null) ? parsed.getTime() : -1;
+	}
+
+	/**
+	 * Parses the name of a segment of this template, see {@link #parseTime(String)}.
+	 * 
+	 * @return The start time and sequence of the segment, or null if the name is not a segment of this template.
+	 */
+	public ParsedName parse(String name) {
+		if (!name.startsWith(prefix)) {
+			return null;
+		}
+		ParsePosition position = new ParsePosition(prefix.length());
+		long time = 0;
+		if (dateFormat != null) {
+			Date date;
+			synchronized (this) {
+				if (parseFormat == null) {
+					parseFormat = new SimpleDateFormat(dateFormat.getPattern());
+					parseFormat.setLenient(false);
+				}
+				date = parseFormat.parse(name, position);
+			}
+			if (date == null) {
+				return null;
+			}
+			time = date.getTime();
+		}
+		int index = position.getIndex();
+		if (name.length() == index + suffix.length() && name.startsWith(suffix, index)) {
+			return new ParsedName(time, 0);
+		}
+		if (index >= name.length() || name.charAt(index) != '_') {
+			return null;
+		}
+		int digits = index + 1;
+		int end = digits;
+		while (end < name.length() && name.charAt(end) >= '0' && name.charAt(end) <= '9') {
+			end++;
+		}
+		if (end == digits || end - digits > MAX_SEQUENCE_DIGITS || name.length() != end + suffix.length()
+				|| !name.startsWith(suffix, end)) {
+			return null;
+		}
+		return new ParsedName(time, Long.parseLong(name.substring(digits, end)));
+	}
+
+	/**
+	 * @return true if the file name contains the date.
+	 */
+	public boolean isDated() {
+		return dateFormat != null;
+	}
+
+	/**
+	 * @return The file name up to the date, up to the extension if it is not dated.
+	 */
+	public String getPrefix() {
+		return prefix;
+	}
+
+	/**
+	 * @return The file name after the date, the extension if it is not dated.
+	 */
+	public String getSuffix() {
+		return suffix;
+	}
+
+	/**
+	 * The start time and sequence parsed from a segment name.
+	 */
+	public static final class ParsedName {
+
+		private final long time;
+
+		private final long sequence;
+
+		ParsedName(long time, long sequence) {
+			this.time = time;
+			this.sequence = sequence;
+		}
+
+		/**
+		 * @return The start time of the segment, 0 if the file name is not dated.
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		/**
+		 * @return The sequence of the segment in its time bucket, 0 for the first one.
+		 */
+		public long getSequence() {
+			return sequence;
+		}
+	}
+
+	private static final class CachedName {
+
+		final long bucket;
+
+		final String name;
+
+		CachedName(long bucket, String name) {
+			this.bucket = bucket;
+			this.name = name;
+		}
+	}
+}
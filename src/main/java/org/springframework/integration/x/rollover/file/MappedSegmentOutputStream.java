@@ -0,0 +1,237 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Output stream writing a segment file through a {@link MappedByteBuffer}. The segment is preallocated (mapped) with
+ * the expected segment size, so a write is a memory copy rather than a system call. If more bytes than expected are
+ * written, the next region of the file is mapped. On close the file is truncated to the bytes actually written.
+ *
+ * Until the segment is closed the file on disk has the preallocated size, with zeros after the written bytes, followed
+ * by a trailer marking it as unclosed. Closing truncates both. A segment left behind unclosed, by a crash, is trimmed
+ * with {@link #trimPreallocation(File)} before it is appended to or archived. A closed segment has no trailer and is
+ * never trimmed, whatever its last bytes. Trimming an unclosed one can't tell the padding from zero bytes written at the
+ * end of the segment, so these are removed as well, but never below the length the segment had when it was opened.
+ *
+ * Not thread safe, {@link RolloverFileOutputStream} guards all access with its own lock.
+ */
+public class MappedSegmentOutputStream extends OutputStream {
+
+	// A single mapping can not exceed Integer.MAX_VALUE bytes.
+	private static final long MAX_REGION_SIZE = 1L << 30;
+
+	private static final int TRIM_BUFFER_SIZE = 64 * 1024;
+
+	// Written after every mapped region: the magic number and the length of the segment when it was opened.
+	private static final long TRAILER_MAGIC = 0x524f4c4c4d415044L;
+
+	private static final int TRAILER_SIZE = 16;
+
+	private final RandomAccessFile file;
+
+	private final FileChannel channel;
+
+	private final long regionSize;
+
+	// Null if mapping the next region failed, the next write tries again. Never points to an unmapped buffer, an
+	// access to it would crash the JVM.
+	private MappedByteBuffer region;
+
+	// File offset of the start of the current region, or of the region that could not be mapped.
+	private long regionStart;
+
+	// Length of the segment when it was opened, recorded in the trailer.
+	private final long openedSize;
+
+	/**
+	 * @param file
+	 *            The segment file to write.
+	 * @param append
+	 *            If true, existing content is kept, trimmed of the zeros of a segment left unclosed, and new data is
+	 *            appended.
+	 * @param segmentSize
+	 *            Expected segment size in bytes, the size of the preallocated mapping.
+	 */
+	public MappedSegmentOutputStream(File file, boolean append, long segmentSize) throws IOException {
+		if (segmentSize <= 0) {
+			throw new IllegalArgumentException("Mapped segments require a positive segment size: " + segmentSize);
+		}
+		this.file = new RandomAccessFile(file, "rw");
+		this.channel = this.file.getChannel();
+		long size = append ? trim(channel) : 0;
+		this.channel.truncate(size);
+		this.openedSize = size;
+		this.regionSize = Math.min(segmentSize, MAX_REGION_SIZE);
+		map(size);
+	}
+
+	/**
+	 * Truncates the preallocated space of a segment that was not closed: the trailer and the zeros after the last
+	 * non-zero byte. A segment that was closed is left as it is.
+	 * 
+	 * @return The size of the file after the truncation.
+	 */
+	public static long trimPreallocation(File file) throws IOException {
+		RandomAccessFile segment = new RandomAccessFile(file, "rw");
+		try {
+			long size = trim(segment.getChannel());
+			segment.getChannel().truncate(size);
+			return size;
+		} finally {
+			segment.close();
+		}
+	}
+
+	/**
+	 * @return The size of the file without its preallocated space: the offset after the last non-zero byte, but not
+	 *         less than the length the segment had when it was opened, if the file ends with the trailer of an
+	 *         unclosed segment, its whole size otherwise. The preallocated space is sparse, reading it is cheap.
+	 */
+	private static long trim(FileChannel channel) throws IOException {
+		long size = channel.size();
+		if (size < TRAILER_SIZE) {
+			return size;
+		}
+		ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+		while (trailer.hasRemaining() && channel.read(trailer, size - TRAILER_SIZE + trailer.position()) >= 0) {
+			// read the whole trailer
+		}
+		long openedSize = trailer.getLong(8);
+		if (trailer.getLong(0) != TRAILER_MAGIC || openedSize < 0 || openedSize > size - TRAILER_SIZE) {
+			return size;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(TRIM_BUFFER_SIZE);
+		long end = size - TRAILER_SIZE;
+		while (end > openedSize) {
+			long start = Math.max(openedSize, end - TRIM_BUFFER_SIZE);
+			buffer.clear();
+			buffer.limit((int) (end - start));
+			while (buffer.hasRemaining() && channel.read(buffer, start + buffer.position()) >= 0) {
+				// read the whole chunk
+			}
+			for (int i = buffer.position() - 1; i >= 0; i--) {
+				if (buffer.get(i) != 0) {
+					return start + i + 1;
+				}
+			}
+			end = start;
+		}
+		return openedSize;
+	}
+
+	public FileChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * @return The file offset the next byte is written at.
+	 */
+	public long position() {
+		return regionStart + ((region != null) ? region.position() : 0);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (region == null || !region.hasRemaining()) {
+			map(position());
+		}
+		region.put((byte) b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (region == null || !region.hasRemaining()) {
+				map(position());
+			}
+			int count = Math.min(len, region.remaining());
+			region.put(b, off, count);
+			off += count;
+			len -= count;
+		}
+	}
+
+	/**
+	 * Forces the written bytes to the storage device.
+	 */
+	public void force() throws IOException {
+		if (region != null) {
+			region.force();
+		} else {
+			channel.force(false);
+		}
+	}
+
+	/**
+	 * Unmaps the segment and truncates the file to the bytes actually written, which removes the trailer as well.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			long size = position();
+			if (region != null) {
+				unmap(region);
+				region = null;
+			}
+			channel.truncate(size);
+		} finally {
+			file.close();
+		}
+	}
+
+	private void map(long start) throws IOException {
+		if (region != null) {
+			unmap(region);
+			region = null;
+		}
+		regionStart = start;
+		MappedByteBuffer mapped = channel.map(MapMode.READ_WRITE, start, regionSize + TRAILER_SIZE);
+		// the trailer of the previous region is at the start of this one, it must not be taken for written bytes
+		for (int i = 0; i < TRAILER_SIZE; i++) {
+			mapped.put(i, (byte) 0);
+		}
+		mapped.putLong((int) regionSize, TRAILER_MAGIC);
+		mapped.putLong((int) regionSize + 8, openedSize);
+		mapped.limit((int) regionSize);
+		region = mapped;
+	}
+
+	/**
+	 * Releases the mapping right away instead of waiting for the buffer to be garbage collected, so the file can be
+	 * truncated on every platform. Best effort: if the JVM does not allow it the mapping is released by the GC.
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner != null) {
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+		} catch (Exception e) {
+			// not supported on this JVM, leave it to the garbage collector
+		} catch (LinkageError e) {
+			// not supported on this JVM, leave it to the garbage collector
+		}
+	}
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Block parallel gzip compression, in the style of pigz. The input is split into blocks that are deflated
+ * concurrently on a {@link ForkJoinPool}. Each block is primed with the last 32K of the previous block as preset
+ * dictionary and ends with a sync flush, so the raw deflate outputs concatenate into a single deflate stream. The
+ * result is one standard gzip member that any gzip reader can decompress.
+ *
+ * The number of blocks in flight is bounded, so memory use does not depend on the input size.
+ */
+public class ParallelGzipCompressor {
+
+	// Deflate can reference at most 32K back.
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+
+	private static final int GZIP_MAGIC = 0x8b1f;
+
+	private final int level;
+
+	private final int blockSize;
+
+	private final ForkJoinPool pool;
+
+	private final int maxBlocksInFlight;
+
+	/**
+	 * @param level
+	 *            Deflate compression level, 0-9 or -1 (Deflater.DEFAULT_COMPRESSION).
+	 * @param blockSize
+	 *            Size of the blocks compressed independently, in bytes. Must be larger than 32K.
+	 * @param pool
+	 *            Pool running the block compression.
+	 */
+	public ParallelGzipCompressor(int level, int blockSize, ForkJoinPool pool) {
+		if (blockSize <= DICTIONARY_SIZE) {
+			throw new IllegalArgumentException("The block size must be larger than " + DICTIONARY_SIZE);
+		}
+		this.level = level;
+		this.blockSize = blockSize;
+		this.pool = pool;
+		this.maxBlocksInFlight = 2 * pool.getParallelism();
+	}
+
+	/**
+	 * Compresses the input into a gzip stream written to the output. Neither stream is closed.
+	 */
+	public void compress(InputStream in, OutputStream out) throws IOException {
+
+		writeHeader(out);
+
+		CRC32 crc = new CRC32();
+		long totalLength = 0;
+		Deque<ForkJoinTask<byte[]>> inFlight = new ArrayDeque<ForkJoinTask<byte[]>>();
+
+		byte[] dictionary = null;
+		byte[] block = readBlock(in);
+		while (true) {
+			byte[] next = (block.length == blockSize) ? readBlock(in) : new byte[0];
+			boolean last = next.length == 0;
+
+			crc.update(block);
+			totalLength += block.length;
+
+			inFlight.addLast(pool.submit(new DeflateBlockTask(block, dictionary, last)));
+			if (inFlight.size() >= maxBlocksInFlight) {
+				out.write(inFlight.removeFirst().join());
+			}
+
+			if (last) {
+				break;
+			}
+			dictionary = Arrays.copyOfRange(block, block.length - DICTIONARY_SIZE, block.length);
+			block = next;
+		}
+
+		while (!inFlight.isEmpty()) {
+			out.write(inFlight.removeFirst().join());
+		}
+
+		writeInt(out, (int) crc.getValue());
+		writeInt(out, (int) totalLength);
+	}
+
+	private byte[] readBlock(InputStream in) throws IOException {
+		byte[] block = new byte[blockSize];
+		int read = IOUtils.read(in, block);
+		return (read == blockSize) ? block : Arrays.copyOf(block, read);
+	}
+
+	private static void writeHeader(OutputStream out) throws IOException {
+		out.write(new byte[] { (byte) GZIP_MAGIC, (byte) (GZIP_MAGIC >> 8), Deflater.DEFLATED, 0, 0, 0, 0, 0, 0,
+				(byte) 255 });
+	}
+
+	private static void writeInt(OutputStream out, int value) throws IOException {
+		out.write(value & 0xff);
+		out.write((value >> 8) & 0xff);
+		out.write((value >> 16) & 0xff);
+		out.write((value >> 24) & 0xff);
+	}
+
+	private class DeflateBlockTask extends RecursiveTask<byte[]> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final byte[] block;
+
+		private final byte[] dictionary;
+
+		private final boolean last;
+
+		DeflateBlockTask(byte[] block, byte[] dictionary, boolean last) {
+			this.block = block;
+			this.dictionary = dictionary;
+			this.last = last;
+		}
+
+		@Override
+		protected byte[] compute() {
+			Deflater deflater = new Deflater(level, true);
+			try {
+				if (dictionary != null) {
+					deflater.setDictionary(dictionary);
+				}
+				deflater.setInput(block);
+
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream(block.length / 2 + 64);
+				byte[] buffer = new byte[64 * 1024];
+				if (last) {
+					deflater.finish();
+					while (!deflater.finished()) {
+						int count = deflater.deflate(buffer);
+						compressed.write(buffer, 0, count);
+					}
+				} else {
+					// a sync flush ends the block on a byte boundary without marking the end of the stream
+					int count;
+					do {
+						count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+						compressed.write(buffer, 0, count);
+					} while (count == buffer.length);
+				}
+				return compressed.toByteArray();
+			} finally {
+				deflater.end();
+			}
+		}
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Layout of the framed records written when the recordFraming is not NONE. A frame is the record length as an unsigned
+ * varint (7 bits per byte, least significant group first, high bit set on all bytes but the last), with LENGTH_CRC32C
+ * followed by the CRC-32C of the record as 4 big-endian bytes, and then the record bytes.
+ */
+public final class RecordFrames {
+
+	/**
+	 * Longest frame header: a 5 byte varint and the checksum.
+	 */
+	public static final int MAX_HEADER_LENGTH = 9;
+
+	private RecordFrames() {
+	}
+
+	/**
+	 * Writes the frame header of a record to the buffer.
+	 * 
+	 * @param checksum
+	 *            CRC-32C of the record, or null to write the length only.
+	 * @return the header length
+	 */
+	public static int writeHeader(byte[] buffer, int length, Crc32c checksum) {
+		int position = 0;
+		int value = length;
+		while ((value & ~0x7f) != 0) {
+			buffer[position++] = (byte) ((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		buffer[position++] = (byte) value;
+		if (checksum != null) {
+			int crc = (int) checksum.getValue();
+			buffer[position++] = (byte) (crc >>> 24);
+			buffer[position++] = (byte) (crc >>> 16);
+			buffer[position++] = (byte) (crc >>> 8);
+			buffer[position++] = (byte) crc;
+		}
+		return position;
+	}
+
+	/**
+	 * Reads the next framed record.
+	 * 
+	 * @param checksum
+	 *            If not null the record is verified against the CRC-32C of its frame.
+	 * @return the record, or null at the end of the input
+	 * @throws EOFException
+	 *             if the input ends inside a frame, e.g. the last record of a segment that was not closed
+	 * @throws IOException
+	 *             if the checksum does not match
+	 */
+	public static byte[] readRecord(InputStream in, Crc32c checksum) throws IOException {
+		int first = in.read();
+		if (first < 0) {
+			return null;
+		}
+		int length = first & 0x7f;
+		int shift = 7;
+		int b = first;
+		while ((b & 0x80) != 0) {
+			if (shift > 28) {
+				throw new IOException("Malformed record length");
+			}
+			b = readByte(in);
+			length |= (b & 0x7f) << shift;
+			shift += 7;
+		}
+		if (length < 0) {
+			throw new IOException("Malformed record length: " + length);
+		}
+		int crc = 0;
+		if (checksum != null) {
+			crc = readByte(in) << 24 | readByte(in) << 16 | readByte(in) << 8 | readByte(in);
+		}
+		byte[] record = new byte[length];
+		int read = 0;
+		while (read < length) {
+			int count = in.read(record, read, length - read);
+			if (count < 0) {
+				throw new EOFException("Truncated record, " + read + " of " + length + " bytes");
+			}
+			read += count;
+		}
+		if (checksum != null) {
+			checksum.reset();
+			checksum.update(record, 0, length);
+			if ((int) checksum.getValue() != crc) {
+				throw new IOException("Record checksum mismatch");
+			}
+		}
+		return record;
+	}
+
+	private static int readByte(InputStream in) throws IOException {
+		int b = in.read();
+		if (b < 0) {
+			throw new EOFException("Truncated record header");
+		}
+		return b;
+	}
+}
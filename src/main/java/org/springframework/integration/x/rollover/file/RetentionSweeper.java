@@ -0,0 +1,450 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.integration.x.rollover.file.codec.BlockIndex;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+/**
+ * Deletes, or moves to another directory, the archived segments older than the retention age or beyond the total
+ * size budget, oldest first.
+ * 
+ * The segments are indexed by the timestamp encoded in their name with the dateFormat of the stream. The directory is
+ * listed once, when the sweeper starts. After that the index is kept up to date with the segments reported through
+ * {@link #archived(File)}, so a pass does not list a directory holding many thousands of archives.
+ * 
+ * Segments still being compressed are left alone until the compressor is done with them. Only the archives of the
+ * stream are indexed, not those of another stripe or partition in the same directory.
+ */
+public class RetentionSweeper implements RolloverFileOutputStream.ArchiveListener {
+
+	// Extension of a segment copied to the retentionDirectory on another volume until the copy is complete.
+	private static final String MOVE_TEMP_EXTENSION = ".tmp";
+
+	private Logger logger = LoggerFactory.getLogger(RetentionSweeper.class);
+
+	private final File directory;
+
+	// The archivePrefix and its dot, empty if there is no archivePrefix.
+	private final String archiveNamePrefix;
+
+	private final FileNameTemplate segmentNames;
+
+	private final String archiveExtension;
+
+	// Extension of the segment names as written, stripped before parsing them.
+	private String segmentExtension = "";
+
+	private String tempExtension = ".tmp";
+
+	private final long retainMs;
+
+	private final long retainMaxBytes;
+
+	private final File moveDirectory;
+
+	// Segments reported by the stream, moved into the index by the next pass.
+	private final Queue<File> archivedFiles = new ConcurrentLinkedQueue<File>();
+
+	// Guarded by this. Ordered by timestamp, oldest first.
+	private final TreeSet<Segment> index = new TreeSet<Segment>();
+
+	// Guarded by this. Segments whose compression has not completed yet, their size changes once it does.
+	private final List<Segment> unsettled = new ArrayList<Segment>();
+
+	private long indexedBytes;
+
+	private volatile long deletedCount;
+
+	private volatile long movedCount;
+
+	private ScheduledFuture<?> sweepFuture;
+
+	private ThreadPoolTaskScheduler ownTaskScheduler;
+
+	/**
+	 * @param filename
+	 *            The filename of the stream, including the string "yyyy_mm_dd".
+	 * @param dateFormat
+	 *            The format of the date in the segment names. The default is "yyyy_MM_dd".
+	 * @param archivePrefix
+	 *            The prefix added to the names of the rolled segments.
+	 * @param archiveExtension
+	 *            Extension added by the {@link FileCompressor} to the compressed segments, null if the segments are
+	 *            not compressed after they are rolled.
+	 * @param retainMs
+	 *            Segments older than this are removed. Not positive to keep segments regardless of their age.
+	 * @param retainMaxBytes
+	 *            The oldest segments are removed while the total size of the segments exceeds this. Not positive to
+	 *            keep segments regardless of their size.
+	 * @param moveDirectory
+	 *            If not null the removed segments are moved to this directory instead of being deleted.
+	 */
+	public RetentionSweeper(String filename, String dateFormat, String archivePrefix, String archiveExtension,
+			long retainMs, long retainMaxBytes, File moveDirectory) {
+
+		File file = new File(new File(filename.trim()).getAbsolutePath());
+		this.directory = file.getParentFile();
+
+		this.archiveNamePrefix = StringUtils.isEmpty(archivePrefix) ? "" : archivePrefix + ".";
+		this.segmentNames = new FileNameTemplate(file.getName(),
+				(dateFormat != null) ? dateFormat : RolloverFileOutputStream.ROLLOVER_FILE_DATE_FORMAT);
+
+		this.archiveExtension = StringUtils.isEmpty(archiveExtension) ? null : archiveExtension;
+		this.retainMs = retainMs;
+		this.retainMaxBytes = retainMaxBytes;
+		this.moveDirectory = moveDirectory;
+	}
+
+	/**
+	 * @param segmentExtension
+	 *            Extension of the segments as they are written, the codec extension in the
+	 *            {@link RolloverFileOutputStream.OutputMode#COMPRESSED} mode. Empty by default.
+	 */
+	public void setSegmentExtension(String segmentExtension) {
+		this.segmentExtension = (segmentExtension != null) ? segmentExtension : "";
+	}
+
+	/**
+	 * @param tempExtension
+	 *            Extension of the output of a compression in progress, see {@link FileCompressor#getTempExtension()}.
+	 *            ".tmp" by default.
+	 */
+	public void setTempExtension(String tempExtension) {
+		this.tempExtension = tempExtension;
+	}
+
+	/**
+	 * Indexes the segments already in the directory and starts sweeping them periodically.
+	 * 
+	 * @param activeFile
+	 *            The segment the stream currently writes, never indexed.
+	 * @param taskScheduler
+	 *            Scheduler running the sweep. If null a single threaded scheduler is created for, and shut down with,
+	 *            this sweeper.
+	 * @param periodMs
+	 *            Delay between two passes.
+	 */
+	public synchronized void start(File activeFile, TaskScheduler taskScheduler, long periodMs) throws IOException {
+		if (moveDirectory != null && !moveDirectory.isDirectory() && !moveDirectory.mkdirs()) {
+			throw new IOException("Cannot create the retention directory: " + moveDirectory);
+		}
+
+		scan(activeFile);
+
+		if (taskScheduler == null) {
+			ownTaskScheduler = new ThreadPoolTaskScheduler();
+			ownTaskScheduler.setThreadNamePrefix(RetentionSweeper.class.getSimpleName() + "-");
+			ownTaskScheduler.setDaemon(true);
+			ownTaskScheduler.initialize();
+			taskScheduler = ownTaskScheduler;
+		}
+		// the first pass one period from now, not concurrently with the start
+		sweepFuture = taskScheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				sweep();
+			}
+		}, new Date(System.currentTimeMillis() + periodMs), periodMs);
+	}
+
+	public synchronized void stop() {
+		if (sweepFuture != null) {
+			sweepFuture.cancel(false);
+			sweepFuture = null;
+		}
+		if (ownTaskScheduler != null) {
+			ownTaskScheduler.shutdown();
+			ownTaskScheduler = null;
+		}
+	}
+
+	/**
+	 * Called by the stream for every rolled segment, before it is compressed. Only queues the segment, it is indexed
+	 * by the next pass.
+	 */
+	@Override
+	public void archived(File archiveFile) {
+		archivedFiles.add(archiveFile);
+	}
+
+	/**
+	 * Removes the expired segments and, if the total size exceeds the budget, the oldest segments until it does not.
+	 */
+	public synchronized void sweep() {
+		File archiveFile;
+		while ((archiveFile = archivedFiles.poll()) != null) {
+			add(archiveFile, System.currentTimeMillis());
+		}
+
+		Iterator<Segment> pending = unsettled.iterator();
+		while (pending.hasNext()) {
+			Segment segment = pending.next();
+			if (!refresh(segment)) {
+				pending.remove();
+			}
+		}
+
+		long cutoff = System.currentTimeMillis() - retainMs;
+		while (!index.isEmpty()) {
+			Segment oldest = index.first();
+			boolean expired = retainMs > 0 && oldest.timestamp < cutoff;
+			boolean overBudget = retainMaxBytes > 0 && indexedBytes > retainMaxBytes;
+			if (!expired && !overBudget) {
+				break;
+			}
+			if (isCompressing(oldest)) {
+				// retry on the next pass
+				break;
+			}
+			try {
+				remove(oldest);
+			} catch (IOException e) {
+				logger.error("Failed to remove the expired segment: " + oldest.file, e);
+				break;
+			}
+			index.remove(oldest);
+			unsettled.remove(oldest);
+			indexedBytes -= oldest.size;
+		}
+	}
+
+	private boolean isCompressing(Segment segment) {
+		return archiveExtension != null
+				&& new File(segment.file.getPath() + archiveExtension + tempExtension).exists();
+	}
+
+	private void scan(File activeFile) throws IOException {
+		File activeSegment = (activeFile != null) ? activeFile.getAbsoluteFile() : null;
+		DirectoryStream<Path> files = Files.newDirectoryStream(directory.toPath(), new DirectoryStream.Filter<Path>() {
+			@Override
+			public boolean accept(Path path) {
+				return path.getFileName().toString().startsWith(archiveNamePrefix + segmentNames.getPrefix());
+			}
+		});
+		try {
+			for (Path path : files) {
+				File file = path.toFile();
+				String name = file.getName();
+				if (name.endsWith(tempExtension) || name.endsWith(SegmentIndex.EXTENSION)
+						|| name.endsWith(BlockIndex.EXTENSION) || file.equals(activeSegment) || !file.isFile()) {
+					continue;
+				}
+				if (archiveExtension != null && name.endsWith(archiveExtension)) {
+					file = new File(file.getParentFile(), name.substring(0, name.length() - archiveExtension.length()));
+				}
+				add(file, file.lastModified());
+			}
+		} finally {
+			files.close();
+		}
+	}
+
+	private void add(File file, long defaultTimestamp) {
+		FileNameTemplate.ParsedName parsed = parseName(file.getName());
+		if (parsed == null) {
+			// an archive of another stripe or partition, counted against its own budget
+			return;
+		}
+		long timestamp = segmentNames.isDated() ? parsed.getTime() : defaultTimestamp;
+		Segment segment = new Segment(file, timestamp, parsed.getSequence());
+		if (index.add(segment) && refresh(segment)) {
+			unsettled.add(segment);
+		}
+	}
+
+	/**
+	 * Updates the size of the segment, once compressed its size does not change any more.
+	 * 
+	 * @return true if the segment may still change
+	 */
+	private boolean refresh(Segment segment) {
+		File compressed = (archiveExtension != null) ? new File(segment.file.getPath() + archiveExtension) : null;
+		long size;
+		boolean settled;
+		if (compressed != null && compressed.exists()) {
+			size = compressed.length();
+			settled = true;
+		} else if (segment.file.exists()) {
+			size = segment.file.length();
+			settled = compressed == null;
+		} else {
+			// removed by someone else
+			index.remove(segment);
+			size = 0;
+			settled = true;
+		}
+		indexedBytes += size - segment.size;
+		segment.size = size;
+		return !settled;
+	}
+
+	/**
+	 * @return The start time and sequence of the archive (without the archive extension) from its name, or null if it
+	 *         is not an archive of the stream.
+	 */
+	private FileNameTemplate.ParsedName parseName(String name) {
+		if (!name.startsWith(archiveNamePrefix) || !name.endsWith(segmentExtension)) {
+			return null;
+		}
+		return segmentNames.parse(name.substring(archiveNamePrefix.length(), name.length()
+				- segmentExtension.length()));
+	}
+
+	private void remove(Segment segment) throws IOException {
+		File[] files = { segment.file,
+				(archiveExtension != null) ? new File(segment.file.getPath() + archiveExtension) : null,
+				(archiveExtension != null) ? new File(segment.file.getPath() + archiveExtension + BlockIndex.EXTENSION)
+						: null, new File(segment.file.getPath() + SegmentIndex.EXTENSION) };
+		for (File file : files) {
+			if (file == null || !file.exists()) {
+				continue;
+			}
+			if (moveDirectory != null) {
+				move(file, new File(moveDirectory, file.getName()));
+				movedCount++;
+				logger.debug("Moved the expired segment {} to {}", file, moveDirectory);
+			} else {
+				Files.delete(file.toPath());
+				deletedCount++;
+				logger.debug("Deleted the expired segment {}", file);
+			}
+		}
+	}
+
+	/**
+	 * Renames the file if the target is on the same file system. Otherwise the content is copied with
+	 * {@link FileChannel#transferTo}, which lets the kernel copy the bytes without passing them through the heap.
+	 */
+	static void move(File source, File target) throws IOException {
+		try {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			return;
+		} catch (AtomicMoveNotSupportedException e) {
+			// another volume
+		}
+
+		File tmpTarget = new File(target.getPath() + MOVE_TEMP_EXTENSION);
+		FileChannel in = new FileInputStream(source).getChannel();
+		try {
+			FileChannel out = new FileOutputStream(tmpTarget).getChannel();
+			try {
+				long size = in.size();
+				long position = 0;
+				while (position < size) {
+					position += in.transferTo(position, size - position, out);
+				}
+				out.force(false);
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+		Files.move(tmpTarget.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		Files.delete(source.toPath());
+	}
+
+	/**
+	 * @return Number of segments in the index.
+	 */
+	public synchronized int getIndexedCount() {
+		return index.size();
+	}
+
+	/**
+	 * @return Total size of the indexed segments, in bytes.
+	 */
+	public synchronized long getIndexedBytes() {
+		return indexedBytes;
+	}
+
+	/**
+	 * @return Number of files deleted since the sweeper started.
+	 */
+	public long getDeletedCount() {
+		return deletedCount;
+	}
+
+	/**
+	 * @return Number of files moved to the retention directory since the sweeper started.
+	 */
+	public long getMovedCount() {
+		return movedCount;
+	}
+
+	private static class Segment implements Comparable<Segment> {
+
+		final File file;
+
+		final long timestamp;
+
+		final long sequence;
+
+		long size;
+
+		Segment(File file, long timestamp, long sequence) {
+			this.file = file;
+			this.timestamp = timestamp;
+			this.sequence = sequence;
+		}
+
+		/**
+		 * Oldest first: by the time in the name, then by the sequence in the time bucket, numerically.
+		 */
+		@Override
+		public int compareTo(Segment other) {
+			if (timestamp != other.timestamp) {
+				return (timestamp < other.timestamp) ? -1 : 1;
+			}
+			if (sequence != other.sequence) {
+				return (sequence < other.sequence) ? -1 : 1;
+			}
+			return file.compareTo(other.file);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Segment && compareTo((Segment) other) == 0;
+		}
+
+		@Override
+		public int hashCode() {
+			return file.hashCode();
+		}
+	}
+}
@@ -12,25 +12,59 @@
  */
 package org.springframework.integration.x.rollover.file;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-import org.apache.commons.io.IOUtils;
+import com.codahale.metrics.MetricRegistry;
+import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.Lifecycle;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.integration.expression.ExpressionUtils;
 import org.springframework.integration.handler.AbstractMessageHandler;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessagingException;
+import org.springframework.scheduling.TaskScheduler;
 
 /**
  * @author Christian Tzolov (christian.tzolov@gmail.com)
  */
 public class RolloverFileMessageHandler extends AbstractMessageHandler implements Lifecycle {
 
+	private static final int MAX_WRITE_BEHIND_BATCH_SIZE = 1024;
+
+	private static final long RETENTION_SWEEP_PERIOD_MS = 60 * 1000;
+
+	private static final long DAY_IN_MS = 1000L * 60 * 60 * 24;
+
+	private static final int RECOVERY_PARALLELISM = 4;
+
+	static final String STRIPE_SUFFIX = ".part-";
+
+	private static final String DEFAULT_PARTITION = "default";
+
 	private Logger logger = LoggerFactory.getLogger(RolloverFileMessageHandler.class);
 
 	private String filename;
@@ -39,21 +73,74 @@ public class RolloverFileMessageHandler extends AbstractMessageHandler implement
 	private String dateFormat;
 
 	private int bufferSize = 8192;
+	// adaptive buffer sizing between the two, fixed bufferSize if maxBufferSize is not positive
+	private int minBufferSize = 4096;
+	private int maxBufferSize = 0;
 	private long flushRate = 0;
+	private long flushIntervalMs = 0;
+	private long flushBytes = 0;
+	private String durability = "none";
+	private long durabilityIntervalMs = 1000;
 
 	private long rolloverPeriod = 1000L * 60 * 60 * 24;
 
 	private long maxRolledFileSize = -1;
 	private String archivePrefix = "";
 	private boolean compressArchive = true;
+	private String charset = RolloverFileOutputStream.DEFAULT_CHARSET;
+	private String outputMode = "stream";
+
+	// framed records ("none", "length" or "length-crc32c") and their sparse index, none if the interval is not positive
+	private String recordFraming = "none";
+	private int recordIndexInterval = 0;
+
+	// write-behind mode, synchronous writes if the capacity is not positive
+	private int asyncQueueCapacity = 0;
+	private String asyncBackpressure = "block";
+	private WriteBehindRingBuffer writeBehindBuffer;
+
+	// retention, archives are kept forever if neither limit is positive
+	private int retainDays = 0;
+	private long retainMaxBytes = -1;
+	private String retentionDirectory = "";
+
+	// striped mode, the messages are spread over this many segment files written concurrently
+	private int stripes = 1;
+	private String stripeHeader = "";
+	private final Object stripeRollLock = new Object();
+
+	// partitioned mode, a stream per value of the partitionExpression
+	private String partitionExpression = "";
+	private int maxOpenPartitions = 100;
+	private long partitionIdleTimeoutMs = 5 * 60 * 1000;
+	private Expression partitionKeyExpression;
+	private EvaluationContext evaluationContext;
+	// Guarded by itself. Access ordered, the least recently used partition comes first.
+	private volatile LinkedHashMap<String, Stripe> partitions = null;
+	// Guarded by partitions. Kept while the sink runs, across the closes and reopens of the partitions.
+	private final Map<String, RetentionSweeper> partitionSweepers = new HashMap<String, RetentionSweeper>();
+	private final Set<String> recoveredPartitions = new HashSet<String>();
+	private final List<SegmentRecovery> partitionRecoveries = new ArrayList<SegmentRecovery>();
+	// Guarded by partitions. The keys of the partitions being opened or closed, with the latch released once done: no
+	// other stream of the key is opened meanwhile, it would write, archive and spare the same files.
+	private final Map<String, CountDownLatch> pendingPartitions = new HashMap<String, CountDownLatch>();
+	private ScheduledFuture<?> idlePartitionsFuture;
+	private final AtomicLong closedPartitionCount = new AtomicLong();
+
+	// metrics, in a registry of their own if none is set
+	private MetricRegistry metricRegistry;
+	private String streamName = RolloverFileMetrics.DOMAIN;
+	private boolean jmxEnabled = true;
+	private RolloverFileMetrics metrics;
 
-	private AtomicLong messageCounter;
 	private volatile boolean running = false;
-	private RolloverFileOutputStream outputStream = null;
+	private volatile Stripe[] outputStripes = null;
 
 	@Autowired
 	private FileCompressor fileCompressor;
 
+	private TaskScheduler taskScheduler;
+
 	private boolean binary;
 
 	public RolloverFileMessageHandler() {
@@ -62,40 +149,450 @@ public class RolloverFileMessageHandler extends AbstractMessageHandler implement
 	@Override
 	public void start() {
 
-		if (outputStream == null) {
+		if (outputStripes == null && partitions == null) {
+			if (asyncQueueCapacity > 0 && (stripes > 1 || StringUtils.isNotEmpty(partitionExpression))) {
+				throw new IllegalStateException(
+						"The write-behind buffer (asyncQueueCapacity) can't be combined with stripes or a partitionExpression");
+			}
+
+			Stripe[] newStripes = null;
+			boolean started = false;
 			try {
 
-				long startRolloverTimeMs = (rolloverPeriod > 0) ? new Date().getTime() : -1;
+				metrics = new RolloverFileMetrics((metricRegistry != null) ? metricRegistry : new MetricRegistry(),
+						streamName);
+				metrics.registerGauges(this);
+				if (jmxEnabled) {
+					metrics.startJmxReporter();
+				}
 
-				RolloverFileOutputStream rolloverFileOutputStream = new RolloverFileOutputStream(filename, append,
-						TimeZone.getTimeZone(timeZoneID), dateFormat, startRolloverTimeMs, rolloverPeriod,
-						maxRolledFileSize, archivePrefix, compressArchive, bufferSize, fileCompressor);
+				if (StringUtils.isNotEmpty(partitionExpression)) {
+					startPartitions();
+					started = true;
+					running = true;
+					logger.info("Rollover File Sink Started, partitioned by " + partitionExpression);
+					return;
+				}
 
-				outputStream = rolloverFileOutputStream;
+				int stripeCount = Math.max(1, stripes);
+				newStripes = new Stripe[stripeCount];
+				for (int k = 0; k < stripeCount; k++) {
+					newStripes[k] = new Stripe(
+							createOutputStream((stripeCount > 1) ? filename + STRIPE_SUFFIX + k : filename));
+				}
+				outputStripes = newStripes;
 
-				messageCounter = new AtomicLong(0);
+				if (retainDays > 0 || retainMaxBytes > 0) {
+					for (Stripe stripe : outputStripes) {
+						startRetentionSweeper(stripe);
+					}
+				}
 
+				if (asyncQueueCapacity > 0) {
+					writeBehindBuffer = new WriteBehindRingBuffer(asyncQueueCapacity, MAX_WRITE_BEHIND_BATCH_SIZE,
+							WriteBehindRingBuffer.Backpressure.valueOf(asyncBackpressure.toUpperCase(Locale.ENGLISH)),
+							new WriteBehindRingBuffer.BatchWriter() {
+								@Override
+								public void write(Object[] payloads, int count) throws IOException {
+									writeBatch(payloads, count);
+								}
+							});
+					writeBehindBuffer.start("rollover-file-writer-" + new File(filename).getName());
+				}
+
+				// clean up after a previous run in the background, the directory may hold many files
+				for (Stripe stripe : outputStripes) {
+					stripe.segmentRecovery = new SegmentRecovery(stripe.stream, dateFormat,
+							isCompressedAfterRoll() ? fileCompressor : null, RECOVERY_PARALLELISM);
+					stripe.segmentRecovery.setActiveFiles(activeFiles);
+					stripe.segmentRecovery.start("rollover-file-recovery-"
+							+ new File(stripe.stream.getFilename()).getName());
+				}
+
+				started = true;
 				running = true;
 
 				logger.info("Rollover File Sink Started");
 
 			} catch (IOException e) {
 				logger.error("Filed to create rollover output stream", e);
+			} finally {
+				if (!started) {
+					abortStart(newStripes);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Closes what a failed start has opened, the stripes opened before the failure and the metrics, so the sink can
+	 * be started again.
+	 */
+	private void abortStart(Stripe[] newStripes) {
+		outputStripes = null;
+		partitions = null;
+		if (idlePartitionsFuture != null) {
+			idlePartitionsFuture.cancel(false);
+			idlePartitionsFuture = null;
+		}
+		if (writeBehindBuffer != null) {
+			try {
+				writeBehindBuffer.stop();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
 			}
+			writeBehindBuffer = null;
+		}
+		if (newStripes != null) {
+			for (Stripe stripe : newStripes) {
+				if (stripe == null) {
+					continue;
+				}
+				if (stripe.retentionSweeper != null) {
+					stripe.retentionSweeper.stop();
+				}
+				try {
+					stripe.stream.close();
+				} catch (IOException e) {
+					logger.error("Filed to close the rollover output stream", e);
+				}
+			}
+		}
+		if (metrics != null) {
+			metrics.close();
 		}
 	}
 
+	private void startPartitions() {
+		partitionKeyExpression = new SpelExpressionParser().parseExpression(partitionExpression);
+		evaluationContext = (getBeanFactory() != null)
+				? ExpressionUtils.createStandardEvaluationContext(getBeanFactory())
+				: ExpressionUtils.createStandardEvaluationContext();
+		partitions = new LinkedHashMap<String, Stripe>(16, 0.75f, true);
+		if (partitionIdleTimeoutMs > 0 && taskScheduler != null) {
+			long period = Math.max(partitionIdleTimeoutMs / 2, 1);
+			idlePartitionsFuture = taskScheduler.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					closeIdlePartitions();
+				}
+			}, new Date(System.currentTimeMillis() + period), period);
+		}
+	}
+
+	private RolloverFileOutputStream createOutputStream(String stripeFilename) throws IOException {
+
+		// the first segment is opened now, the first time based roll over is one period later
+		long startRolloverTimeMs = (rolloverPeriod > 0) ? new Date().getTime() + rolloverPeriod : -1;
+
+		RolloverFileOutputStream rolloverFileOutputStream = new RolloverFileOutputStream(stripeFilename, append,
+				TimeZone.getTimeZone(timeZoneID), dateFormat, startRolloverTimeMs, rolloverPeriod,
+				maxRolledFileSize, archivePrefix, compressArchive, bufferSize,
+				RolloverFileOutputStream.OutputMode.valueOf(outputMode.toUpperCase(Locale.ENGLISH)), fileCompressor,
+				taskScheduler);
+		rolloverFileOutputStream.setCharset(Charset.forName(charset));
+		rolloverFileOutputStream.setMetrics(metrics);
+		rolloverFileOutputStream.setFlushInterval(flushIntervalMs);
+		rolloverFileOutputStream.setDurability(
+				RolloverFileOutputStream.Durability.valueOf(durability.toUpperCase(Locale.ENGLISH)),
+				durabilityIntervalMs);
+		rolloverFileOutputStream.setRecordFraming(RolloverFileOutputStream.RecordFraming.valueOf(recordFraming
+				.toUpperCase(Locale.ENGLISH).replace('-', '_')), recordIndexInterval);
+		rolloverFileOutputStream.setAdaptiveBufferSize(minBufferSize, maxBufferSize);
+		return rolloverFileOutputStream;
+	}
+
+	/**
+	 * @return true if the rolled files are compressed by the {@link FileCompressor}
+	 */
+	private boolean isCompressedAfterRoll() {
+		return compressArchive && !"compressed".equalsIgnoreCase(outputMode);
+	}
+
+	/**
+	 * Every stripe has a sweeper of its own, with an even share of the retainMaxBytes budget.
+	 */
+	private void startRetentionSweeper(Stripe stripe) throws IOException {
+		long stripeMaxBytes = (retainMaxBytes > 0) ? retainMaxBytes / outputStripes.length : retainMaxBytes;
+		stripe.retentionSweeper = startRetentionSweeper(stripe.stream, stripeMaxBytes);
+	}
+
+	private RetentionSweeper startRetentionSweeper(RolloverFileOutputStream stream, long maxBytes)
+			throws IOException {
+		String archiveExtension = isCompressedAfterRoll() ? fileCompressor.getCodec().getExtension() : null;
+		File moveDirectory = StringUtils.isEmpty(retentionDirectory) ? null : new File(retentionDirectory);
+		RetentionSweeper retentionSweeper = new RetentionSweeper(stream.getFilename(), dateFormat, archivePrefix,
+				archiveExtension, retainDays * DAY_IN_MS, maxBytes, moveDirectory);
+		// in the compressed output mode the segments carry the codec extension from the start
+		retentionSweeper.setSegmentExtension(stream.getSegmentExtension());
+		if (fileCompressor != null) {
+			retentionSweeper.setTempExtension(fileCompressor.getTempExtension());
+		}
+		retentionSweeper.start(new File(stream.getDatedFilename()), taskScheduler, RETENTION_SWEEP_PERIOD_MS);
+		stream.setArchiveListener(retentionSweeper);
+		return retentionSweeper;
+	}
+
+	/**
+	 * @return The open partition of the key, opened (and the least recently used partition closed if there are too
+	 *         many) if needed. The stream is opened outside the lock of the partitions, so a slow open only holds up
+	 *         the writers of its own key. These also wait for a previous stream of the key to be closed.
+	 */
+	private Stripe openPartition(String key) throws IOException {
+		LinkedHashMap<String, Stripe> currentPartitions = partitions;
+		if (currentPartitions == null) {
+			throw new IOException("The sink is stopped, partition not opened: " + key);
+		}
+		CountDownLatch opened = new CountDownLatch(1);
+		RetentionSweeper retentionSweeper;
+		while (true) {
+			CountDownLatch pending;
+			synchronized (currentPartitions) {
+				if (partitions != currentPartitions) {
+					throw new IOException("The sink is stopped, partition not opened: " + key);
+				}
+				Stripe partition = currentPartitions.get(key);
+				if (partition != null) {
+					partition.lastAccessMs = System.currentTimeMillis();
+					return partition;
+				}
+				pending = pendingPartitions.get(key);
+				if (pending == null) {
+					pendingPartitions.put(key, opened);
+					retentionSweeper = partitionSweepers.get(key);
+					break;
+				}
+			}
+			awaitPartition(pending);
+		}
+
+		RolloverFileOutputStream stream = null;
+		RetentionSweeper newRetentionSweeper = null;
+		Stripe partition = null;
+		Map.Entry<String, Stripe> evicted = null;
+		boolean recover = false;
+		try {
+			stream = createOutputStream(filename + "." + key);
+			if (retainDays > 0 || retainMaxBytes > 0) {
+				if (retentionSweeper == null) {
+					newRetentionSweeper = startRetentionSweeper(stream, retainMaxBytes);
+				} else {
+					stream.setArchiveListener(retentionSweeper);
+				}
+			}
+			synchronized (currentPartitions) {
+				if (partitions == currentPartitions) {
+					if (newRetentionSweeper != null) {
+						partitionSweepers.put(key, newRetentionSweeper);
+					}
+					recover = recoveredPartitions.add(key);
+					partition = new Stripe(stream);
+					partition.lastAccessMs = System.currentTimeMillis();
+					currentPartitions.put(key, partition);
+					if (currentPartitions.size() > maxOpenPartitions) {
+						Iterator<Map.Entry<String, Stripe>> leastRecentlyUsed = currentPartitions.entrySet().iterator();
+						evicted = leastRecentlyUsed.next();
+						leastRecentlyUsed.remove();
+						pendingPartitions.put(evicted.getKey(), new CountDownLatch(1));
+					}
+				}
+			}
+		} finally {
+			if (partition == null) {
+				// failed, or the sink stopped in the meantime
+				if (newRetentionSweeper != null) {
+					newRetentionSweeper.stop();
+				}
+				if (stream != null) {
+					stream.close();
+				}
+			}
+			synchronized (currentPartitions) {
+				pendingPartitions.remove(key);
+			}
+			opened.countDown();
+		}
+		if (partition == null) {
+			throw new IOException("The sink is stopped, partition not opened: " + key);
+		}
+
+		if (recover) {
+			SegmentRecovery segmentRecovery = new SegmentRecovery(stream, dateFormat,
+					isCompressedAfterRoll() ? fileCompressor : null, RECOVERY_PARALLELISM);
+			segmentRecovery.setActiveFiles(activeFiles);
+			segmentRecovery.start("rollover-file-recovery-" + new File(stream.getFilename()).getName());
+			synchronized (currentPartitions) {
+				partitionRecoveries.add(segmentRecovery);
+			}
+		}
+		if (evicted != null) {
+			closePartition(currentPartitions, evicted.getKey(), evicted.getValue());
+		}
+		return partition;
+	}
+
+	private static void awaitPartition(CountDownLatch pending) throws IOException {
+		try {
+			pending.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for a partition to be opened or closed", e);
+		}
+	}
+
+	/**
+	 * The segments written or being rolled by any open stripe or partition, never archived by a recovery.
+	 */
+	private final SegmentRecovery.ActiveFiles activeFiles = new SegmentRecovery.ActiveFiles() {
+
+		@Override
+		public boolean contains(File file) {
+			List<Stripe> open = new ArrayList<Stripe>();
+			Stripe[] currentStripes = outputStripes;
+			if (currentStripes != null) {
+				open.addAll(Arrays.asList(currentStripes));
+			}
+			LinkedHashMap<String, Stripe> currentPartitions = partitions;
+			if (currentPartitions != null) {
+				synchronized (currentPartitions) {
+					open.addAll(currentPartitions.values());
+				}
+			}
+			for (Stripe stripe : open) {
+				if (stripe.stream.isWriting(file)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	};
+
+	private void closeIdlePartitions() {
+		long idleSince = System.currentTimeMillis() - partitionIdleTimeoutMs;
+		Map<String, Stripe> idle = new HashMap<String, Stripe>();
+		LinkedHashMap<String, Stripe> currentPartitions = partitions;
+		if (currentPartitions == null) {
+			return;
+		}
+		synchronized (currentPartitions) {
+			Iterator<Map.Entry<String, Stripe>> iterator = currentPartitions.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<String, Stripe> partition = iterator.next();
+				if (partition.getValue().lastAccessMs < idleSince) {
+					idle.put(partition.getKey(), partition.getValue());
+					pendingPartitions.put(partition.getKey(), new CountDownLatch(1));
+					iterator.remove();
+				}
+			}
+		}
+		for (Map.Entry<String, Stripe> partition : idle.entrySet()) {
+			closePartition(currentPartitions, partition.getKey(), partition.getValue());
+		}
+	}
+
+	/**
+	 * Closes, and so archives, the segment of a partition removed from the open partitions, and then releases its
+	 * pending key. Waits for the writes in progress, later writers find the partition closed and open it again.
+	 */
+	private void closePartition(LinkedHashMap<String, Stripe> owner, String key, Stripe partition) {
+		partition.lock.writeLock().lock();
+		try {
+			if (!partition.closed) {
+				partition.closed = true;
+				partition.stream.close();
+				closedPartitionCount.incrementAndGet();
+			}
+		} catch (IOException e) {
+			logger.error("Failed to close the partition " + partition.stream.getFilename(), e);
+		} finally {
+			partition.lock.writeLock().unlock();
+			CountDownLatch closed;
+			synchronized (owner) {
+				closed = pendingPartitions.remove(key);
+			}
+			if (closed != null) {
+				closed.countDown();
+			}
+		}
+	}
+
+	/**
+	 * Closes the open partitions and waits for those being opened or closed by the writers.
+	 */
+	private void stopPartitions() throws IOException {
+		if (idlePartitionsFuture != null) {
+			idlePartitionsFuture.cancel(false);
+			idlePartitionsFuture = null;
+		}
+		LinkedHashMap<String, Stripe> currentPartitions = partitions;
+		Map<String, Stripe> open;
+		List<CountDownLatch> pending;
+		synchronized (currentPartitions) {
+			// the writers opening a partition now close it again
+			partitions = null;
+			pending = new ArrayList<CountDownLatch>(pendingPartitions.values());
+			open = new HashMap<String, Stripe>(currentPartitions);
+			currentPartitions.clear();
+			for (String key : open.keySet()) {
+				pendingPartitions.put(key, new CountDownLatch(1));
+			}
+			for (RetentionSweeper retentionSweeper : partitionSweepers.values()) {
+				retentionSweeper.stop();
+			}
+			partitionSweepers.clear();
+			recoveredPartitions.clear();
+			partitionRecoveries.clear();
+		}
+		for (Map.Entry<String, Stripe> partition : open.entrySet()) {
+			closePartition(currentPartitions, partition.getKey(), partition.getValue());
+		}
+		for (CountDownLatch latch : pending) {
+			awaitPartition(latch);
+		}
+	}
+
+	/**
+	 * @return The partition key of the message, with the characters that don't belong in a file name replaced.
+	 */
+	private String partitionKey(Message<?> message) {
+		Object value = partitionKeyExpression.getValue(evaluationContext, message);
+		if (value == null) {
+			return DEFAULT_PARTITION;
+		}
+		return value.toString().replaceAll("[^A-Za-z0-9_.-]", "_");
+	}
+
 	@Override
 	public void stop() {
 
-		if (outputStream != null) {
+		if (outputStripes != null || partitions != null) {
 			try {
-				outputStream.close();
+				if (writeBehindBuffer != null) {
+					writeBehindBuffer.stop();
+				}
+				if (partitions != null) {
+					stopPartitions();
+				} else {
+					for (Stripe stripe : outputStripes) {
+						stripe.stream.close();
+					}
+					for (Stripe stripe : outputStripes) {
+						if (stripe.retentionSweeper != null) {
+							stripe.retentionSweeper.stop();
+						}
+					}
+				}
 			} catch (IOException e) {
 				logger.error("Filed to close the rollover output stream", e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				logger.error("Interrupted while draining the write-behind buffer", e);
 			} finally {
 				running = false;
-				outputStream = null;
+				outputStripes = null;
+				partitions = null;
+				writeBehindBuffer = null;
+				metrics.close();
 				logger.info("Rollover File Sink Stoped");
 			}
 		}
@@ -110,33 +607,208 @@ public class RolloverFileMessageHandler extends AbstractMessageHandler implement
 	protected void handleMessageInternal(Message<?> message) throws Exception {
 		Object payload = message.getPayload();
 
-		if (payload instanceof String) {
+		if (payload instanceof byte[][]) {
+			payload = Arrays.asList((byte[][]) payload);
+		}
+
+		if (!isRecord(payload) && !isRecordBatch(payload)) {
+			throw new MessagingException(message,
+					"Only String, byte[], byte[][] and Collection of String or byte[] message payloads are supported");
+		}
+
+		if (writeBehindBuffer != null) {
+			if (!writeBehindBuffer.publish(payload)) {
+				if ("fail".equalsIgnoreCase(asyncBackpressure)) {
+					throw new MessagingException(message, "The write-behind buffer is full");
+				}
+				logger.debug("The write-behind buffer is full, message dropped");
+			}
+			return;
+		}
+
+		if (partitions != null) {
+			writePartitioned(message, payload);
+			return;
+		}
+
+		Stripe stripe = selectStripe(message);
+		long start = System.nanoTime();
+		int records = 1;
+		try {
+			records = writePayload(stripe.stream, payload);
+		} catch (IOException e) {
+			logger.error("Failed to write payload to rollover output stream", e);
+		}
+
+		afterWrite(stripe, records, System.nanoTime() - start);
+	}
+
+	private void writePartitioned(Message<?> message, Object payload) throws IOException {
+		String key = partitionKey(message);
+		while (true) {
+			Stripe partition = openPartition(key);
+			partition.lock.readLock().lock();
 			try {
-				String s = (String) payload;
-				if (!binary) {
-					s += "\n";
+				if (partition.closed) {
+					// closed between the lookup and the lock, open it again
+					continue;
 				}
-				IOUtils.write(s, outputStream);
-				
-			} catch (IOException e) {
-				logger.error("Failed to write payload to rollover output stream", e);
+				long start = System.nanoTime();
+				int records = 1;
+				try {
+					records = writePayload(partition.stream, payload);
+				} catch (IOException e) {
+					logger.error("Failed to write payload to rollover output stream", e);
+				}
+				afterWrite(partition, records, System.nanoTime() - start);
+				return;
+			} finally {
+				partition.lock.readLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * @return The stripe of the message: by hash of the stripeHeader value if the message has one, by writer thread
+	 *         otherwise.
+	 */
+	private Stripe selectStripe(Message<?> message) {
+		Stripe[] currentStripes = outputStripes;
+		if (currentStripes.length == 1) {
+			return currentStripes[0];
+		}
+		Object key = StringUtils.isEmpty(stripeHeader) ? null : message.getHeaders().get(stripeHeader);
+		int hash = (key != null) ? key.hashCode() : (int) Thread.currentThread().getId();
+		hash ^= (hash >>> 16);
+		return currentStripes[(hash & Integer.MAX_VALUE) % currentStripes.length];
+	}
+
+	private static boolean isRecord(Object payload) {
+		return payload instanceof String || payload instanceof byte[];
+	}
+
+	private static boolean isRecordBatch(Object payload) {
+		if (!(payload instanceof Collection)) {
+			return false;
+		}
+		for (Object record : (Collection<?>) payload) {
+			if (!isRecord(record)) {
+				return false;
 			}
-		} else if (payload instanceof byte[]) {
+		}
+		return true;
+	}
+
+	/**
+	 * Writes a batch drained from the write-behind buffer, with a single flush and roll over check for the batch.
+	 * Write-behind mode is not striped, there is a single writer thread.
+	 */
+	private void writeBatch(Object[] payloads, int count) throws IOException {
+		Stripe stripe = outputStripes[0];
+		long start = System.nanoTime();
+		int records = 0;
+		for (int i = 0; i < count; i++) {
 			try {
-				IOUtils.write(((byte[]) payload), outputStream);
+				records += writePayload(stripe.stream, payloads[i]);
 			} catch (IOException e) {
 				logger.error("Failed to write payload to rollover output stream", e);
 			}
-		} else {
-			throw new MessagingException(message, "Only String and byte[] message payload are supported");
 		}
+		afterWrite(stripe, records, System.nanoTime() - start);
+	}
+
+	/**
+	 * @return the number of records written
+	 */
+	private int writePayload(RolloverFileOutputStream outputStream, Object payload) throws IOException {
+		if (outputStream.getRecordFraming() != RolloverFileOutputStream.RecordFraming.NONE) {
+			return writeFramedPayload(outputStream, payload);
+		}
+		if (payload instanceof String) {
+			outputStream.write((String) payload, !binary);
+			return 1;
+		}
+		if (payload instanceof byte[]) {
+			outputStream.write((byte[]) payload);
+			return 1;
+		}
+		Collection<?> records = (Collection<?>) payload;
+		outputStream.write(records, !binary);
+		return records.size();
+	}
+
+	/**
+	 * Every record is framed, Strings are encoded without a newline.
+	 * 
+	 * @return the number of records written
+	 */
+	private int writeFramedPayload(RolloverFileOutputStream outputStream, Object payload) throws IOException {
+		if (payload instanceof String) {
+			outputStream.writeRecord((String) payload);
+			return 1;
+		}
+		if (payload instanceof byte[]) {
+			outputStream.writeRecord((byte[]) payload);
+			return 1;
+		}
+		Collection<?> records = (Collection<?>) payload;
+		outputStream.writeRecords(records);
+		return records.size();
+	}
+
+	/**
+	 * Flushes if the written records crossed a multiple of the flushRate or at least flushBytes wait in the buffer, and
+	 * rolls over the file if it is too big. Called once per message, or once per drained batch in write-behind mode,
+	 * whatever the number of records. The flushIntervalMs is enforced by a task of the stream, not here. In group
+	 * durability mode it returns once the written records are on the storage device.
+	 */
+	private void afterWrite(Stripe stripe, int records, long writeNanos) throws IOException {
+		metrics.written(records, writeNanos);
 
-		if (flushRate > 0 && ((messageCounter.addAndGet(1) % flushRate) == 0)) {
+		RolloverFileOutputStream outputStream = stripe.stream;
+		boolean flush = false;
+		if (flushRate > 0 && records > 0) {
+			long before = stripe.messageCounter.getAndAdd(records);
+			flush = (before % flushRate) + records >= flushRate;
+		}
+		if (flushBytes > 0 && outputStream.getUnflushedBytes() >= flushBytes) {
+			flush = true;
+		}
+		if (flush) {
 			outputStream.flush();
 		}
-		
+
+		if (outputStream.getDurability() == RolloverFileOutputStream.Durability.GROUP) {
+			outputStream.sync();
+		}
+
 		// rollover file after write completed.
-		outputStream.rolloverOnFileSize();
+		Stripe[] currentStripes = outputStripes;
+		if (currentStripes == null || currentStripes.length == 1) {
+			outputStream.rolloverOnFileSize();
+		} else if (maxRolledFileSize > 0 && outputStream.getWrittenBytes() >= maxRolledFileSize) {
+			rolloverStripes(currentStripes, outputStream);
+		}
+	}
+
+	/**
+	 * Rolls all stripes together once one of them is full, so the segments of a period line up across the stripes.
+	 * The stripes are those the writer has read, a concurrent stop clears the field.
+	 */
+	private void rolloverStripes(Stripe[] currentStripes, RolloverFileOutputStream fullStream) {
+		synchronized (stripeRollLock) {
+			// another writer may have rolled the stripes in the meantime
+			if (fullStream.getWrittenBytes() < maxRolledFileSize) {
+				return;
+			}
+			for (Stripe stripe : currentStripes) {
+				try {
+					stripe.stream.rollover();
+				} catch (IOException e) {
+					logger.error("roll over failed:", e);
+				}
+			}
+		}
 	}
 
 	public String getFilename() {
@@ -179,6 +851,22 @@ public class RolloverFileMessageHandler extends AbstractMessageHandler implement
 		this.bufferSize = bufferSize;
 	}
 
+	public int getMinBufferSize() {
+		return minBufferSize;
+	}
+
+	public void setMinBufferSize(int minBufferSize) {
+		this.minBufferSize = minBufferSize;
+	}
+
+	public int getMaxBufferSize() {
+		return maxBufferSize;
+	}
+
+	public void setMaxBufferSize(int maxBufferSize) {
+		this.maxBufferSize = maxBufferSize;
+	}
+
 	public long getFlushRate() {
 		return flushRate;
 	}
@@ -187,6 +875,78 @@ public class RolloverFileMessageHandler extends AbstractMessageHandler implement
 		this.flushRate = flushRate;
 	}
 
+	public long getFlushIntervalMs() {
+		return flushIntervalMs;
+	}
+
+	public void setFlushIntervalMs(long flushIntervalMs) {
+		this.flushIntervalMs = flushIntervalMs;
+	}
+
+	public long getFlushBytes() {
+		return flushBytes;
+	}
+
+	public void setFlushBytes(long flushBytes) {
+		this.flushBytes = flushBytes;
+	}
+
+	public int getStripes() {
+		return stripes;
+	}
+
+	public void setStripes(int stripes) {
+		this.stripes = stripes;
+	}
+
+	public String getStripeHeader() {
+		return stripeHeader;
+	}
+
+	public void setStripeHeader(String stripeHeader) {
+		this.stripeHeader = stripeHeader;
+	}
+
+	public String getPartitionExpression() {
+		return partitionExpression;
+	}
+
+	public void setPartitionExpression(String partitionExpression) {
+		this.partitionExpression = partitionExpression;
+	}
+
+	public int getMaxOpenPartitions() {
+		return maxOpenPartitions;
+	}
+
+	public void setMaxOpenPartitions(int maxOpenPartitions) {
+		this.maxOpenPartitions = maxOpenPartitions;
+	}
+
+	public long getPartitionIdleTimeoutMs() {
+		return partitionIdleTimeoutMs;
+	}
+
+	public void setPartitionIdleTimeoutMs(long partitionIdleTimeoutMs) {
+		this.partitionIdleTimeoutMs = partitionIdleTimeoutMs;
+	}
+
+	public String getDurability() {
+		return durability;
+	}
+
+	public void setDurability(String durability) {
+		this.durability = durability;
+	}
+
+	public long getDurabilityIntervalMs() {
+		return durabilityIntervalMs;
+	}
+
+	public void setDurabilityIntervalMs(long durabilityIntervalMs) {
+		this.durabilityIntervalMs = durabilityIntervalMs;
+	}
+
 	public long getRolloverPeriod() {
 		return rolloverPeriod;
 	}
@@ -219,6 +979,158 @@ public class RolloverFileMessageHandler extends AbstractMessageHandler implement
 		this.compressArchive = compressArchive;
 	}
 
+	public String getCharset() {
+		return charset;
+	}
+
+	public void setCharset(String charset) {
+		this.charset = charset;
+	}
+
+	public String getOutputMode() {
+		return outputMode;
+	}
+
+	public void setOutputMode(String outputMode) {
+		this.outputMode = outputMode;
+	}
+
+	public FileCompressor getFileCompressor() {
+		return fileCompressor;
+	}
+
+	public void setFileCompressor(FileCompressor fileCompressor) {
+		this.fileCompressor = fileCompressor;
+	}
+
+	public int getAsyncQueueCapacity() {
+		return asyncQueueCapacity;
+	}
+
+	public void setAsyncQueueCapacity(int asyncQueueCapacity) {
+		this.asyncQueueCapacity = asyncQueueCapacity;
+	}
+
+	public String getAsyncBackpressure() {
+		return asyncBackpressure;
+	}
+
+	public void setAsyncBackpressure(String asyncBackpressure) {
+		this.asyncBackpressure = asyncBackpressure;
+	}
+
+	public int getRetainDays() {
+		return retainDays;
+	}
+
+	public void setRetainDays(int retainDays) {
+		this.retainDays = retainDays;
+	}
+
+	public long getRetainMaxBytes() {
+		return retainMaxBytes;
+	}
+
+	public void setRetainMaxBytes(long retainMaxBytes) {
+		this.retainMaxBytes = retainMaxBytes;
+	}
+
+	public String getRetentionDirectory() {
+		return retentionDirectory;
+	}
+
+	public void setRetentionDirectory(String retentionDirectory) {
+		this.retentionDirectory = retentionDirectory;
+	}
+
+	public MetricRegistry getMetricRegistry() {
+		return metricRegistry;
+	}
+
+	public void setMetricRegistry(MetricRegistry metricRegistry) {
+		this.metricRegistry = metricRegistry;
+	}
+
+	public String getStreamName() {
+		return streamName;
+	}
+
+	/**
+	 * @param streamName
+	 *            Name of the stream, part of all metric names.
+	 */
+	public void setStreamName(String streamName) {
+		this.streamName = streamName;
+	}
+
+	public boolean isJmxEnabled() {
+		return jmxEnabled;
+	}
+
+	public void setJmxEnabled(boolean jmxEnabled) {
+		this.jmxEnabled = jmxEnabled;
+	}
+
+	/**
+	 * @return The metrics of the sink, null until the sink is started.
+	 */
+	public RolloverFileMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return The recovery of the files left behind by the previous run, of the first stripe, null until the sink is
+	 *         started.
+	 */
+	public SegmentRecovery getSegmentRecovery() {
+		Stripe[] currentStripes = outputStripes;
+		return (currentStripes != null) ? currentStripes[0].segmentRecovery : null;
+	}
+
+	/**
+	 * @return The retention sweeper of the first stripe, exposing the size of its index, or null if archives are kept
+	 *         forever.
+	 */
+	public RetentionSweeper getRetentionSweeper() {
+		Stripe[] currentStripes = outputStripes;
+		return (currentStripes != null) ? currentStripes[0].retentionSweeper : null;
+	}
+
+	/**
+	 * @return Number of open partitions in partitioned mode.
+	 */
+	public int getOpenPartitionCount() {
+		LinkedHashMap<String, Stripe> currentPartitions = partitions;
+		if (currentPartitions == null) {
+			return 0;
+		}
+		synchronized (currentPartitions) {
+			return currentPartitions.size();
+		}
+	}
+
+	/**
+	 * @return Number of partitions closed because they were the least recently used or idle.
+	 */
+	public long getClosedPartitionCount() {
+		return closedPartitionCount.get();
+	}
+
+	/**
+	 * @return The write-behind buffer, exposing its queue depth and latency, or null in synchronous mode.
+	 */
+	public WriteBehindRingBuffer getWriteBehindBuffer() {
+		return writeBehindBuffer;
+	}
+
+	public TaskScheduler getTaskScheduler() {
+		return taskScheduler;
+	}
+
+	public void setTaskScheduler(TaskScheduler taskScheduler) {
+		this.taskScheduler = taskScheduler;
+	}
+
 	public boolean isBinary() {
 		return binary;
 	}
@@ -226,4 +1138,46 @@ public class RolloverFileMessageHandler extends AbstractMessageHandler implement
 	public void setBinary(boolean binary) {
 		this.binary = binary;
 	}
+
+	public String getRecordFraming() {
+		return recordFraming;
+	}
+
+	public void setRecordFraming(String recordFraming) {
+		this.recordFraming = recordFraming;
+	}
+
+	public int getRecordIndexInterval() {
+		return recordIndexInterval;
+	}
+
+	public void setRecordIndexInterval(int recordIndexInterval) {
+		this.recordIndexInterval = recordIndexInterval;
+	}
+
+	/**
+	 * One segment file of the sink, a stripe or a partition, with the message count of its flushRate, its retention
+	 * and its recovery.
+	 */
+	private static class Stripe {
+
+		final RolloverFileOutputStream stream;
+
+		final AtomicLong messageCounter = new AtomicLong();
+
+		RetentionSweeper retentionSweeper;
+
+		SegmentRecovery segmentRecovery;
+
+		// Partitions only. Writers hold the read lock, the close of the partition the write lock.
+		final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+		boolean closed;
+
+		volatile long lastAccessMs;
+
+		Stripe(RolloverFileOutputStream stream) {
+			this.stream = stream;
+		}
+	}
 }
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Metrics of one rollover file sink, registered in a {@link MetricRegistry} under "rollover-file.&lt;stream
+ * name&gt;." and optionally published through JMX in the "rollover-file" domain.
+ * 
+ * <ul>
+ * <li>messages, bytes: meters of the written records and bytes (count and rates per second)</li>
+ * <li>writes: timer of the message writes, a latency histogram</li>
+ * <li>flushes: number of flushes</li>
+ * <li>rollovers.time, rollovers.size: number of rollovers by cause</li>
+ * <li>rollovers: timer of the rollovers, from the close of the segment to the compression request</li>
+ * <li>fsyncs: timer of the forces to the storage device, see the durability option</li>
+ * <li>compression.queue, compression.lag, compression.bytesPerSecond, compression.ratio: gauges of the background
+ * compression</li>
+ * <li>writeBehind.queue, writeBehind.dropped: gauges of the write-behind buffer</li>
+ * <li>partitions.open, partitions.closed: gauges of the partitioned mode</li>
+ * </ul>
+ */
+public class RolloverFileMetrics {
+
+	public static final String DOMAIN = "rollover-file";
+
+	private final MetricRegistry registry;
+
+	private final String prefix;
+
+	private final Meter messages;
+
+	private final Meter bytes;
+
+	private final Timer writes;
+
+	private final Counter flushes;
+
+	private final Counter timeRollovers;
+
+	private final Counter sizeRollovers;
+
+	private final Timer rollovers;
+
+	private final Timer fsyncs;
+
+	private final MetricFilter ownMetrics = new MetricFilter() {
+		@Override
+		public boolean matches(String name, Metric metric) {
+			return name.startsWith(prefix + ".");
+		}
+	};
+
+	private JmxReporter jmxReporter;
+
+	/**
+	 * @param registry
+	 *            Registry the metrics are added to.
+	 * @param streamName
+	 *            Name of the stream, tags all metric names.
+	 */
+	public RolloverFileMetrics(MetricRegistry registry, String streamName) {
+		this.registry = registry;
+		this.prefix = MetricRegistry.name(DOMAIN, streamName);
+		this.messages = registry.meter(name("messages"));
+		this.bytes = registry.meter(name("bytes"));
+		this.writes = registry.timer(name("writes"));
+		this.flushes = registry.counter(name("flushes"));
+		this.timeRollovers = registry.counter(name("rollovers", "time"));
+		this.sizeRollovers = registry.counter(name("rollovers", "size"));
+		this.rollovers = registry.timer(name("rollovers"));
+		this.fsyncs = registry.timer(name("fsyncs"));
+	}
+
+	/**
+	 * Adds the gauges reading the state of the handler, its compressor and its write-behind buffer.
+	 */
+	public void registerGauges(final RolloverFileMessageHandler handler) {
+		registry.register(name("compression", "queue"), new Gauge<Integer>() {
+			@Override
+			public Integer getValue() {
+				CompressionScheduler scheduler = getCompressionScheduler(handler);
+				return (scheduler != null) ? scheduler.getQueueLength() : 0;
+			}
+		});
+		registry.register(name("compression", "lag"), new Gauge<Long>() {
+			@Override
+			public Long getValue() {
+				CompressionScheduler scheduler = getCompressionScheduler(handler);
+				return (scheduler != null) ? scheduler.getLagMs() : 0L;
+			}
+		});
+		registry.register(name("compression", "bytesPerSecond"), new Gauge<Long>() {
+			@Override
+			public Long getValue() {
+				CompressionScheduler scheduler = getCompressionScheduler(handler);
+				return (scheduler != null) ? scheduler.getBytesPerSecond() : 0L;
+			}
+		});
+		registry.register(name("compression", "ratio"), new Gauge<Double>() {
+			@Override
+			public Double getValue() {
+				FileCompressor fileCompressor = handler.getFileCompressor();
+				return (fileCompressor != null) ? fileCompressor.getCompressionRatio() : 0.0;
+			}
+		});
+		registry.register(name("writeBehind", "queue"), new Gauge<Integer>() {
+			@Override
+			public Integer getValue() {
+				WriteBehindRingBuffer buffer = handler.getWriteBehindBuffer();
+				return (buffer != null) ? buffer.getQueueDepth() : 0;
+			}
+		});
+		registry.register(name("writeBehind", "dropped"), new Gauge<Long>() {
+			@Override
+			public Long getValue() {
+				WriteBehindRingBuffer buffer = handler.getWriteBehindBuffer();
+				return (buffer != null) ? buffer.getDroppedCount() : 0L;
+			}
+		});
+		registry.register(name("partitions", "open"), new Gauge<Integer>() {
+			@Override
+			public Integer getValue() {
+				return handler.getOpenPartitionCount();
+			}
+		});
+		registry.register(name("partitions", "closed"), new Gauge<Long>() {
+			@Override
+			public Long getValue() {
+				return handler.getClosedPartitionCount();
+			}
+		});
+	}
+
+	private static CompressionScheduler getCompressionScheduler(RolloverFileMessageHandler handler) {
+		FileCompressor fileCompressor = handler.getFileCompressor();
+		return (fileCompressor != null) ? fileCompressor.getCompressionScheduler() : null;
+	}
+
+	public synchronized void startJmxReporter() {
+		if (jmxReporter == null) {
+			jmxReporter = JmxReporter.forRegistry(registry).inDomain(DOMAIN).filter(ownMetrics)
+					.convertRatesTo(TimeUnit.SECONDS).convertDurationsTo(TimeUnit.MICROSECONDS).build();
+			jmxReporter.start();
+		}
+	}
+
+	/**
+	 * Stops the JMX reporter and removes the metrics of this sink from the registry.
+	 */
+	public synchronized void close() {
+		if (jmxReporter != null) {
+			jmxReporter.stop();
+			jmxReporter = null;
+		}
+		registry.removeMatching(ownMetrics);
+	}
+
+	public void written(int records, long writeNanos) {
+		messages.mark(records);
+		writes.update(writeNanos, TimeUnit.NANOSECONDS);
+	}
+
+	public void bytesWritten(long count) {
+		bytes.mark(count);
+	}
+
+	public void flushed() {
+		flushes.inc();
+	}
+
+	public void rolledOver(boolean timeBased, long rolloverNanos) {
+		(timeBased ? timeRollovers : sizeRollovers).inc();
+		rollovers.update(rolloverNanos, TimeUnit.NANOSECONDS);
+	}
+
+	public void synced(long syncMicros) {
+		fsyncs.update(syncMicros, TimeUnit.MICROSECONDS);
+	}
+
+	public String getPrefix() {
+		return prefix;
+	}
+
+	private String name(String... names) {
+		return MetricRegistry.name(prefix, names);
+	}
+}
@@ -14,7 +14,11 @@ package org.springframework.integration.x.rollover.file;
 
 import java.util.TimeZone;
 
+import javax.validation.constraints.AssertTrue;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Pattern;
 
 import org.hibernate.validator.constraints.NotBlank;
 import org.springframework.xd.module.options.spi.ModuleOption;
@@ -40,9 +44,29 @@ public class RolloverFileOptionsMetadata {
 	// Output stream buffer size. If set to -1 no buffering is used
 	private int bufferSize = 8192;
 
+	// If positive, the buffer size adapts to the throughput and flush cadence between minBufferSize and maxBufferSize,
+	// starting at bufferSize
+	private int minBufferSize = 4096;
+
+	private int maxBufferSize = 0;
+
 	// After how many messages the output buffer is flushed. If if zero then flush only on rollover event
 	private long flushRate = 0;
 
+	// If positive, the output buffer is flushed every flushIntervalMs when something has been written since the last
+	// flush
+	private long flushIntervalMs = 0;
+
+	// If positive, the output buffer is flushed once it holds this many bytes
+	private long flushBytes = 0;
+
+	// When the written bytes are forced to the storage device: "none", "periodic" (every durabilityIntervalMs) or
+	// "group" (before every write returns, one force shared by the concurrent writers)
+	private String durability = "none";
+
+	// Force period of the periodic durability
+	private long durabilityIntervalMs = 1000;
+
 	// How often to rollover files starting from NOW. If zero or non-positive the 24h period is set and it start at
 	// midnight.
 	private long rolloverPeriod = 1000L * 60 * 60 * 24;
@@ -58,6 +82,64 @@ public class RolloverFileOptionsMetadata {
 
 	private boolean binary = false;
 
+	// How records are delimited: "none", "length" (varint length prefix) or "length-crc32c" (and a CRC-32C)
+	private String recordFraming = "none";
+
+	// If positive and the records are framed, the offset of every Nth record of a segment is written to its .idx file
+	private int recordIndexInterval = 0;
+
+	// Character set used to encode String payloads
+	private String charset = "UTF-8";
+
+	// How the files are written: "stream" (FileOutputStream), "channel" (FileChannel with a direct buffer), "mapped"
+	// (MappedByteBuffer preallocated with maxRolledFileSize) or "compressed" (through the compressionCodec)
+	private String outputMode = "stream";
+
+	// If positive, messages are queued in a write-behind buffer of this capacity and written by a dedicated thread
+	private int asyncQueueCapacity = 0;
+
+	// What to do when the write-behind buffer is full: block, drop or fail
+	private String asyncBackpressure = "block";
+
+	// If larger than 1, messages are spread over this many segment files (name.part-K) written concurrently
+	private int stripes = 1;
+
+	// Header whose value hash selects the stripe of a message. If empty, or missing, the stripe is chosen by thread
+	private String stripeHeader = "";
+
+	// If not empty, SpEL expression evaluated on the message whose value selects the file (filename.value)
+	private String partitionExpression = "";
+
+	// Maximum number of partitions open at the same time, the least recently used one is closed to open another
+	private int maxOpenPartitions = 100;
+
+	// Partitions without messages for this long are closed. Not positive to keep them open
+	private long partitionIdleTimeoutMs = 5 * 60 * 1000;
+
+	// If true the metrics of the sink are published through JMX
+	private boolean jmxEnabled = true;
+
+	// Archives older than this number of days are removed, zero keeps them regardless of their age
+	private int retainDays = 0;
+
+	// The oldest archives are removed while the archives take more bytes than this, -1 for no limit
+	private long retainMaxBytes = -1;
+
+	// If set the removed archives are moved to this directory instead of being deleted
+	private String retentionDirectory = "";
+
+	// Codec used to compress the archives: gzip, deflate, lz4, zstd, snappy, bgzf (splittable blocked gzip) or a
+	// CompressionCodec class name
+	private String compressionCodec = "gzip";
+
+	// Codec specific compression level (gzip, deflate and bgzf 0-9, zstd 1-22) or -1 for the default level of the
+	// codec
+	private int compressionLevel = -1;
+
+	// If positive, archives are compressed in parallel in blocks of this size (pigz style). Zero compresses on a single
+	// thread.
+	private int compressionBlockSize = 0;
+
 	@NotBlank
 	public String getFilename() {
 		return filename;
@@ -107,6 +189,25 @@ public class RolloverFileOptionsMetadata {
 		this.bufferSize = bufferSize;
 	}
 
+	@Min(1)
+	public int getMinBufferSize() {
+		return minBufferSize;
+	}
+
+	@ModuleOption(value = "Smallest buffer size in the adaptive buffer sizing, the size of idle streams", defaultValue = "4096")
+	public void setMinBufferSize(int minBufferSize) {
+		this.minBufferSize = minBufferSize;
+	}
+
+	public int getMaxBufferSize() {
+		return maxBufferSize;
+	}
+
+	@ModuleOption(value = "If positive, the buffer size adapts to the throughput and flush cadence, from bufferSize, between minBufferSize and maxBufferSize. The buffers are pooled direct buffers; requires the stream or channel outputMode", defaultValue = "0")
+	public void setMaxBufferSize(int maxBufferSize) {
+		this.maxBufferSize = maxBufferSize;
+	}
+
 	public long getFlushRate() {
 		return flushRate;
 	}
@@ -116,6 +217,46 @@ public class RolloverFileOptionsMetadata {
 		this.flushRate = flushRate;
 	}
 
+	@Min(0)
+	public long getFlushIntervalMs() {
+		return flushIntervalMs;
+	}
+
+	@ModuleOption(value = "If positive, the output buffer is flushed every flushIntervalMs when something has been written since the last flush", defaultValue = "0")
+	public void setFlushIntervalMs(long flushIntervalMs) {
+		this.flushIntervalMs = flushIntervalMs;
+	}
+
+	@Min(0)
+	public long getFlushBytes() {
+		return flushBytes;
+	}
+
+	@ModuleOption(value = "If positive, the output buffer is flushed once this many bytes have been written since the last flush", defaultValue = "0")
+	public void setFlushBytes(long flushBytes) {
+		this.flushBytes = flushBytes;
+	}
+
+	@Pattern(regexp = "(?i)none|periodic|group", message = "durability must be one of none, periodic, group")
+	public String getDurability() {
+		return durability;
+	}
+
+	@ModuleOption(value = "When the written bytes are forced to the storage device: none, periodic (every durabilityIntervalMs) or group (before a write returns, concurrent writers share one force)", defaultValue = "none")
+	public void setDurability(String durability) {
+		this.durability = durability;
+	}
+
+	@Min(1)
+	public long getDurabilityIntervalMs() {
+		return durabilityIntervalMs;
+	}
+
+	@ModuleOption(value = "Force period (in milliseconds) of the periodic durability", defaultValue = "1000")
+	public void setDurabilityIntervalMs(long durabilityIntervalMs) {
+		this.durabilityIntervalMs = durabilityIntervalMs;
+	}
+
 	public long getRolloverPeriod() {
 		return rolloverPeriod;
 	}
@@ -160,4 +301,215 @@ public class RolloverFileOptionsMetadata {
 	public void setBinary(boolean binary) {
 		this.binary = binary;
 	}
+
+	@Pattern(regexp = "(?i)none|length|length-crc32c", message = "recordFraming must be one of none, length, length-crc32c")
+	public String getRecordFraming() {
+		return recordFraming;
+	}
+
+	@ModuleOption(value = "How records are delimited: none, length (varint length prefix) or length-crc32c (length prefix and CRC-32C of the record)", defaultValue = "none")
+	public void setRecordFraming(String recordFraming) {
+		this.recordFraming = recordFraming;
+	}
+
+	@Min(0)
+	public int getRecordIndexInterval() {
+		return recordIndexInterval;
+	}
+
+	@ModuleOption(value = "If positive and the records are framed, the offset of every Nth record of a segment is written to an .idx file next to the archive", defaultValue = "0")
+	public void setRecordIndexInterval(int recordIndexInterval) {
+		this.recordIndexInterval = recordIndexInterval;
+	}
+
+	@NotBlank
+	public String getCharset() {
+		return charset;
+	}
+
+	@ModuleOption(value = "Character set used to encode String payloads", defaultValue = "UTF-8")
+	public void setCharset(String charset) {
+		this.charset = charset;
+	}
+
+	@Pattern(regexp = "(?i)stream|channel|mapped|compressed", message = "outputMode must be one of stream, channel, mapped, compressed")
+	public String getOutputMode() {
+		return outputMode;
+	}
+
+	@ModuleOption(value = "How the files are written: stream (FileOutputStream), channel (FileChannel with a direct buffer) mapped (memory mapped segments of maxRolledFileSize) or compressed (compressed while written)", defaultValue = "stream")
+	public void setOutputMode(String outputMode) {
+		this.outputMode = outputMode;
+	}
+
+	public int getAsyncQueueCapacity() {
+		return asyncQueueCapacity;
+	}
+
+	@ModuleOption(value = "If positive, messages are queued in a write-behind buffer of this capacity and written by a dedicated thread", defaultValue = "0")
+	public void setAsyncQueueCapacity(int asyncQueueCapacity) {
+		this.asyncQueueCapacity = asyncQueueCapacity;
+	}
+
+	@Pattern(regexp = "(?i)block|drop|fail", message = "asyncBackpressure must be one of block, drop, fail")
+	public String getAsyncBackpressure() {
+		return asyncBackpressure;
+	}
+
+	@ModuleOption(value = "What to do when the write-behind buffer is full: block, drop or fail", defaultValue = "block")
+	public void setAsyncBackpressure(String asyncBackpressure) {
+		this.asyncBackpressure = asyncBackpressure;
+	}
+
+	@Min(1)
+	public int getStripes() {
+		return stripes;
+	}
+
+	@ModuleOption(value = "If larger than 1, messages are spread over this many segment files (with a .part-K suffix) written concurrently and rolled together", defaultValue = "1")
+	public void setStripes(int stripes) {
+		this.stripes = stripes;
+	}
+
+	public String getStripeHeader() {
+		return stripeHeader;
+	}
+
+	@ModuleOption(value = "Header whose value selects the stripe of a message. If empty or missing the stripe is selected by the sending thread", defaultValue = "")
+	public void setStripeHeader(String stripeHeader) {
+		this.stripeHeader = stripeHeader;
+	}
+
+	public String getPartitionExpression() {
+		return partitionExpression;
+	}
+
+	@ModuleOption(value = "If not empty, SpEL expression evaluated on the message, e.g. headers['tenant'], whose value selects the file the message is written to", defaultValue = "")
+	public void setPartitionExpression(String partitionExpression) {
+		this.partitionExpression = partitionExpression;
+	}
+
+	@Min(1)
+	public int getMaxOpenPartitions() {
+		return maxOpenPartitions;
+	}
+
+	@ModuleOption(value = "Maximum number of partition files open at the same time, the least recently used one is closed and archived to open another", defaultValue = "100")
+	public void setMaxOpenPartitions(int maxOpenPartitions) {
+		this.maxOpenPartitions = maxOpenPartitions;
+	}
+
+	public long getPartitionIdleTimeoutMs() {
+		return partitionIdleTimeoutMs;
+	}
+
+	@ModuleOption(value = "Partition files without messages for this long (in milliseconds) are closed and archived. Not positive to keep them open", defaultValue = "300000")
+	public void setPartitionIdleTimeoutMs(long partitionIdleTimeoutMs) {
+		this.partitionIdleTimeoutMs = partitionIdleTimeoutMs;
+	}
+
+	public boolean isJmxEnabled() {
+		return jmxEnabled;
+	}
+
+	@ModuleOption(value = "If true the metrics of the sink (message and byte rates, write latency, flushes, rollovers, compression) are published through JMX", defaultValue = "true")
+	public void setJmxEnabled(boolean jmxEnabled) {
+		this.jmxEnabled = jmxEnabled;
+	}
+
+	@Min(0)
+	public int getRetainDays() {
+		return retainDays;
+	}
+
+	@ModuleOption(value = "Archives older than this number of days are deleted (or moved to the retentionDirectory). Zero keeps them regardless of their age", defaultValue = "0")
+	public void setRetainDays(int retainDays) {
+		this.retainDays = retainDays;
+	}
+
+	public long getRetainMaxBytes() {
+		return retainMaxBytes;
+	}
+
+	@ModuleOption(value = "The oldest archives are deleted (or moved to the retentionDirectory) while all archives take more bytes than this. -1 for no limit", defaultValue = "-1")
+	public void setRetainMaxBytes(long retainMaxBytes) {
+		this.retainMaxBytes = retainMaxBytes;
+	}
+
+	public String getRetentionDirectory() {
+		return retentionDirectory;
+	}
+
+	@ModuleOption(value = "If set, archives removed by the retention are moved to this directory instead of being deleted", defaultValue = "")
+	public void setRetentionDirectory(String retentionDirectory) {
+		this.retentionDirectory = retentionDirectory;
+	}
+
+	@NotBlank
+	public String getCompressionCodec() {
+		return compressionCodec;
+	}
+
+	@ModuleOption(value = "Codec used to compress the archives: gzip, deflate, lz4, zstd, snappy, bgzf (splittable blocked gzip with a block index) or the class name of a custom CompressionCodec", defaultValue = "gzip")
+	public void setCompressionCodec(String compressionCodec) {
+		this.compressionCodec = compressionCodec;
+	}
+
+	@Min(-1)
+	@Max(22)
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
+
+	@ModuleOption(value = "Compression level of the codec (gzip, deflate and bgzf 0-9, zstd 1-22, ignored by lz4 and snappy) or -1 for the default level", defaultValue = "-1")
+	public void setCompressionLevel(int compressionLevel) {
+		this.compressionLevel = compressionLevel;
+	}
+
+	public int getCompressionBlockSize() {
+		return compressionBlockSize;
+	}
+
+	@ModuleOption(value = "If positive, gzip archives are compressed in parallel in blocks of this size (must be larger than 32768). Zero compresses on a single thread", defaultValue = "0")
+	public void setCompressionBlockSize(int compressionBlockSize) {
+		this.compressionBlockSize = compressionBlockSize;
+	}
+
+	@AssertTrue(message = "compressionLevel must be between -1 and 9 for the gzip, deflate and bgzf codecs")
+	public boolean isCompressionLevelValid() {
+		return compressionLevel <= 9 || !("gzip".equalsIgnoreCase(compressionCodec)
+				|| "deflate".equalsIgnoreCase(compressionCodec) || "bgzf".equalsIgnoreCase(compressionCodec));
+	}
+
+	@AssertTrue(message = "stripes can't be combined with the write-behind buffer (asyncQueueCapacity)")
+	public boolean isStripesValid() {
+		return stripes <= 1 || asyncQueueCapacity <= 0;
+	}
+
+	@AssertTrue(message = "partitionExpression can't be combined with stripes or the write-behind buffer (asyncQueueCapacity)")
+	public boolean isPartitionExpressionValid() {
+		return partitionExpression == null || partitionExpression.trim().isEmpty()
+				|| (stripes <= 1 && asyncQueueCapacity <= 0);
+	}
+
+	@AssertTrue(message = "compressionBlockSize must be 0 or larger than 32768")
+	public boolean isCompressionBlockSizeValid() {
+		return compressionBlockSize <= 0 || compressionBlockSize > 32768;
+	}
+
+	@AssertTrue(message = "the mapped outputMode requires a positive maxRolledFileSize")
+	public boolean isMappedOutputModeValid() {
+		return !"mapped".equalsIgnoreCase(outputMode) || maxRolledFileSize > 0;
+	}
+
+	@AssertTrue(message = "maxBufferSize must not be below minBufferSize and requires the stream or channel outputMode")
+	public boolean isMaxBufferSizeValid() {
+		return maxBufferSize <= 0 || (maxBufferSize >= minBufferSize
+				&& ("stream".equalsIgnoreCase(outputMode) || "channel".equalsIgnoreCase(outputMode)));
+	}
+
+	@AssertTrue(message = "recordIndexInterval requires a recordFraming other than none")
+	public boolean isRecordIndexIntervalValid() {
+		return recordIndexInterval <= 0 || !"none".equalsIgnoreCase(recordFraming);
+	}
 }
@@ -23,20 +23,39 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.text.SimpleDateFormat;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.GregorianCalendar;
-import java.util.Locale;
+import java.util.Set;
 import java.util.TimeZone;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
 /**
  * RolloverFileOutputStream
@@ -48,18 +67,80 @@ import org.slf4j.LoggerFactory;
  */
 public class RolloverFileOutputStream extends FilterOutputStream {
 
+	/**
+	 * How the segment files are written.
+	 */
+	public enum OutputMode {
+		/** Through a {@link FileOutputStream}, wrapped in a {@link BufferedOutputStream} if bufferSize is positive. */
+		STREAM,
+		/** Through a {@link FileChannel} with a direct buffer reused across segments. */
+		CHANNEL,
+		/** Through a {@link MappedByteBuffer} preallocated with the (required) maxRolledFileSize. */
+		MAPPED,
+		/**
+		 * Through the compressing stream of the {@link FileCompressor} codec. Segments are archives from the start,
+		 * named with the codec extension, and are only renamed when rolled. Every flush is a sync point up to which
+		 * the segment can be decompressed. maxRolledFileSize limits the uncompressed bytes.
+		 */
+		COMPRESSED
+	}
+
+	/**
+	 * When the written bytes are forced to the storage device.
+	 */
+	public enum Durability {
+		/** Never, the operating system decides when the page cache is written back. */
+		NONE,
+		/** Every durabilityIntervalMs, from the task scheduler. A crash loses at most the last interval. */
+		PERIODIC,
+		/**
+		 * When a writer calls {@link RolloverFileOutputStream#sync()}. Writers arriving while a force is in progress
+		 * wait for it and share the next one, so a single force covers the bytes of many writers.
+		 */
+		GROUP
+	}
+
+	/**
+	 * How the records written by {@link RolloverFileOutputStream#writeRecord(byte[])} are delimited, see
+	 * {@link RecordFrames}.
+	 */
+	public enum RecordFraming {
+		/** Not at all, the records are concatenated. */
+		NONE,
+		/** Every record is preceded by its length. */
+		LENGTH,
+		/** Every record is preceded by its length and its CRC-32C. */
+		LENGTH_CRC32C
+	}
+
+	/**
+	 * Notified of every rolled segment, after it has been renamed with the archivePrefix and before it is compressed.
+	 */
+	public interface ArchiveListener {
+
+		void archived(File archiveFile);
+	}
+
 	private static final int HOURS_24_IN_MS = 86400000;
 
 	private Logger logger = LoggerFactory.getLogger(RolloverFileOutputStream.class);
 
-	private static Timer rolloverTimer;
-
 	final static String YYYY_MM_DD = "yyyy_mm_dd";
 	final static String ROLLOVER_FILE_DATE_FORMAT = "yyyy_MM_dd";
 	final static long DEFAULT_ROLLOVER_PERIOD = 1000L * 60 * 60 * 24;
+	final static String DEFAULT_CHARSET = "UTF-8";
+
+	private static final int ENCODE_CHUNK_SIZE = 1024;
 
 	private RollTask rollTask;
-	private SimpleDateFormat fileDateFormat;
+	private ScheduledFuture<?> rollTaskFuture;
+	private TaskScheduler taskScheduler;
+	private ThreadPoolTaskScheduler ownTaskScheduler;
+	private FileNameTemplate fileNameTemplate;
+
+	// Name of the last segment without the de-duplication sequence, and the sequence of the last segment of that name.
+	private String lastFileName;
+	private long lastFileNameSequence;
 
 	private String filePath;
 	private File primaryFile;
@@ -68,13 +149,85 @@ public class RolloverFileOutputStream extends FilterOutputStream {
 	private String archivePrefix = "archive";
 	private boolean compressArchive = true;
 	private int bufferSize = 8192;
+	private OutputMode outputMode = OutputMode.STREAM;
+
+	// The channel of the current segment and, in CHANNEL mode, the direct buffer handed over from segment to segment.
+	private FileChannel segmentChannel;
+	private ByteBuffer channelBuffer;
+
+	// Adaptive buffer sizing, null if the buffer size is fixed. The buffers then come from the pool and go back to it
+	// when they are replaced by one of another size or the stream is closed.
+	private AdaptiveBufferSizer bufferSizer;
+	private BufferPool bufferPool;
+	private ScheduledFuture<?> resizeTaskFuture;
 
 	private AtomicLong writtenBytesCounter = new AtomicLong(0);
 
+	// Value of the writtenBytesCounter at the last flush.
+	private volatile long flushedBytes;
+
+	private ScheduledFuture<?> flushTaskFuture;
+
+	private Durability durability = Durability.NONE;
+	private ScheduledFuture<?> syncTaskFuture;
+
+	// Bytes written since the stream was opened, across segments. Written under the stream lock.
+	private volatile long streamPosition;
+
+	// Group commit state, guarded by syncLock. The thread forcing the segment never holds the stream lock while
+	// doing so, writers keep writing in the meantime.
+	private final Object syncLock = new Object();
+	private volatile long syncedPosition;
+	private boolean syncInProgress;
+	private final AtomicLong syncCount = new AtomicLong();
+	private final AtomicLong syncRequestCount = new AtomicLong();
+	private volatile long lastSyncMicros;
+	private volatile long maxSyncMicros;
+
+	// Reused for every String write, guarded by the stream lock.
+	private Charset charset;
+	private CharsetEncoder encoder;
+	private CharBuffer encodeChars;
+	private ByteBuffer encodeBytes;
+	private byte[] newLine;
+
 	private File fileDir;
 
 	private FileCompressor fileCompressor;
 
+	private volatile ArchiveListener archiveListener;
+
+	// Guarded by the stream lock.
+	private RolloverFileMetrics metrics;
+
+	// Guarded by the stream lock. The index of the current segment is null if the framing or the index is off, or the
+	// segment was appended to, its earlier records are not indexed.
+	private RecordFraming recordFraming = RecordFraming.NONE;
+	private int recordIndexInterval;
+	private SegmentIndex segmentIndex;
+	private boolean segmentStartedEmpty;
+	private final byte[] frameHeader = new byte[RecordFrames.MAX_HEADER_LENGTH];
+	private final Crc32c frameChecksum = new Crc32c();
+
+	// Rolled segments are closed, renamed and compressed, and the spare segment is opened, on a single background
+	// thread per stream, in submission order. The thread exits when the stream is idle.
+	private final ThreadPoolExecutor retireExecutor;
+	private final Set<File> retiringFiles = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+
+	// The next segment, opened ahead of the roll under a hidden name. The roll renames it rather than opening a file.
+	private final File spareFile;
+	private final AtomicReference<SpareSegment> spare = new AtomicReference<SpareSegment>();
+	private final AtomicBoolean sparePending = new AtomicBoolean();
+
+	private static final int RETIRE_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+	// Compressed segments are buffered on both sides of the compressor: small records are batched before they are
+	// compressed and the compressed blocks are batched before they are written.
+	private static final int COMPRESSED_OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+	// How often the adaptive buffer size is re-evaluated.
+	private static final long RESIZE_INTERVAL_MS = 1000;
+
 	/**
 	 * @param filename
 	 *            The filename must include the string "yyyy_mm_dd", which is replaced with the actual date when
@@ -89,16 +242,31 @@ public class RolloverFileOutputStream extends FilterOutputStream {
 	 *            Defines the time in [ms] of the first file roll over process to start.
 	 * @param rolloverPeriodMs
 	 *            Defines the frequency (in ms) of the file roll over processes.
+	 * @param outputMode
+	 *            How the segment files are written. If null {@link OutputMode#STREAM} is used.
+	 * @param taskScheduler
+	 *            Scheduler running the time based roll over. If null a single threaded scheduler is created for,
+	 *            and shut down with, this stream.
 	 * @throws IOException
 	 *             if unable to create output
 	 */
 	public RolloverFileOutputStream(String filename, boolean append, TimeZone zone, String dateFormat,
 			long rolloverStartTimeMs, long rolloverPeriodMs, long maxRolledFileSize, String archivePrefix,
-			boolean compressArchive, int bufferSize, FileCompressor fileCompressor) throws IOException {
+			boolean compressArchive, int bufferSize, OutputMode outputMode, FileCompressor fileCompressor,
+			TaskScheduler taskScheduler) throws IOException {
 
 		super(null);
 
 		this.bufferSize = bufferSize;
+		if (outputMode != null) {
+			this.outputMode = outputMode;
+		}
+		if (this.outputMode == OutputMode.MAPPED && maxRolledFileSize <= 0) {
+			throw new IllegalArgumentException("The MAPPED output mode requires a positive maxRolledFileSize");
+		}
+		if (this.outputMode == OutputMode.COMPRESSED && fileCompressor == null) {
+			throw new IllegalArgumentException("The COMPRESSED output mode requires a FileCompressor");
+		}
 		this.compressArchive = compressArchive;
 		this.archivePrefix = archivePrefix;
 		this.maxRolledFileSize = maxRolledFileSize;
@@ -107,13 +275,12 @@ public class RolloverFileOutputStream extends FilterOutputStream {
 			dateFormat = ROLLOVER_FILE_DATE_FORMAT;
 		}
 
-		fileDateFormat = new SimpleDateFormat(dateFormat);
-
 		if (StringUtils.isEmpty(filename)) {
 			throw new IllegalArgumentException("Invalid filename");
 		}
 
 		filePath = filename.trim();
+		fileNameTemplate = new FileNameTemplate(new File(filePath).getName(), dateFormat);
 		fileDir = new File(new File(filename).getAbsolutePath()).getParentFile();
 
 		if (fileDir != null && (!fileDir.isDirectory() || !fileDir.canWrite())) {
@@ -122,11 +289,42 @@ public class RolloverFileOutputStream extends FilterOutputStream {
 
 		appendToFile = append;
 
-		rollFile();
-
-		startRolloverTimer(zone, rolloverStartTimeMs, rolloverPeriodMs);
+		setCharset(Charset.forName(DEFAULT_CHARSET));
 
 		this.fileCompressor = fileCompressor;
+
+		spareFile = new File(fileDir, "." + new File(filePath).getName() + ".spare");
+		if (spareFile.exists() && !spareFile.delete()) {
+			throw new IOException("Cannot delete the spare segment left behind by a previous run: " + spareFile);
+		}
+
+		CustomizableThreadFactory retireThreadFactory = new CustomizableThreadFactory(
+				RolloverFileOutputStream.class.getSimpleName() + "-retire-");
+		retireThreadFactory.setDaemon(true);
+		retireExecutor = new ThreadPoolExecutor(1, 1, RETIRE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), retireThreadFactory);
+		retireExecutor.allowCoreThreadTimeOut(true);
+
+		try {
+			rollFile();
+		} catch (IOException e) {
+			abortOpen();
+			throw e;
+		} catch (RuntimeException e) {
+			abortOpen();
+			throw e;
+		}
+
+		if (taskScheduler == null) {
+			ownTaskScheduler = new ThreadPoolTaskScheduler();
+			ownTaskScheduler.setThreadNamePrefix(RolloverFileOutputStream.class.getSimpleName() + "-");
+			ownTaskScheduler.setDaemon(true);
+			ownTaskScheduler.initialize();
+			taskScheduler = ownTaskScheduler;
+		}
+		this.taskScheduler = taskScheduler;
+
+		startRolloverTimer(zone, rolloverStartTimeMs, rolloverPeriodMs);
 	}
 
 	public String getFilename() {
@@ -137,9 +335,64 @@ public class RolloverFileOutputStream extends FilterOutputStream {
 		return "" + primaryFile;
 	}
 
+	/**
+	 * @param metrics
+	 *            Records the written bytes, the flushes and the rollovers of this stream.
+	 */
+	public synchronized void setMetrics(RolloverFileMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return The directory of the segments.
+	 */
+	public File getDirectory() {
+		return fileDir;
+	}
+
+	/**
+	 * @return The start of the names of all rolled segments, up to the date, or null if no archivePrefix is configured
+	 *         and rolled segments can't be told apart from the segment being written.
+	 */
+	public String getArchiveNamePrefix() {
+		if (StringUtils.isEmpty(archivePrefix)) {
+			return null;
+		}
+		return archivePrefix + "." + fileNameTemplate.getPrefix();
+	}
+
+	public void setArchiveListener(ArchiveListener archiveListener) {
+		this.archiveListener = archiveListener;
+	}
+
+	/**
+	 * @param charset
+	 *            The character set used by {@link #write(String, boolean)}. Defaults to UTF-8.
+	 */
+	public synchronized void setCharset(Charset charset) {
+		this.charset = charset;
+		encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		encodeChars = CharBuffer.allocate(ENCODE_CHUNK_SIZE);
+		encodeBytes = ByteBuffer.allocate((int) Math.ceil(ENCODE_CHUNK_SIZE * encoder.maxBytesPerChar()));
+		newLine = "\n".getBytes(charset);
+	}
+
+	private synchronized void rollFile(boolean timeBased) throws IOException {
+		long start = System.nanoTime();
+		rollFile();
+		if (metrics != null) {
+			metrics.rolledOver(timeBased, System.nanoTime() - start);
+		}
+	}
+
 	private synchronized void rollFile() throws IOException {
 
-		File nextFile = new File(fileDir, getNextFileName());
+		String nextFileName = getNextFileName();
+		if (outputMode == OutputMode.COMPRESSED) {
+			nextFileName += fileCompressor.getCodec().getExtension();
+		}
+		File nextFile = new File(fileDir, nextFileName);
 
 		if (nextFile.exists() && !nextFile.canWrite()) {
 			throw new IOException("Cannot write in file: " + nextFile);
@@ -149,90 +402,815 @@ public class RolloverFileOutputStream extends FilterOutputStream {
 			throw new IOException("File already exists but append is disabled: " + nextFile);
 		}
 
+		OutputStream previousOut = out;
 		File previousPrimaryFile = primaryFile;
+		if (previousOut != null && durability != Durability.NONE) {
+			// a force in progress on the previous segment may fail on the closed channel, this one covers it
+			forceSegment();
+		}
+		if (previousOut != null && outputMode == OutputMode.STREAM) {
+			// the rolled segment is complete on disk once the next one exists, a SegmentReader.Tail relies on it
+			previousOut.flush();
+		}
+		if (previousOut instanceof FileChannelOutputStream) {
+			// empty the shared direct buffer before handing it over to the next segment
+			((FileChannelOutputStream) previousOut).releaseBuffer();
+			if (bufferSizer != null) {
+				int size = bufferSizer.sample(streamPosition, System.nanoTime());
+				if (size != channelBuffer.capacity()) {
+					bufferPool.release(channelBuffer);
+					channelBuffer = bufferPool.acquire(size);
+				}
+			}
+		}
+
+		SegmentIndex previousIndex = segmentIndex;
+		segmentStartedEmpty = !nextFile.exists();
+		openSegment(nextFile);
 		primaryFile = nextFile;
+		segmentIndex = createSegmentIndex();
 
-		OutputStream previousOut = out;
-		if (bufferSize > 0) {
-			out = new BufferedOutputStream(new FileOutputStream(nextFile, appendToFile), bufferSize);
+		writtenBytesCounter.set(0);
+		flushedBytes = 0;
+
+		if (previousOut != null) {
+			retire(previousOut, previousPrimaryFile, previousIndex);
+		}
+	}
+
+	private SegmentIndex createSegmentIndex() {
+		if (recordFraming == RecordFraming.NONE || recordIndexInterval <= 0 || !segmentStartedEmpty) {
+			return null;
+		}
+		return new SegmentIndex(recordIndexInterval, recordFraming == RecordFraming.LENGTH_CRC32C);
+	}
+
+	private void openSegment(File nextFile) throws IOException {
+		SpareSegment spareSegment = takeSpare(nextFile);
+		if (outputMode == OutputMode.CHANNEL || bufferSizer != null) {
+			if (channelBuffer == null) {
+				channelBuffer = (bufferSizer != null) ? bufferPool.acquire(bufferSizer.getSize())
+						: FileChannelOutputStream.allocateBuffer(bufferSize);
+			}
+			FileChannel channel = (spareSegment != null) ? spareSegment.fileOut.getChannel() : new FileOutputStream(
+					nextFile, appendToFile).getChannel();
+			out = new FileChannelOutputStream(channel, channelBuffer);
+			segmentChannel = channel;
+		} else if (outputMode == OutputMode.MAPPED) {
+			MappedSegmentOutputStream mappedOut = (spareSegment != null) ? spareSegment.mappedOut
+					: new MappedSegmentOutputStream(nextFile, appendToFile, maxRolledFileSize);
+			segmentChannel = mappedOut.getChannel();
+			out = mappedOut;
 		} else {
-			out = new FileOutputStream(nextFile, appendToFile);
+			FileOutputStream fileOut = (spareSegment != null) ? spareSegment.fileOut : new FileOutputStream(nextFile,
+					appendToFile);
+			segmentChannel = fileOut.getChannel();
+			if (outputMode == OutputMode.COMPRESSED) {
+				OutputStream compressedOut = fileCompressor.getCodec().createOutputStream(
+						new BufferedOutputStream(fileOut, COMPRESSED_OUTPUT_BUFFER_SIZE));
+				out = (bufferSize > 0) ? new BufferedOutputStream(compressedOut, bufferSize) : compressedOut;
+			} else {
+				out = (bufferSize > 0) ? new BufferedOutputStream(fileOut, bufferSize) : fileOut;
+			}
 		}
+	}
 
-		if (previousOut != null) {
-			previousOut.close();
-			prefixAndCompress(previousPrimaryFile);
+	/**
+	 * @return The spare segment renamed to nextFile, or null if none is ready or nextFile exists and is appended to.
+	 *         Either way the opening of the following spare is scheduled.
+	 */
+	private SpareSegment takeSpare(File nextFile) {
+		SpareSegment spareSegment = nextFile.exists() ? null : spare.getAndSet(null);
+		if (spareSegment != null && !spareFile.renameTo(nextFile)) {
+			logger.warn("Failed to rename the spare segment to: {}", nextFile);
+			spareSegment.close();
+			spareSegment = null;
+		}
+		if (spare.get() == null && sparePending.compareAndSet(false, true)) {
+			retireExecutor.execute(new OpenSpareTask());
 		}
+		return spareSegment;
+	}
+
+	/**
+	 * Closes, renames and compresses a rolled segment on the retire thread, so the writers only wait for the swap to
+	 * the next segment.
+	 */
+	private void retire(final OutputStream segmentOut, final File segmentFile, final SegmentIndex index) {
+		retiringFiles.add(segmentFile);
+		retireExecutor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					segmentOut.close();
+					prefixAndCompress(segmentFile, index);
+				} catch (IOException e) {
+					logger.error("Failed to close the rolled segment: " + segmentFile, e);
+				} finally {
+					retiringFiles.remove(segmentFile);
+				}
+			}
+		});
 	}
 
+	/**
+	 * @return Number of rolled segments waiting to be closed, renamed and compressed on the retire thread.
+	 */
+	public int getRetiringSegmentCount() {
+		return retiringFiles.size();
+	}
+
+	/**
+	 * @return The name of the next segment. A segment started in the same time bucket as the previous one, e.g. the
+	 *         same millisecond, or whose name is taken on disk, e.g. by an archive of a previous run or of a closed
+	 *         partition, gets the next "_N" sequence, see {@link FileNameTemplate}.
+	 */
 	private String getNextFileName() {
-		Date now = new Date();
-		// Is this a rollover file?
-		String fileName = new File(filePath).getName();
+		long now = System.currentTimeMillis();
+		String fileName = fileNameTemplate.format(now);
+		long sequence = fileName.equals(lastFileName) ? lastFileNameSequence + 1 : 0;
+		while (isNameTaken(fileNameTemplate.format(now, sequence))) {
+			sequence++;
+		}
+		lastFileName = fileName;
+		lastFileNameSequence = sequence;
+		return fileNameTemplate.format(now, sequence);
+	}
 
-		String nextFileName = fileName;
-		int i = fileName.toLowerCase(Locale.ENGLISH).indexOf(YYYY_MM_DD);
-		if (i >= 0) {
-			nextFileName = fileName.substring(0, i) + fileDateFormat.format(now)
-					+ fileName.substring(i + YYYY_MM_DD.length());
+	/**
+	 * @return true if a segment of that name would overwrite or be mixed with another file: its archive, compressed or
+	 *         not, exists, or the segment itself exists and can't be appended to, as in the
+	 *         {@link OutputMode#COMPRESSED} mode.
+	 */
+	private boolean isNameTaken(String name) {
+		File segment = new File(fileDir, name + getSegmentExtension());
+		boolean archived = !StringUtils.isEmpty(archivePrefix);
+		boolean compressedAfterRoll = compressArchive && fileCompressor != null && outputMode != OutputMode.COMPRESSED;
+		if (segment.exists()
+				&& (!appendToFile || outputMode == OutputMode.COMPRESSED || (compressedAfterRoll && !archived))) {
+			// a second codec stream appended to a compressed segment can't be read by every codec, and without an
+			// archivePrefix a closed segment keeps its name until it is compressed
+			return true;
 		}
-		return nextFileName;
+		File archive = archived ? new File(fileDir, archivePrefix + "." + segment.getName()) : segment;
+		if (archived && archive.exists()) {
+			return true;
+		}
+		if (compressedAfterRoll) {
+			String compressedPath = archive.getPath() + fileCompressor.getCodec().getExtension();
+			return new File(compressedPath).exists()
+					|| new File(compressedPath + fileCompressor.getTempExtension()).exists();
+		}
+		return false;
+	}
+
+	// All writes, flushes, rolls and the close are guarded by the instance monitor. Every sink owns its own
+	// stream, and a roll only swaps in the next segment: the rolled one is closed, renamed and compressed on the
+	// retire thread, so it stalls neither the writers of this sink nor those of another.
+
+	@Override
+	public synchronized void write(int b) throws IOException {
+		out.write(b);
+		countWritten(1);
 	}
 
 	@Override
-	public void write(byte[] buf) throws IOException {
+	public synchronized void write(byte[] buf) throws IOException {
 		out.write(buf);
-		// checkFileSizeForRollover(buf.length);
-		writtenBytesCounter.addAndGet(buf.length);
+		countWritten(buf.length);
 	}
 
 	@Override
-	public void write(byte[] buf, int off, int len) throws IOException {
+	public synchronized void write(byte[] buf, int off, int len) throws IOException {
 		out.write(buf, off, len);
-		// checkFileSizeForRollover(len);
-		writtenBytesCounter.addAndGet(len);
+		countWritten(len);
+	}
+
+	/**
+	 * Encodes the string straight into the underlying stream, reusing the encoder and its buffers. No intermediate
+	 * String or byte[] is allocated per call.
+	 * 
+	 * @param s
+	 *            the text to write
+	 * @param appendNewLine
+	 *            if true a new line is written after the text
+	 */
+	public synchronized void write(String s, boolean appendNewLine) throws IOException {
+		encoder.reset();
+		int length = s.length();
+		int position = 0;
+		encodeChars.clear();
+		while (true) {
+			int count = Math.min(encodeChars.remaining(), length - position);
+			s.getChars(position, position + count, encodeChars.array(), encodeChars.position());
+			encodeChars.position(encodeChars.position() + count);
+			position += count;
+			boolean endOfInput = position == length;
+
+			encodeChars.flip();
+			CoderResult result = encoder.encode(encodeChars, encodeBytes, endOfInput);
+			encodeChars.compact();
+			drainEncodeBytes();
+
+			if (endOfInput && result.isUnderflow()) {
+				break;
+			}
+		}
+		while (encoder.flush(encodeBytes).isOverflow()) {
+			drainEncodeBytes();
+		}
+		drainEncodeBytes();
+
+		if (appendNewLine) {
+			out.write(newLine);
+			countWritten(newLine.length);
+		}
+	}
+
+	/**
+	 * @param recordFraming
+	 *            How the records written by {@link #writeRecord(byte[])} are delimited.
+	 * @param recordIndexInterval
+	 *            If positive and the records are framed, the offset of every recordIndexInterval-th record of a
+	 *            segment is written to its {@link SegmentIndex} when it is rolled. Applies from the next segment if
+	 *            records have been written to the current one.
+	 */
+	public synchronized void setRecordFraming(RecordFraming recordFraming, int recordIndexInterval) {
+		this.recordFraming = recordFraming;
+		this.recordIndexInterval = recordIndexInterval;
+		if (writtenBytesCounter.get() == 0) {
+			segmentIndex = createSegmentIndex();
+		}
+	}
+
+	public RecordFraming getRecordFraming() {
+		return recordFraming;
+	}
+
+	/**
+	 * Writes a record framed as configured by {@link #setRecordFraming(RecordFraming, int)}.
+	 */
+	public synchronized void writeRecord(byte[] record) throws IOException {
+		writeRecord(record, 0, record.length);
+	}
+
+	/**
+	 * Writes the record encoded with the charset, framed as configured by
+	 * {@link #setRecordFraming(RecordFraming, int)}.
+	 */
+	public synchronized void writeRecord(String record) throws IOException {
+		byte[] bytes = record.getBytes(charset);
+		writeRecord(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Writes a batch of String and byte[] records while holding the lock once, each framed as configured by
+	 * {@link #setRecordFraming(RecordFraming, int)}.
+	 */
+	public synchronized void writeRecords(Collection<?> records) throws IOException {
+		for (Object record : records) {
+			if (record instanceof String) {
+				writeRecord((String) record);
+			} else {
+				writeRecord((byte[]) record);
+			}
+		}
+	}
+
+	private void writeRecord(byte[] record, int off, int len) throws IOException {
+		int headerLength = 0;
+		if (recordFraming != RecordFraming.NONE) {
+			Crc32c checksum = null;
+			if (recordFraming == RecordFraming.LENGTH_CRC32C) {
+				checksum = frameChecksum;
+				checksum.reset();
+				checksum.update(record, off, len);
+			}
+			headerLength = RecordFrames.writeHeader(frameHeader, len, checksum);
+		}
+		if (segmentIndex != null) {
+			segmentIndex.add(writtenBytesCounter.get(), headerLength + len);
+		}
+		out.write(frameHeader, 0, headerLength);
+		out.write(record, off, len);
+		countWritten(headerLength + len);
+	}
+
+	/**
+	 * Writes a batch of String and byte[] records while holding the lock once. Strings are encoded as by
+	 * {@link #write(String, boolean)}. In {@link OutputMode#CHANNEL} mode a batch of byte[] records is written with a
+	 * single gathering write.
+	 * 
+	 * @param records
+	 *            String or byte[] records
+	 * @param appendNewLine
+	 *            if true a new line is written after every String record
+	 */
+	public synchronized void write(Collection<?> records, boolean appendNewLine) throws IOException {
+		if (out instanceof FileChannelOutputStream && containsOnlyByteArrays(records)) {
+			ByteBuffer[] buffers = new ByteBuffer[records.size()];
+			int i = 0;
+			for (Object record : records) {
+				buffers[i++] = ByteBuffer.wrap((byte[]) record);
+			}
+			write(buffers);
+			return;
+		}
+		for (Object record : records) {
+			if (record instanceof String) {
+				write((String) record, appendNewLine);
+			} else {
+				write((byte[]) record);
+			}
+		}
+	}
+
+	private static boolean containsOnlyByteArrays(Collection<?> records) {
+		for (Object record : records) {
+			if (!(record instanceof byte[])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void countWritten(long count) {
+		writtenBytesCounter.addAndGet(count);
+		streamPosition += count;
+		if (metrics != null) {
+			metrics.bytesWritten(count);
+		}
+	}
+
+	private void drainEncodeBytes() throws IOException {
+		if (encodeBytes.position() > 0) {
+			out.write(encodeBytes.array(), 0, encodeBytes.position());
+			countWritten(encodeBytes.position());
+			encodeBytes.clear();
+		}
+	}
+
+	/**
+	 * Writes all remaining bytes of the given buffers. In {@link OutputMode#CHANNEL} mode this is a single gathering
+	 * write on the segment channel.
+	 */
+	public synchronized void write(ByteBuffer[] buffers) throws IOException {
+		if (out instanceof FileChannelOutputStream) {
+			countWritten(((FileChannelOutputStream) out).write(buffers));
+			return;
+		}
+		for (ByteBuffer buffer : buffers) {
+			int length = buffer.remaining();
+			if (buffer.hasArray()) {
+				out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+				buffer.position(buffer.limit());
+			} else {
+				while (buffer.hasRemaining()) {
+					out.write(buffer.get());
+				}
+			}
+			countWritten(length);
+		}
+	}
+
+	@Override
+	public synchronized void flush() throws IOException {
+		out.flush();
+		flushedBytes = writtenBytesCounter.get();
+		if (bufferSizer != null) {
+			bufferSizer.flushed(streamPosition);
+		}
+		if (metrics != null) {
+			metrics.flushed();
+		}
+	}
+
+	/**
+	 * Durability point: flushes the buffered bytes and forces the segment content to the storage device.
+	 */
+	public synchronized void force() throws IOException {
+		if (out instanceof MappedSegmentOutputStream) {
+			((MappedSegmentOutputStream) out).force();
+			return;
+		}
+		out.flush();
+		segmentChannel.force(false);
+	}
+
+	private void forceSegment() throws IOException {
+		long start = System.nanoTime();
+		force();
+		recordSync(start, streamPosition);
+	}
+
+	/**
+	 * Returns once all bytes written before the call are on the storage device. Concurrent callers share a single
+	 * force: one of them flushes and forces the segment outside of the stream lock, the others wait and are covered
+	 * by that force or, if they wrote after it started, by the next one.
+	 */
+	public void sync() throws IOException {
+		long target = streamPosition;
+		syncRequestCount.incrementAndGet();
+		synchronized (syncLock) {
+			while (true) {
+				if (syncedPosition >= target) {
+					return;
+				}
+				if (!syncInProgress) {
+					syncInProgress = true;
+					break;
+				}
+				try {
+					syncLock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for the group commit");
+				}
+			}
+		}
+		try {
+			forceWrittenBytes();
+		} finally {
+			synchronized (syncLock) {
+				syncInProgress = false;
+				syncLock.notifyAll();
+			}
+		}
+	}
+
+	private void forceWrittenBytes() throws IOException {
+		FileChannel channel;
+		long position;
+		long start = System.nanoTime();
+		synchronized (this) {
+			if (out == null) {
+				// closed, the close forced the last segment
+				return;
+			}
+			if (outputMode == OutputMode.MAPPED) {
+				// the mapped buffer can only be forced while no writer moves it
+				forceSegment();
+				return;
+			}
+			flush();
+			channel = segmentChannel;
+			position = streamPosition;
+		}
+		try {
+			channel.force(false);
+		} catch (ClosedChannelException e) {
+			// rolled over in the meantime, the roll forced the segment before closing it
+		}
+		recordSync(start, position);
+	}
+
+	private void recordSync(long startNanos, long position) {
+		long micros = (System.nanoTime() - startNanos) / 1000;
+		syncCount.incrementAndGet();
+		lastSyncMicros = micros;
+		if (micros > maxSyncMicros) {
+			maxSyncMicros = micros;
+		}
+		if (metrics != null) {
+			metrics.synced(micros);
+		}
+		synchronized (syncLock) {
+			if (position > syncedPosition) {
+				syncedPosition = position;
+			}
+		}
+	}
+
+	/**
+	 * @param durability
+	 *            When the written bytes are forced to the storage device.
+	 * @param durabilityIntervalMs
+	 *            The force period in {@link Durability#PERIODIC} mode.
+	 */
+	public synchronized void setDurability(Durability durability, long durabilityIntervalMs) {
+		this.durability = (durability != null) ? durability : Durability.NONE;
+		if (syncTaskFuture != null) {
+			syncTaskFuture.cancel(false);
+			syncTaskFuture = null;
+		}
+		if (this.durability == Durability.PERIODIC) {
+			if (durabilityIntervalMs <= 0) {
+				throw new IllegalArgumentException("The periodic durability requires a positive interval");
+			}
+			syncTaskFuture = taskScheduler.scheduleAtFixedRate(new SyncTask(),
+					new Date(System.currentTimeMillis() + durabilityIntervalMs), durabilityIntervalMs);
+		}
+	}
+
+	public Durability getDurability() {
+		return durability;
+	}
+
+	/**
+	 * @return Number of forces to the storage device.
+	 */
+	public long getSyncCount() {
+		return syncCount.get();
+	}
+
+	/**
+	 * @return Number of {@link #sync()} calls, divided by {@link #getSyncCount()} gives the writers per force.
+	 */
+	public long getSyncRequestCount() {
+		return syncRequestCount.get();
+	}
+
+	public long getLastSyncMicros() {
+		return lastSyncMicros;
+	}
+
+	public long getMaxSyncMicros() {
+		return maxSyncMicros;
 	}
 
 	@Override
-	public void close() throws IOException {
-		synchronized (RolloverFileOutputStream.class) {
+	public synchronized void close() throws IOException {
+		try {
+			if (out != null && durability != Durability.NONE) {
+				forceSegment();
+			}
+			awaitRetired();
+			super.close();
+			prefixAndCompress(primaryFile, segmentIndex);
+		} finally {
+			out = null;
+			primaryFile = null;
+			retireExecutor.shutdownNow();
+			SpareSegment spareSegment = spare.getAndSet(null);
+			if (spareSegment != null) {
+				spareSegment.close();
+				spareFile.delete();
+			}
+			rollTaskFuture.cancel(false);
+			if (resizeTaskFuture != null) {
+				resizeTaskFuture.cancel(false);
+			}
+			if (bufferSizer != null && channelBuffer != null) {
+				bufferPool.release(channelBuffer);
+				channelBuffer = null;
+			}
+			if (flushTaskFuture != null) {
+				flushTaskFuture.cancel(false);
+			}
+			if (syncTaskFuture != null) {
+				syncTaskFuture.cancel(false);
+			}
+			if (ownTaskScheduler != null) {
+				ownTaskScheduler.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Releases what the constructor has acquired when the first segment could not be opened: the retire thread and
+	 * the spare segment, whose opening is scheduled by the first roll.
+	 */
+	private void abortOpen() {
+		retireExecutor.shutdownNow();
+		try {
+			retireExecutor.awaitTermination(RETIRE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		SpareSegment spareSegment = spare.getAndSet(null);
+		if (spareSegment != null) {
+			spareSegment.close();
+		}
+		spareFile.delete();
+		if (bufferSizer != null && channelBuffer != null) {
+			bufferPool.release(channelBuffer);
+			channelBuffer = null;
+		}
+	}
+
+	// The rolled segments are archived before the last one, in the order they were written.
+	private void awaitRetired() throws InterruptedIOException {
+		retireExecutor.shutdown();
+		try {
+			while (!retireExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+				logger.warn("Still waiting for {} rolled segments to be archived", retiringFiles.size());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the rolled segments to be archived");
+		}
+	}
+
+	/**
+	 * @return Number of bytes written to the current segment since the last flush.
+	 */
+	public long getUnflushedBytes() {
+		return writtenBytesCounter.get() - flushedBytes;
+	}
+
+	/**
+	 * Flushes the stream every flushIntervalMs if anything has been written since the previous flush, so no write
+	 * stays in the buffer much longer than that. The check runs on the task scheduler of the stream, the writes do
+	 * not pay for it.
+	 * 
+	 * @param flushIntervalMs
+	 *            The flush period, not positive to stop the periodic flushes.
+	 */
+	public synchronized void setFlushInterval(long flushIntervalMs) {
+		if (flushTaskFuture != null) {
+			flushTaskFuture.cancel(false);
+			flushTaskFuture = null;
+		}
+		if (flushIntervalMs > 0) {
+			flushTaskFuture = taskScheduler.scheduleAtFixedRate(new FlushTask(),
+					new Date(System.currentTimeMillis() + flushIntervalMs), flushIntervalMs);
+		}
+	}
+
+	/**
+	 * Sizes the write buffer from the observed throughput and flush cadence rather than the fixed bufferSize, which
+	 * becomes the initial size, see {@link AdaptiveBufferSizer}. The size is re-evaluated every second and at every
+	 * roll over. The buffers are direct buffers from the {@link BufferPool#getSharedPool() shared pool}, recycled
+	 * across rollovers and streams, so in {@link OutputMode#STREAM} mode the segments are written through their
+	 * channel as in {@link OutputMode#CHANNEL} mode.
+	 * 
+	 * @param minBufferSize
+	 *            Smallest buffer size, the size of idle streams.
+	 * @param maxBufferSize
+	 *            Largest buffer size, not positive to go back to a fixed size.
+	 * @throws IllegalArgumentException
+	 *             if the output mode is neither {@link OutputMode#STREAM} nor {@link OutputMode#CHANNEL}
+	 */
+	public synchronized void setAdaptiveBufferSize(int minBufferSize, int maxBufferSize) throws IOException {
+		if (resizeTaskFuture != null) {
+			resizeTaskFuture.cancel(false);
+			resizeTaskFuture = null;
+		}
+		if (maxBufferSize <= 0) {
+			// the current buffer is kept, it only stops changing size
+			bufferSizer = null;
+			return;
+		}
+		if (outputMode != OutputMode.STREAM && outputMode != OutputMode.CHANNEL) {
+			throw new IllegalArgumentException("Adaptive buffer sizing requires the STREAM or CHANNEL output mode");
+		}
+		bufferSizer = new AdaptiveBufferSizer(minBufferSize, maxBufferSize, bufferSize, streamPosition,
+				System.nanoTime());
+		bufferPool = BufferPool.getSharedPool();
+
+		ByteBuffer buffer = bufferPool.acquire(bufferSizer.getSize());
+		if (out instanceof FileChannelOutputStream) {
+			((FileChannelOutputStream) out).replaceBuffer(buffer);
+		} else {
+			// the buffered stream of the current segment is dropped, not closed, its file stays open by the channel
+			out.flush();
+			out = new FileChannelOutputStream(segmentChannel, buffer);
+		}
+		channelBuffer = buffer;
+
+		resizeTaskFuture = taskScheduler.scheduleAtFixedRate(new ResizeTask(),
+				new Date(System.currentTimeMillis() + RESIZE_INTERVAL_MS), RESIZE_INTERVAL_MS);
+	}
+
+	/**
+	 * @return Capacity of the write buffer of the current segment, the fixed bufferSize if it is not a channel buffer.
+	 */
+	public synchronized int getBufferCapacity() {
+		if (out instanceof FileChannelOutputStream) {
+			return ((FileChannelOutputStream) out).getBufferCapacity();
+		}
+		return bufferSize;
+	}
+
+	// Under the stream lock, right after the last written bytes are drained from the replaced buffer.
+	private void resizeBuffer() throws IOException {
+		if (bufferSizer == null || !(out instanceof FileChannelOutputStream)) {
+			return;
+		}
+		int size = bufferSizer.sample(streamPosition, System.nanoTime());
+		if (size != channelBuffer.capacity()) {
+			ByteBuffer buffer = bufferPool.acquire(size);
+			bufferPool.release(((FileChannelOutputStream) out).replaceBuffer(buffer));
+			channelBuffer = buffer;
+		}
+	}
+
+	/**
+	 * @return How late (in ms) the most recent time based roll over started compared to its scheduled time.
+	 */
+	public long getLastRolloverDelayMs() {
+		return rollTask.lastDelayMs;
+	}
+
+	/**
+	 * @return The worst start delay (in ms) observed for the time based roll over of this stream.
+	 */
+	public long getMaxRolloverDelayMs() {
+		return rollTask.maxDelayMs;
+	}
+
+	/**
+	 * @return Number of time based roll overs performed by this stream.
+	 */
+	public long getTimeRolloverCount() {
+		return rollTask.rolloverCount;
+	}
+
+	/**
+	 * Archives a segment left behind by a previous run as if it had just been rolled: it is renamed with the
+	 * archivePrefix and compressed. In the {@link OutputMode#MAPPED} mode, the space preallocated after its bytes is
+	 * trimmed first, if it was left unclosed.
+	 * 
+	 * @return false if the file is the segment being written or does not exist any more
+	 */
+	public synchronized boolean archiveOrphan(File file) {
+		if (isWriting(file) || !file.exists()) {
+			return false;
+		}
+		if (outputMode == OutputMode.MAPPED) {
 			try {
-				super.close();
-				prefixAndCompress(primaryFile);
-			} finally {
-				out = null;
-				primaryFile = null;
+				MappedSegmentOutputStream.trimPreallocation(file);
+			} catch (IOException e) {
+				logger.error("Failed to trim the preallocated space of: " + file, e);
 			}
-			rollTask.cancel();
 		}
+		prefixAndCompress(file, null);
+		return true;
+	}
+
+	/**
+	 * @return true if the file is the segment being written or a rolled segment not archived yet
+	 */
+	public synchronized boolean isWriting(File file) {
+		File absoluteFile = file.getAbsoluteFile();
+		return absoluteFile.equals(primaryFile) || retiringFiles.contains(absoluteFile);
 	}
 
-	private void prefixAndCompress(File file) {
+	/**
+	 * @return The extension of the segment names, the codec extension in the {@link OutputMode#COMPRESSED} mode,
+	 *         empty otherwise.
+	 */
+	public String getSegmentExtension() {
+		return (outputMode == OutputMode.COMPRESSED) ? fileCompressor.getCodec().getExtension() : "";
+	}
+
+	private void prefixAndCompress(File file, SegmentIndex index) {
 		if (file != null) {
 			File archiveFile = file;
 
 			// if a archivePrefix is configured we are going to rename the file first
 			if (!StringUtils.isEmpty(archivePrefix) && file != null) {
 				archiveFile = new File(file.getParentFile(), archivePrefix + "." + file.getName());
+				if (archiveFile.exists()) {
+					logger.error("Archive {} exists already, {} is left as it is", archiveFile, file);
+					return;
+				}
 				file.renameTo(archiveFile);
 			}
 
-			// compress file
-			if (compressArchive) {
+			if (index != null) {
+				try {
+					index.writeTo(new File(archiveFile.getPath() + SegmentIndex.EXTENSION));
+				} catch (IOException e) {
+					logger.error("Failed to write the index of: " + archiveFile, e);
+				}
+			}
+
+			if (archiveListener != null) {
+				archiveListener.archived(archiveFile);
+			}
+
+			// compress file, unless it has been compressed while written
+			if (compressArchive && outputMode != OutputMode.COMPRESSED) {
 				fileCompressor.compressFile(archiveFile.getAbsolutePath());
 			}
 		}
 	}
 
+	/**
+	 * @return Number of bytes written to the current segment.
+	 */
+	public long getWrittenBytes() {
+		return writtenBytesCounter.get();
+	}
+
+	/**
+	 * Rolls the segment over now, whatever its size. Counts as a size based roll over.
+	 */
+	public synchronized void rollover() throws IOException {
+		if (out != null) {
+			rollFile(false);
+		}
+	}
+
 	public void rolloverOnFileSize() {
-		if (maxRolledFileSize > 0) {
-			long fileSize = writtenBytesCounter.get();
-			if (fileSize >= maxRolledFileSize) {
-				// Start file roll over
-				synchronized (RolloverFileOutputStream.class) {
+		if (maxRolledFileSize > 0 && writtenBytesCounter.get() >= maxRolledFileSize) {
+			synchronized (this) {
+				// Re-check under the lock, a concurrent writer or the roll task may have rolled the file already.
+				if (out != null && writtenBytesCounter.get() >= maxRolledFileSize) {
 					try {
-						rollFile();
-						writtenBytesCounter.set(0);
+						rollFile(false);
 					} catch (IOException e) {
 						logger.error("roll over failed:", e);
 					}
@@ -240,24 +1218,16 @@ public class RolloverFileOutputStream extends FilterOutputStream {
 			}
 		}
 	}
-	
-	private void startRolloverTimer(TimeZone zone, long rolloverStartTimeMs, long rolloverPeriodMs) {
-
-		synchronized (RolloverFileOutputStream.class) {
-
-			if (rolloverTimer == null) {
-				rolloverTimer = new Timer(RolloverFileOutputStream.class.getName(), true);
-			}
 
-			rollTask = new RollTask();
+	private void startRolloverTimer(TimeZone zone, long rolloverStartTimeMs, long rolloverPeriodMs) {
 
-			Date startTime = (rolloverStartTimeMs > 0) ? new Date(rolloverStartTimeMs) : getMidnightTime(zone);
+		Date startTime = (rolloverStartTimeMs > 0) ? new Date(rolloverStartTimeMs) : getMidnightTime(zone);
 
-			long rolloverPeriod = (rolloverPeriodMs <= 0) ? HOURS_24_IN_MS : rolloverPeriodMs;
+		long rolloverPeriod = (rolloverPeriodMs <= 0) ? HOURS_24_IN_MS : rolloverPeriodMs;
 
-			rolloverTimer.scheduleAtFixedRate(rollTask, startTime, rolloverPeriod);
-		}
+		rollTask = new RollTask(startTime.getTime(), rolloverPeriod);
 
+		rollTaskFuture = taskScheduler.scheduleAtFixedRate(rollTask, startTime, rolloverPeriod);
 	}
 
 	private Date getMidnightTime(TimeZone zone) {
@@ -273,14 +1243,139 @@ public class RolloverFileOutputStream extends FilterOutputStream {
 		return midnight.getTime();
 	}
 
-	private class RollTask extends TimerTask {
+	private class FlushTask implements Runnable {
+
+		@Override
+		public void run() {
+			// idle streams are skipped without taking the lock
+			if (getUnflushedBytes() == 0) {
+				return;
+			}
+			synchronized (RolloverFileOutputStream.this) {
+				if (out == null || getUnflushedBytes() == 0) {
+					return;
+				}
+				try {
+					flush();
+				} catch (IOException e) {
+					logger.error("Flush task failed:", e);
+				}
+			}
+		}
+	}
+
+	private class ResizeTask implements Runnable {
+
+		@Override
+		public void run() {
+			synchronized (RolloverFileOutputStream.this) {
+				try {
+					resizeBuffer();
+				} catch (IOException e) {
+					logger.error("Resize task failed:", e);
+				}
+			}
+		}
+	}
+
+	private class SyncTask implements Runnable {
+
+		@Override
+		public void run() {
+			if (streamPosition == syncedPosition) {
+				return;
+			}
+			try {
+				sync();
+			} catch (IOException e) {
+				logger.error("Sync task failed:", e);
+			}
+		}
+	}
+
+	private class RollTask implements Runnable {
+
+		private final long period;
+
+		private long scheduledTime;
+
+		private volatile long lastDelayMs;
+
+		private volatile long maxDelayMs;
+
+		private volatile long rolloverCount;
+
+		RollTask(long firstScheduledTime, long period) {
+			this.scheduledTime = firstScheduledTime;
+			this.period = period;
+		}
+
+		@Override
+		public void run() {
+			long delay = System.currentTimeMillis() - scheduledTime;
+			scheduledTime += period;
+			lastDelayMs = delay;
+			if (delay > maxDelayMs) {
+				maxDelayMs = delay;
+			}
+			logger.debug("Time based roll over started {} ms after its scheduled time", delay);
+
+			synchronized (RolloverFileOutputStream.this) {
+				if (out == null) {
+					// the stream has been closed while this task was pending
+					return;
+				}
+				try {
+					RolloverFileOutputStream.this.rollFile(true);
+					rolloverCount++;
+				} catch (IOException e) {
+					logger.error("Roll task failed:", e);
+				}
+			}
+		}
+	}
+
+	private class OpenSpareTask implements Runnable {
+
 		@Override
 		public void run() {
 			try {
-				RolloverFileOutputStream.this.rollFile();
+				spare.set(outputMode == OutputMode.MAPPED ? new SpareSegment(new MappedSegmentOutputStream(spareFile,
+						false, maxRolledFileSize)) : new SpareSegment(new FileOutputStream(spareFile)));
+			} catch (IOException e) {
+				logger.warn("Failed to open the spare segment, the next roll opens its segment directly:", e);
+			} finally {
+				sparePending.set(false);
+			}
+		}
+	}
+
+	private static class SpareSegment {
+
+		private final FileOutputStream fileOut;
+
+		private final MappedSegmentOutputStream mappedOut;
+
+		SpareSegment(FileOutputStream fileOut) {
+			this.fileOut = fileOut;
+			this.mappedOut = null;
+		}
+
+		SpareSegment(MappedSegmentOutputStream mappedOut) {
+			this.fileOut = null;
+			this.mappedOut = mappedOut;
+		}
+
+		void close() {
+			try {
+				if (fileOut != null) {
+					fileOut.close();
+				} else {
+					mappedOut.close();
+				}
 			} catch (IOException e) {
-				logger.error("Roll task failed:", e);
+				// nothing has been written to a spare segment
 			}
 		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Sparse offset index of a segment of framed records: the byte offset of every interval-th record, so a reader can
+ * seek to a record, or split the segment in ranges read in parallel, without scanning the frames before it. It is
+ * written next to the rolled segment, named like the archive (before compression) with the {@link #EXTENSION}.
+ * 
+ * Layout, big-endian: magic "RIDX", version, framing (1 length, 2 length and CRC-32C), interval, record count,
+ * segment length and entry count, followed by the offset (long) of the records 0, interval, 2 * interval, ...
+ * 
+ * The offsets are positions in the uncompressed segment.
+ */
+public class SegmentIndex {
+
+	public static final String EXTENSION = ".idx";
+
+	private static final int MAGIC = 0x52494458;
+
+	private static final int VERSION = 1;
+
+	private final int interval;
+
+	private final int framing;
+
+	private long[] offsets = new long[16];
+
+	private int entryCount;
+
+	private long recordCount;
+
+	private long segmentLength;
+
+	/**
+	 * @param interval
+	 *            Every interval-th record is indexed.
+	 * @param checksummed
+	 *            If the frames carry a CRC-32C.
+	 */
+	public SegmentIndex(int interval, boolean checksummed) {
+		if (interval <= 0) {
+			throw new IllegalArgumentException("The index interval must be positive: " + interval);
+		}
+		this.interval = interval;
+		this.framing = checksummed ? 2 : 1;
+	}
+
+	/**
+	 * Counts a record, and indexes it if it is an interval-th one.
+	 * 
+	 * @param offset
+	 *            Offset of the frame of the record in the segment.
+	 * @param frameLength
+	 *            Length of the frame, header included.
+	 */
+	void add(long offset, int frameLength) {
+		if (recordCount % interval == 0) {
+			if (entryCount == offsets.length) {
+				offsets = Arrays.copyOf(offsets, entryCount * 2);
+			}
+			offsets[entryCount++] = offset;
+		}
+		recordCount++;
+		segmentLength = offset + frameLength;
+	}
+
+	void writeTo(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeByte(framing);
+			out.writeInt(interval);
+			out.writeLong(recordCount);
+			out.writeLong(segmentLength);
+			out.writeInt(entryCount);
+			for (int i = 0; i < entryCount; i++) {
+				out.writeLong(offsets[i]);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads the index written for a segment.
+	 * 
+	 * @throws IOException
+	 *             if the file is not a segment index or is truncated
+	 */
+	public static SegmentIndex read(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a segment index: " + file);
+			}
+			int version = in.readByte();
+			if (version != VERSION) {
+				throw new IOException("Unsupported segment index version " + version + ": " + file);
+			}
+			boolean checksummed = in.readByte() == 2;
+			SegmentIndex index = new SegmentIndex(in.readInt(), checksummed);
+			index.recordCount = in.readLong();
+			index.segmentLength = in.readLong();
+			index.entryCount = in.readInt();
+			index.offsets = new long[index.entryCount];
+			for (int i = 0; i < index.entryCount; i++) {
+				index.offsets[i] = in.readLong();
+			}
+			return index;
+		} finally {
+			in.close();
+		}
+	}
+
+	public int getInterval() {
+		return interval;
+	}
+
+	/**
+	 * @return true if the frames of the segment carry a CRC-32C.
+	 */
+	public boolean isChecksummed() {
+		return framing == 2;
+	}
+
+	public long getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * @return Length of the uncompressed segment, the end of its last frame.
+	 */
+	public long getSegmentLength() {
+		return segmentLength;
+	}
+
+	public int getEntryCount() {
+		return entryCount;
+	}
+
+	/**
+	 * @return Offset of the record number entry * interval.
+	 */
+	public long getOffset(int entry) {
+		if (entry < 0 || entry >= entryCount) {
+			throw new IndexOutOfBoundsException("Entry " + entry + " of " + entryCount);
+		}
+		return offsets[entry];
+	}
+
+	/**
+	 * @return Offset of the closest indexed record at or before the given record number, reading on from there
+	 *         reaches the record after at most interval - 1 frames.
+	 */
+	public long getOffsetBefore(long record) {
+		if (record < 0 || record >= recordCount) {
+			throw new IndexOutOfBoundsException("Record " + record + " of " + recordCount);
+		}
+		return offsets[(int) (record / interval)];
+	}
+}
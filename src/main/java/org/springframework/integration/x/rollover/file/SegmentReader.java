@@ -0,0 +1,442 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.integration.x.rollover.file.codec.CompressionCodec;
+
+/**
+ * Reads what a {@link RolloverFileOutputStream} writes: lists the segments of a file name in time order, from the
+ * date in their names, memory maps the uncompressed ones, streams the compressed ones and follows the segment being
+ * written across rollovers, like tail -F.
+ * 
+ * A segment is named like the file name with the date in place of "yyyy_mm_dd", followed by a "_N" sequence if several
+ * segments started in the same time bucket (see {@link FileNameTemplate}), then the codec extension if it is
+ * compressed. Rolled segments start with
+ * the archivePrefix and a dot.
+ * 
+ * The segment being written in the mapped output mode is preallocated, it reads as zeros after the written bytes until
+ * it is rolled. The segments being written in the mapped and compressed output modes can't be followed.
+ */
+public class SegmentReader {
+
+	private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+	private final File directory;
+
+	private final FileNameTemplate fileNameTemplate;
+
+	private final String archiveNamePrefix;
+
+	private final CompressionCodec codec;
+
+	/**
+	 * @param filename
+	 *            The filename of the stream, including the "yyyy_mm_dd" date placeholder.
+	 * @param dateFormat
+	 *            The dateFormat of the stream, null for the default.
+	 * @param archivePrefix
+	 *            The archivePrefix of the stream, null or empty if none.
+	 * @param codec
+	 *            Codec of the compressed segments, null if no segment is compressed.
+	 */
+	public SegmentReader(String filename, String dateFormat, String archivePrefix, CompressionCodec codec) {
+		File file = new File(new File(filename.trim()).getAbsolutePath());
+		this.directory = file.getParentFile();
+		if (dateFormat == null) {
+			dateFormat = RolloverFileOutputStream.ROLLOVER_FILE_DATE_FORMAT;
+		}
+		this.fileNameTemplate = new FileNameTemplate(file.getName(), dateFormat);
+		this.archiveNamePrefix = StringUtils.isEmpty(archivePrefix) ? null : archivePrefix + ".";
+		this.codec = codec;
+	}
+
+	/**
+	 * @return All segments, the oldest first.
+	 */
+	public List<Segment> listSegments() throws IOException {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			throw new IOException("Cannot list the directory: " + directory);
+		}
+		List<Segment> segments = new ArrayList<Segment>();
+		for (File file : files) {
+			Segment segment = parse(file);
+			if (segment != null) {
+				segments.add(segment);
+			}
+		}
+		Collections.sort(segments);
+		return segments;
+	}
+
+	/**
+	 * @return The segment of the file, or null if the file is not a segment of this file name.
+	 */
+	public Segment parse(File file) {
+		String name = file.getName();
+		boolean archived = false;
+		if (archiveNamePrefix != null && name.startsWith(archiveNamePrefix)) {
+			name = name.substring(archiveNamePrefix.length());
+			archived = true;
+		}
+		boolean compressed = false;
+		if (codec != null && name.endsWith(codec.getExtension())) {
+			name = name.substring(0, name.length() - codec.getExtension().length());
+			compressed = true;
+		}
+
+		FileNameTemplate.ParsedName parsed = fileNameTemplate.parse(name);
+		if (parsed == null) {
+			return null;
+		}
+		return new Segment(file.getAbsoluteFile(), parsed.getTime(), parsed.getSequence(), archived, compressed);
+	}
+
+	/**
+	 * Maps the whole uncompressed segment read-only. Segments are mapped, not copied: the pages are read on demand
+	 * and shared with the page cache.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the segment is compressed
+	 * @throws IOException
+	 *             if the segment is larger than 2GB, the limit of a single mapping
+	 */
+	public MappedByteBuffer map(Segment segment) throws IOException {
+		if (segment.isCompressed()) {
+			throw new IllegalArgumentException("A compressed segment can't be mapped: " + segment.getFile());
+		}
+		RandomAccessFile file = new RandomAccessFile(segment.getFile(), "r");
+		try {
+			long size = file.length();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("Segment too large to be mapped: " + segment.getFile());
+			}
+			// the mapping stays valid once the file is closed
+			return file.getChannel().map(MapMode.READ_ONLY, 0, size);
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * @return The content of the segment, decompressed if needed. Uncompressed segments are read through a mapping.
+	 */
+	public InputStream open(Segment segment) throws IOException {
+		if (segment.isCompressed()) {
+			if (codec == null) {
+				throw new IllegalStateException("No codec to read the compressed segment: " + segment.getFile());
+			}
+			return codec.createInputStream(new BufferedInputStream(new FileInputStream(segment.getFile()),
+					STREAM_BUFFER_SIZE));
+		}
+		return new ByteBufferInputStream(map(segment));
+	}
+
+	/**
+	 * Follows the segments from the given position of a segment, typically the
+	 * {@link RolloverFileOutputStream#getDatedFilename()} of a running stream, across rollovers.
+	 * 
+	 * @param pollIntervalMs
+	 *            How long a read waits at the end of the segment before it looks again.
+	 */
+	public Tail tail(File segmentFile, long position, long pollIntervalMs) throws IOException {
+		Segment segment = parse(segmentFile);
+		if (segment == null) {
+			throw new IllegalArgumentException("Not a segment of this file name: " + segmentFile);
+		}
+		return new Tail(segment, position, pollIntervalMs);
+	}
+
+	/**
+	 * Follows the segments from the start of the newest one.
+	 */
+	public Tail tail(long pollIntervalMs) throws IOException {
+		List<Segment> segments = listSegments();
+		if (segments.isEmpty()) {
+			throw new FileNotFoundException("No segment in " + directory);
+		}
+		return new Tail(segments.get(segments.size() - 1), 0, pollIntervalMs);
+	}
+
+	/**
+	 * A segment file, ordered by the time in its name and then its sequence.
+	 */
+	public static class Segment implements Comparable<Segment> {
+
+		private final File file;
+
+		private final long timestamp;
+
+		private final long sequence;
+
+		private final boolean archived;
+
+		private final boolean compressed;
+
+		Segment(File file, long timestamp, long sequence, boolean archived, boolean compressed) {
+			this.file = file;
+			this.timestamp = timestamp;
+			this.sequence = sequence;
+			this.archived = archived;
+			this.compressed = compressed;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		/**
+		 * @return The time the segment was started, from its name.
+		 */
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+		/**
+		 * @return The "_N" sequence of segments started in the same time bucket, 0 for the first one.
+		 */
+		public long getSequence() {
+			return sequence;
+		}
+
+		/**
+		 * @return true if the segment has been rolled, its name starts with the archivePrefix.
+		 */
+		public boolean isArchived() {
+			return archived;
+		}
+
+		public boolean isCompressed() {
+			return compressed;
+		}
+
+		/**
+		 * @return true if both are the same segment, whatever it has been renamed to since.
+		 */
+		boolean isSameSegment(Segment other) {
+			return timestamp == other.timestamp && sequence == other.sequence;
+		}
+
+		@Override
+		public int compareTo(Segment other) {
+			if (timestamp != other.timestamp) {
+				return (timestamp < other.timestamp) ? -1 : 1;
+			}
+			if (sequence != other.sequence) {
+				return (sequence < other.sequence) ? -1 : 1;
+			}
+			return file.getName().compareTo(other.file.getName());
+		}
+
+		@Override
+		public String toString() {
+			return file.toString();
+		}
+	}
+
+	/**
+	 * Reads the segments one after the other, waiting for more bytes at the end of the newest one. A segment is
+	 * complete once the next one exists: the writer writes out the buffered bytes of a segment before it opens the
+	 * next one, whatever the archivePrefix and however late the rolled segment is closed. A read returns -1 only once
+	 * the stream is closed. The segment file is kept open, so its remaining bytes are read even if it is
+	 * renamed, compressed and deleted once rolled.
+	 */
+	public class Tail extends InputStream {
+
+		private final long pollIntervalMs;
+
+		private Segment segment;
+
+		private FileChannel channel;
+
+		// a segment that was compressed before it was reached is read as a stream
+		private InputStream compressedIn;
+
+		private long position;
+
+		private volatile boolean closed;
+
+		Tail(Segment segment, long position, long pollIntervalMs) throws IOException {
+			this.pollIntervalMs = pollIntervalMs;
+			open(segment);
+			if (compressedIn != null) {
+				// a compressed segment cannot be read at an offset, skip its uncompressed bytes instead
+				IOUtils.skipFully(compressedIn, position);
+			}
+			this.position = position;
+		}
+
+		/**
+		 * @return The segment being read.
+		 */
+		public Segment getSegment() {
+			return segment;
+		}
+
+		/**
+		 * @return Position in the (uncompressed) segment being read.
+		 */
+		public long getPosition() {
+			return position;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int n = read(b, 0, 1);
+			return (n < 0) ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			while (!closed) {
+				int n = readSegment(b, off, len);
+				if (n > 0) {
+					position += n;
+					return n;
+				}
+				// the writer hands its buffered bytes to the rolled segment before it opens the next one
+				Segment next = findNextSegment();
+				if (next != null) {
+					// last bytes written before the segment was rolled
+					n = readSegment(b, off, len);
+					if (n > 0) {
+						position += n;
+						return n;
+					}
+					try {
+						open(next);
+					} catch (FileNotFoundException e) {
+						// rolled and renamed since it was listed, it is listed again under its new name
+					}
+					continue;
+				}
+				try {
+					Thread.sleep(pollIntervalMs);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for " + segment);
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		public void close() throws IOException {
+			closed = true;
+			closeSegment();
+		}
+
+		private int readSegment(byte[] b, int off, int len) throws IOException {
+			if (compressedIn != null) {
+				return Math.max(compressedIn.read(b, off, len), 0);
+			}
+			return Math.max(channel.read(ByteBuffer.wrap(b, off, len), position), 0);
+		}
+
+		private Segment findNextSegment() throws IOException {
+			for (Segment candidate : listSegments()) {
+				if (candidate.compareTo(segment) > 0 && !candidate.isSameSegment(segment)) {
+					return candidate;
+				}
+			}
+			return null;
+		}
+
+		private void open(Segment next) throws IOException {
+			InputStream nextCompressedIn = null;
+			FileChannel nextChannel = null;
+			if (next.isCompressed()) {
+				nextCompressedIn = SegmentReader.this.open(next);
+			} else {
+				nextChannel = new FileInputStream(next.getFile()).getChannel();
+			}
+			closeSegment();
+			compressedIn = nextCompressedIn;
+			channel = nextChannel;
+			segment = next;
+			position = 0;
+		}
+
+		private void closeSegment() throws IOException {
+			if (compressedIn != null) {
+				compressedIn.close();
+				compressedIn = null;
+			}
+			if (channel != null) {
+				channel.close();
+				channel = null;
+			}
+		}
+	}
+
+	private static class ByteBufferInputStream extends InputStream {
+
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public long skip(long n) {
+			int count = (int) Math.min(Math.max(n, 0), buffer.remaining());
+			buffer.position(buffer.position() + count);
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.integration.x.rollover.file.codec.BlockIndex;
+
+/**
+ * Cleans up after a run that died, on a background thread so the first writes are not delayed by a big directory:
+ * <ul>
+ * <li>A compression output (file.gz.tmp) whose source still exists is incomplete and is deleted, the source is
+ * compressed again. Without its source the output is complete, only the rename was missed, and it is renamed.</li>
+ * <li>A segment that was being written when the process died (never renamed with the archivePrefix) is archived as
+ * if it had been rolled.</li>
+ * <li>An archive that was never compressed is queued for compression.</li>
+ * </ul>
+ * The directory is listed once and the files are processed in parallel, the compression outputs first. Only the
+ * segments of the stream are recovered, not those of another stripe or partition in the same directory.
+ */
+public class SegmentRecovery implements Runnable {
+
+	/**
+	 * The files written, or being rolled, by the streams of the sink sharing the directory.
+	 */
+	public interface ActiveFiles {
+
+		boolean contains(File file);
+	}
+
+	private static final int FILES_PER_TASK = 256;
+
+	private Logger logger = LoggerFactory.getLogger(SegmentRecovery.class);
+
+	private final RolloverFileOutputStream stream;
+
+	// The archivePrefix and its dot, followed by the segment name in the archive names. Null if there is none.
+	private final String archivePrefix;
+
+	private final FileNameTemplate segmentNames;
+
+	// The codec extension of the segments written in the COMPRESSED output mode.
+	private final String segmentExtension;
+
+	private volatile ActiveFiles activeFiles;
+
+	private final FileCompressor fileCompressor;
+
+	private final String archiveExtension;
+
+	private final int parallelism;
+
+	// Files modified after this have been written by the current run.
+	private final long startTime;
+
+	private final AtomicInteger completedCount = new AtomicInteger();
+
+	private final AtomicInteger discardedCount = new AtomicInteger();
+
+	private final AtomicInteger orphanCount = new AtomicInteger();
+
+	private final AtomicInteger requeuedCount = new AtomicInteger();
+
+	private Thread thread;
+
+	/**
+	 * @param stream
+	 *            The stream writing the segments. Its current segment is left alone.
+	 * @param dateFormat
+	 *            The format of the date in the segment names. The default is "yyyy_MM_dd".
+	 * @param fileCompressor
+	 *            Compressor of the rolled segments, null if they are not compressed after they are rolled.
+	 * @param parallelism
+	 *            Number of threads processing the files.
+	 */
+	public SegmentRecovery(RolloverFileOutputStream stream, String dateFormat, FileCompressor fileCompressor,
+			int parallelism) {
+		this.stream = stream;
+		this.fileCompressor = fileCompressor;
+		this.archiveExtension = (fileCompressor != null) ? fileCompressor.getCodec().getExtension() : null;
+		this.parallelism = parallelism;
+
+		segmentNames = new FileNameTemplate(new File(stream.getFilename()).getName(),
+				(dateFormat != null) ? dateFormat : RolloverFileOutputStream.ROLLOVER_FILE_DATE_FORMAT);
+		segmentExtension = stream.getSegmentExtension();
+		String archiveNamePrefix = stream.getArchiveNamePrefix();
+		archivePrefix = (archiveNamePrefix != null) ? archiveNamePrefix.substring(0, archiveNamePrefix.length()
+				- segmentNames.getPrefix().length()) : null;
+		startTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * @param activeFiles
+	 *            The files of the other streams of the sink, left alone as the current segment of this stream is.
+	 */
+	public void setActiveFiles(ActiveFiles activeFiles) {
+		this.activeFiles = activeFiles;
+	}
+
+	/**
+	 * Runs the recovery on a new daemon thread.
+	 */
+	public synchronized void start(String threadName) {
+		thread = new Thread(this, threadName);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Waits for the recovery started with {@link #start(String)}.
+	 */
+	public void join(long timeoutMs) throws InterruptedException {
+		Thread recoveryThread;
+		synchronized (this) {
+			recoveryThread = thread;
+		}
+		if (recoveryThread != null) {
+			recoveryThread.join(timeoutMs);
+		}
+	}
+
+	@Override
+	public void run() {
+		long start = System.currentTimeMillis();
+		try {
+			List<File> tmpFiles = new ArrayList<File>();
+			List<File> files = new ArrayList<File>();
+			String tmpSuffix = (fileCompressor != null) ? archiveExtension + fileCompressor.getTempExtension() : null;
+
+			DirectoryStream<Path> paths = Files.newDirectoryStream(stream.getDirectory().toPath());
+			try {
+				for (Path path : paths) {
+					File file = path.toFile();
+					String name = file.getName();
+					if (tmpSuffix != null && name.endsWith(tmpSuffix)) {
+						// the compression outputs of the other streams are theirs to recover
+						if (isArchiveName(name.substring(0, name.length() - tmpSuffix.length()))) {
+							tmpFiles.add(file);
+						}
+					} else {
+						files.add(file);
+					}
+				}
+			} finally {
+				paths.close();
+			}
+
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			try {
+				// the compression outputs first, the sources they belong to may be compressed again afterwards
+				pool.invoke(new RecoverTask(tmpFiles, 0, tmpFiles.size(), true));
+				pool.invoke(new RecoverTask(files, 0, files.size(), false));
+			} finally {
+				pool.shutdown();
+			}
+
+			logger.info("Recovery of {} done in {} ms: {} compressions completed, {} discarded, {} orphaned "
+					+ "segments archived, {} archives queued for compression", stream.getDirectory(),
+					System.currentTimeMillis() - start, completedCount, discardedCount, orphanCount, requeuedCount);
+		} catch (Exception e) {
+			logger.error("Recovery of " + stream.getDirectory() + " failed", e);
+		}
+	}
+
+	private void recoverTmpFile(File tmpFile) throws IOException {
+		if (!tmpFile.isFile() || tmpFile.lastModified() >= startTime) {
+			// written by a compression of the current run, its source still exists until it completes
+			return;
+		}
+		String name = tmpFile.getName();
+		File compressed = new File(tmpFile.getParentFile(), name.substring(0,
+				name.length() - fileCompressor.getTempExtension().length()));
+		File source = new File(tmpFile.getParentFile(), name.substring(0,
+				compressed.getName().length() - archiveExtension.length()));
+		if (source.exists() || compressed.exists()) {
+			Files.delete(tmpFile.toPath());
+			discardedCount.incrementAndGet();
+			logger.debug("Deleted the incomplete compression output {}", tmpFile);
+		} else if (tmpFile.renameTo(compressed)) {
+			// the source is only deleted once the output is complete
+			completedCount.incrementAndGet();
+			logger.debug("Completed the compression output {}", compressed);
+		}
+	}
+
+	private void recoverFile(File file) {
+		String name = file.getName();
+		if (!file.isFile() || file.lastModified() >= startTime) {
+			// rolled by the current run, its compression is queued already
+			return;
+		}
+		if (name.endsWith(SegmentIndex.EXTENSION) || name.endsWith(BlockIndex.EXTENSION)) {
+			// the indexes of an archive stay next to it, uncompressed
+			return;
+		}
+		if (archivePrefix != null && name.startsWith(archivePrefix)) {
+			if (fileCompressor != null && isArchiveName(name)) {
+				fileCompressor.compressFile(file.getAbsolutePath());
+				requeuedCount.incrementAndGet();
+			}
+		} else if (isSegmentName(name)) {
+			if (archivePrefix == null && fileCompressor == null) {
+				// already looks like an archive
+				return;
+			}
+			ActiveFiles otherStreams = activeFiles;
+			if (otherStreams != null && otherStreams.contains(file.getAbsoluteFile())) {
+				return;
+			}
+			if (stream.archiveOrphan(file)) {
+				orphanCount.incrementAndGet();
+				logger.info("Archived the orphaned segment {}", file);
+			}
+		}
+	}
+
+	/**
+	 * @return true if the name, without the archive extension, is that of a rolled segment of this stream
+	 */
+	private boolean isArchiveName(String name) {
+		if (archivePrefix == null) {
+			return isSegmentName(name);
+		}
+		return name.startsWith(archivePrefix) && isSegmentName(name.substring(archivePrefix.length()));
+	}
+
+	private boolean isSegmentName(String name) {
+		if (!segmentNames.isDated()) {
+			// a single file name, there is no other segment to recover
+			return false;
+		}
+		if (!name.endsWith(segmentExtension)) {
+			return false;
+		}
+		return segmentNames.parseTime(name.substring(0, name.length() - segmentExtension.length())) >= 0;
+	}
+
+	public int getCompletedCount() {
+		return completedCount.get();
+	}
+
+	public int getDiscardedCount() {
+		return discardedCount.get();
+	}
+
+	public int getOrphanCount() {
+		return orphanCount.get();
+	}
+
+	public int getRequeuedCount() {
+		return requeuedCount.get();
+	}
+
+	private class RecoverTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<File> files;
+
+		private final int from;
+
+		private final int to;
+
+		private final boolean tmpFiles;
+
+		RecoverTask(List<File> files, int from, int to, boolean tmpFiles) {
+			this.files = files;
+			this.from = from;
+			this.to = to;
+			this.tmpFiles = tmpFiles;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > FILES_PER_TASK) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new RecoverTask(files, from, middle, tmpFiles), new RecoverTask(files, middle, to, tmpFiles));
+				return;
+			}
+			for (int i = from; i < to; i++) {
+				File file = files.get(i);
+				try {
+					if (tmpFiles) {
+						recoverTmpFile(file);
+					} else {
+						recoverFile(file);
+					}
+				} catch (Exception e) {
+					logger.error("Failed to recover " + file, e);
+				}
+			}
+		}
+	}
+}
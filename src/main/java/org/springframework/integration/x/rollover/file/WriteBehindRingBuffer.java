@@ -0,0 +1,289 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded, preallocated ring buffer decoupling the message producers from the file I/O. Producers
+ * {@link #publish(Object) publish} payloads, a dedicated writer thread drains them in batches and hands each batch to
+ * a {@link BatchWriter}. Publishing does not allocate: payload references and their publish time are kept in arrays
+ * sized once at construction.
+ *
+ * When the buffer is full the configured {@link Backpressure} applies.
+ */
+public class WriteBehindRingBuffer {
+
+	/**
+	 * What {@link WriteBehindRingBuffer#publish(Object)} does when the buffer is full.
+	 */
+	public enum Backpressure {
+		/** Wait until the writer thread frees a slot. */
+		BLOCK,
+		/** Discard the payload, {@link WriteBehindRingBuffer#getDroppedCount()} is incremented. */
+		DROP,
+		/** Reject the payload, the caller reports the failure. */
+		FAIL
+	}
+
+	/**
+	 * Writes the drained payloads, called on the writer thread only.
+	 */
+	public interface BatchWriter {
+
+		/**
+		 * @param payloads
+		 *            the drained payloads, valid from index 0 to count - 1
+		 * @param count
+		 *            number of payloads in the batch
+		 */
+		void write(Object[] payloads, int count) throws Exception;
+	}
+
+	private final Logger logger = LoggerFactory.getLogger(WriteBehindRingBuffer.class);
+
+	private final Object[] slots;
+
+	private final long[] publishNanos;
+
+	private final Object[] batch;
+
+	private final long[] batchPublishNanos;
+
+	private final Backpressure backpressure;
+
+	private final BatchWriter batchWriter;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition notEmpty = lock.newCondition();
+
+	private final Condition notFull = lock.newCondition();
+
+	private int head;
+
+	private int tail;
+
+	private int count;
+
+	private volatile boolean running;
+
+	private Thread writerThread;
+
+	private volatile long droppedCount;
+
+	private volatile long writtenCount;
+
+	private volatile long batchCount;
+
+	private volatile long lastLatencyNanos;
+
+	private volatile long maxLatencyNanos;
+
+	private volatile long totalLatencyNanos;
+
+	/**
+	 * @param capacity
+	 *            Number of payloads the buffer can hold.
+	 * @param maxBatchSize
+	 *            Maximal number of payloads handed to the writer at once.
+	 * @param backpressure
+	 *            What to do when the buffer is full.
+	 * @param batchWriter
+	 *            Writes the drained payloads.
+	 */
+	public WriteBehindRingBuffer(int capacity, int maxBatchSize, Backpressure backpressure, BatchWriter batchWriter) {
+		if (capacity <= 0 || maxBatchSize <= 0) {
+			throw new IllegalArgumentException("capacity and maxBatchSize must be positive");
+		}
+		this.slots = new Object[capacity];
+		this.publishNanos = new long[capacity];
+		this.batch = new Object[Math.min(capacity, maxBatchSize)];
+		this.batchPublishNanos = new long[batch.length];
+		this.backpressure = backpressure;
+		this.batchWriter = batchWriter;
+	}
+
+	public synchronized void start(String threadName) {
+		if (writerThread != null) {
+			return;
+		}
+		running = true;
+		writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drainLoop();
+			}
+		}, threadName);
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * Stops accepting payloads, waits for the writer thread to write everything published so far and stops it.
+	 */
+	public synchronized void stop() throws InterruptedException {
+		if (writerThread == null) {
+			return;
+		}
+		lock.lock();
+		try {
+			running = false;
+			notEmpty.signalAll();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		writerThread.join();
+		writerThread = null;
+	}
+
+	/**
+	 * @return true if the payload was queued, false if it was dropped or rejected because the buffer is full
+	 * @throws IllegalStateException
+	 *             if the buffer is not running
+	 */
+	public boolean publish(Object payload) throws InterruptedException {
+		lock.lock();
+		try {
+			while (count == slots.length) {
+				if (backpressure != Backpressure.BLOCK) {
+					if (backpressure == Backpressure.DROP) {
+						droppedCount++;
+					}
+					return false;
+				}
+				if (!running) {
+					break;
+				}
+				notFull.await();
+			}
+			if (!running) {
+				throw new IllegalStateException("The write-behind buffer is not running");
+			}
+			slots[tail] = payload;
+			publishNanos[tail] = System.nanoTime();
+			tail = (tail + 1) % slots.length;
+			count++;
+			notEmpty.signal();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void drainLoop() {
+		while (true) {
+			int drained = 0;
+			lock.lock();
+			try {
+				while (count == 0 && running) {
+					notEmpty.await(1, TimeUnit.SECONDS);
+				}
+				if (count == 0) {
+					// stopped and fully drained
+					return;
+				}
+				drained = Math.min(count, batch.length);
+				for (int i = 0; i < drained; i++) {
+					batch[i] = slots[head];
+					batchPublishNanos[i] = publishNanos[head];
+					slots[head] = null;
+					head = (head + 1) % slots.length;
+				}
+				count -= drained;
+				notFull.signalAll();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				logger.warn("Write-behind writer interrupted, {} payloads not written", count);
+				return;
+			} finally {
+				lock.unlock();
+			}
+
+			try {
+				batchWriter.write(batch, drained);
+			} catch (Exception e) {
+				logger.error("Failed to write a batch of " + drained + " payloads", e);
+			}
+
+			long now = System.nanoTime();
+			for (int i = 0; i < drained; i++) {
+				long latency = now - batchPublishNanos[i];
+				totalLatencyNanos += latency;
+				if (latency > maxLatencyNanos) {
+					maxLatencyNanos = latency;
+				}
+				batch[i] = null;
+			}
+			lastLatencyNanos = now - batchPublishNanos[drained - 1];
+			writtenCount += drained;
+			batchCount++;
+		}
+	}
+
+	public int getCapacity() {
+		return slots.length;
+	}
+
+	/**
+	 * @return Number of payloads waiting to be written.
+	 */
+	public int getQueueDepth() {
+		lock.lock();
+		try {
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getDroppedCount() {
+		return droppedCount;
+	}
+
+	public long getWrittenCount() {
+		return writtenCount;
+	}
+
+	public long getBatchCount() {
+		return batchCount;
+	}
+
+	/**
+	 * @return Time from publish to written for the most recently written payload, in microseconds.
+	 */
+	public long getLastLatencyMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(lastLatencyNanos);
+	}
+
+	/**
+	 * @return Worst time from publish to written, in microseconds.
+	 */
+	public long getMaxLatencyMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(maxLatencyNanos);
+	}
+
+	/**
+	 * @return Average time from publish to written, in microseconds.
+	 */
+	public long getMeanLatencyMicros() {
+		long written = writtenCount;
+		return (written == 0) ? 0 : TimeUnit.NANOSECONDS.toMicros(totalLatencyNanos / written);
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
+/**
+ * Base class implementing {@link #compress(InputStream, OutputStream)} as a copy through
+ * {@link #createOutputStream(OutputStream)}.
+ */
+public abstract class AbstractCompressionCodec implements CompressionCodec {
+
+	protected static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+	private final String name;
+
+	private final String extension;
+
+	protected AbstractCompressionCodec(String name, String extension) {
+		this.name = name;
+		this.extension = extension;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String getExtension() {
+		return extension;
+	}
+
+	@Override
+	public void compress(InputStream in, OutputStream out) throws IOException {
+		OutputStream compressed = createOutputStream(new CloseShieldOutputStream(out));
+		try {
+			IOUtils.copyLarge(in, compressed, new byte[COPY_BUFFER_SIZE]);
+		} finally {
+			compressed.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
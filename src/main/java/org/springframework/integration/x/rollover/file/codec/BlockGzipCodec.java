@@ -0,0 +1,221 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
+/**
+ * Blocked gzip in the BGZF layout (as used by samtools and htsjdk): the data is compressed in independent gzip
+ * members of at most 64K, each carrying its own compressed size in a "BC" extra field, followed by an empty end of
+ * file member. Any gzip reader decompresses the whole file, and since a block can be decompressed on its own, the
+ * archive can be split and read in parallel, see {@link BlockGzipReader}.
+ * 
+ * A full block ends after the last newline of its second half, if there is one, so blocks of text records start at
+ * a record. {@link #compressIndexed(InputStream, OutputStream)} also returns the {@link BlockIndex}, written next to
+ * the archive by the FileCompressor. Every flush of a compressing stream ends a block.
+ */
+public class BlockGzipCodec extends AbstractCompressionCodec {
+
+	/**
+	 * Uncompressed size of a full block, small enough for the compressed block to stay within 64K.
+	 */
+	public static final int MAX_BLOCK_INPUT = 0xff00;
+
+	static final int MAX_BLOCK_SIZE = 0x10000;
+
+	static final int HEADER_LENGTH = 18;
+
+	static final int TRAILER_LENGTH = 8;
+
+	static final byte[] EOF_MARKER = { 0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0, 0x1b,
+			0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
+
+	private final int level;
+
+	public BlockGzipCodec() {
+		this(".gz", Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * @param extension
+	 *            File name extension of the compressed files.
+	 * @param level
+	 *            Deflate level, 0-9 or -1 for the default level.
+	 */
+	public BlockGzipCodec(String extension, int level) {
+		super("bgzf", extension);
+		this.level = level;
+	}
+
+	@Override
+	public OutputStream createOutputStream(OutputStream out) throws IOException {
+		return new BlockGzipOutputStream(out, level, null);
+	}
+
+	@Override
+	public InputStream createInputStream(InputStream in) throws IOException {
+		// reads all members
+		return new GZIPInputStream(in, COPY_BUFFER_SIZE);
+	}
+
+	@Override
+	public void compress(InputStream in, OutputStream out) throws IOException {
+		compressIndexed(in, out);
+	}
+
+	/**
+	 * Compresses the whole input into the output. Neither stream is closed.
+	 * 
+	 * @return The offsets of the blocks written.
+	 */
+	public BlockIndex compressIndexed(InputStream in, OutputStream out) throws IOException {
+		BlockIndex index = new BlockIndex();
+		OutputStream compressed = new BlockGzipOutputStream(new CloseShieldOutputStream(out), level, index);
+		try {
+			IOUtils.copyLarge(in, compressed, new byte[COPY_BUFFER_SIZE]);
+		} finally {
+			compressed.close();
+		}
+		return index;
+	}
+
+	private static class BlockGzipOutputStream extends OutputStream {
+
+		private final OutputStream out;
+
+		private final Deflater deflater;
+
+		private final CRC32 crc = new CRC32();
+
+		private final BlockIndex index;
+
+		private final byte[] buffer = new byte[MAX_BLOCK_INPUT];
+
+		private final byte[] block = new byte[MAX_BLOCK_SIZE];
+
+		private int count;
+
+		private boolean closed;
+
+		BlockGzipOutputStream(OutputStream out, int level, BlockIndex index) {
+			this.out = out;
+			this.deflater = new Deflater(level, true);
+			this.index = index;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (count == buffer.length) {
+				writeBlock(true);
+			}
+			buffer[count++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (count == buffer.length) {
+					writeBlock(true);
+				}
+				int n = Math.min(len, buffer.length - count);
+				System.arraycopy(b, off, buffer, count, n);
+				count += n;
+				off += n;
+				len -= n;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (count > 0) {
+				writeBlock(false);
+			}
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				if (count > 0) {
+					writeBlock(false);
+				}
+				out.write(EOF_MARKER);
+			} finally {
+				deflater.end();
+				out.close();
+			}
+		}
+
+		private void writeBlock(boolean full) throws IOException {
+			int length = count;
+			if (full) {
+				for (int i = count - 1; i >= count / 2; i--) {
+					if (buffer[i] == '\n') {
+						length = i + 1;
+						break;
+					}
+				}
+			}
+
+			deflater.reset();
+			deflater.setInput(buffer, 0, length);
+			deflater.finish();
+			int compressedLength = 0;
+			int capacity = block.length - HEADER_LENGTH - TRAILER_LENGTH;
+			while (!deflater.finished()) {
+				int n = deflater.deflate(block, HEADER_LENGTH + compressedLength, capacity - compressedLength);
+				if (n == 0 && compressedLength == capacity) {
+					throw new IOException("Compressed block exceeds " + MAX_BLOCK_SIZE + " bytes");
+				}
+				compressedLength += n;
+			}
+			crc.reset();
+			crc.update(buffer, 0, length);
+
+			int blockSize = HEADER_LENGTH + compressedLength + TRAILER_LENGTH;
+			System.arraycopy(EOF_MARKER, 0, block, 0, 16);
+			writeShort(block, 16, blockSize - 1);
+			writeInt(block, blockSize - 8, (int) crc.getValue());
+			writeInt(block, blockSize - 4, length);
+			out.write(block, 0, blockSize);
+			if (index != null) {
+				index.add(blockSize, length);
+			}
+
+			System.arraycopy(buffer, length, buffer, 0, count - length);
+			count -= length;
+		}
+
+		private static void writeShort(byte[] b, int off, int value) {
+			b[off] = (byte) value;
+			b[off + 1] = (byte) (value >>> 8);
+		}
+
+		private static void writeInt(byte[] b, int off, int value) {
+			writeShort(b, off, value);
+			writeShort(b, off + 2, value >>> 16);
+		}
+	}
+}
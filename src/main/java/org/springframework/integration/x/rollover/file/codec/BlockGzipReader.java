@@ -0,0 +1,214 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file.codec;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Random access to a {@link BlockGzipCodec} archive. The blocks are located with the {@link BlockIndex} written next
+ * to the archive or, if there is none (e.g. a segment of the compressed output mode), by hopping from block header to
+ * block header. Blocks are decompressed on their own, so several readers, e.g. one per split of a parallel job, can
+ * share an archive.
+ * 
+ * Thread safe, the archive is read with positional reads.
+ */
+public class BlockGzipReader implements Closeable {
+
+	private final FileChannel channel;
+
+	private final BlockIndex index;
+
+	public BlockGzipReader(File archive) throws IOException {
+		FileInputStream in = new FileInputStream(archive);
+		channel = in.getChannel();
+		try {
+			File indexFile = new File(archive.getPath() + BlockIndex.EXTENSION);
+			index = indexFile.exists() ? BlockIndex.read(indexFile) : scan(channel);
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Builds the index of an archive from its block headers, without decompressing it.
+	 */
+	public static BlockIndex scan(FileChannel channel) throws IOException {
+		BlockIndex index = new BlockIndex();
+		ByteBuffer header = ByteBuffer.allocate(BlockGzipCodec.HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer trailer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+		long size = channel.size();
+		long position = 0;
+		while (position < size) {
+			int blockSize = readBlockSize(channel, position, header);
+			if (position + blockSize == size && blockSize == BlockGzipCodec.EOF_MARKER.length) {
+				break;
+			}
+			trailer.clear();
+			readFully(channel, trailer, position + blockSize - 4);
+			index.add(blockSize, trailer.getInt(0));
+			position += blockSize;
+		}
+		return index;
+	}
+
+	public BlockIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return The uncompressed content of the block.
+	 * @throws IOException
+	 *             if the block is corrupt
+	 */
+	public byte[] readBlock(int block) throws IOException {
+		long position = index.getCompressedOffset(block);
+		ByteBuffer header = ByteBuffer.allocate(BlockGzipCodec.HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+		int blockSize = readBlockSize(channel, position, header);
+		ByteBuffer compressed = ByteBuffer.allocate(blockSize).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, compressed, position);
+
+		int expectedCrc = compressed.getInt(blockSize - 8);
+		byte[] data = new byte[compressed.getInt(blockSize - 4)];
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(compressed.array(), BlockGzipCodec.HEADER_LENGTH, blockSize
+					- BlockGzipCodec.HEADER_LENGTH - BlockGzipCodec.TRAILER_LENGTH);
+			int length = 0;
+			while (length < data.length) {
+				int n = inflater.inflate(data, length, data.length - length);
+				if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+					throw new IOException("Block " + block + " is shorter than its declared size");
+				}
+				length += n;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Block " + block + " is corrupt", e);
+		} finally {
+			inflater.end();
+		}
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		if ((int) crc.getValue() != expectedCrc) {
+			throw new IOException("Block " + block + " checksum mismatch");
+		}
+		return data;
+	}
+
+	/**
+	 * @return The uncompressed data from the offset to the end of the block range.
+	 */
+	public InputStream open(long uncompressedOffset, int endBlock) throws IOException {
+		int block = index.findBlock(uncompressedOffset);
+		BlockStream stream = new BlockStream(block, endBlock);
+		stream.skipInBlock((int) (uncompressedOffset - index.getUncompressedOffset(block)));
+		return stream;
+	}
+
+	/**
+	 * @return The uncompressed data from the offset to the end of the archive.
+	 */
+	public InputStream open(long uncompressedOffset) throws IOException {
+		return open(uncompressedOffset, index.getBlockCount());
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private static int readBlockSize(FileChannel channel, long position, ByteBuffer header) throws IOException {
+		header.clear();
+		readFully(channel, header, position);
+		if (header.get(0) != 0x1f || header.get(1) != (byte) 0x8b || (header.get(3) & 4) == 0
+				|| header.get(12) != 'B' || header.get(13) != 'C') {
+			throw new IOException("No block gzip header at offset " + position);
+		}
+		return (header.getShort(16) & 0xffff) + 1;
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer, position + buffer.position());
+			if (n < 0) {
+				throw new EOFException("Truncated block at offset " + position);
+			}
+		}
+	}
+
+	private class BlockStream extends InputStream {
+
+		private int nextBlock;
+
+		private final int endBlock;
+
+		private byte[] data = new byte[0];
+
+		private int position;
+
+		BlockStream(int firstBlock, int endBlock) {
+			this.nextBlock = firstBlock;
+			this.endBlock = Math.min(endBlock, index.getBlockCount());
+		}
+
+		void skipInBlock(int count) throws IOException {
+			if (fill()) {
+				position = count;
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!fill()) {
+				return -1;
+			}
+			return data[position++] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (!fill()) {
+				return -1;
+			}
+			int n = Math.min(len, data.length - position);
+			System.arraycopy(data, position, b, off, n);
+			position += n;
+			return n;
+		}
+
+		private boolean fill() throws IOException {
+			while (position == data.length) {
+				if (nextBlock >= endBlock) {
+					return false;
+				}
+				data = readBlock(nextBlock++);
+				position = 0;
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file.codec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Offsets of the independently compressed blocks of a {@link BlockGzipCodec} archive, in the archive and in the
+ * uncompressed data. It is written next to the archive with the {@link #EXTENSION}, so readers can hand block ranges
+ * to parallel workers without reading the archive first.
+ * 
+ * Layout, big-endian: magic "RBIX", version, block count, compressed and uncompressed length, followed by the
+ * compressed and the uncompressed offset (longs) of every block.
+ */
+public class BlockIndex {
+
+	public static final String EXTENSION = ".bidx";
+
+	private static final int MAGIC = 0x52424958;
+
+	private static final int VERSION = 1;
+
+	private long[] compressedOffsets = new long[64];
+
+	private long[] uncompressedOffsets = new long[64];
+
+	private int blockCount;
+
+	private long compressedLength;
+
+	private long uncompressedLength;
+
+	void add(int compressedSize, int uncompressedSize) {
+		if (blockCount == compressedOffsets.length) {
+			compressedOffsets = Arrays.copyOf(compressedOffsets, blockCount * 2);
+			uncompressedOffsets = Arrays.copyOf(uncompressedOffsets, blockCount * 2);
+		}
+		compressedOffsets[blockCount] = compressedLength;
+		uncompressedOffsets[blockCount] = uncompressedLength;
+		blockCount++;
+		compressedLength += compressedSize;
+		uncompressedLength += uncompressedSize;
+	}
+
+	public void writeTo(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeInt(blockCount);
+			out.writeLong(compressedLength);
+			out.writeLong(uncompressedLength);
+			for (int i = 0; i < blockCount; i++) {
+				out.writeLong(compressedOffsets[i]);
+				out.writeLong(uncompressedOffsets[i]);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @throws IOException
+	 *             if the file is not a block index or is truncated
+	 */
+	public static BlockIndex read(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a block index: " + file);
+			}
+			int version = in.readByte();
+			if (version != VERSION) {
+				throw new IOException("Unsupported block index version " + version + ": " + file);
+			}
+			BlockIndex index = new BlockIndex();
+			index.blockCount = in.readInt();
+			index.compressedLength = in.readLong();
+			index.uncompressedLength = in.readLong();
+			index.compressedOffsets = new long[index.blockCount];
+			index.uncompressedOffsets = new long[index.blockCount];
+			for (int i = 0; i < index.blockCount; i++) {
+				index.compressedOffsets[i] = in.readLong();
+				index.uncompressedOffsets[i] = in.readLong();
+			}
+			return index;
+		} finally {
+			in.close();
+		}
+	}
+
+	public int getBlockCount() {
+		return blockCount;
+	}
+
+	/**
+	 * @return Length of the data blocks, the archive ends with the end of file marker after them.
+	 */
+	public long getCompressedLength() {
+		return compressedLength;
+	}
+
+	public long getUncompressedLength() {
+		return uncompressedLength;
+	}
+
+	/**
+	 * @return Offset of the block in the archive.
+	 */
+	public long getCompressedOffset(int block) {
+		checkBlock(block);
+		return compressedOffsets[block];
+	}
+
+	/**
+	 * @return Offset of the first byte of the block in the uncompressed data.
+	 */
+	public long getUncompressedOffset(int block) {
+		checkBlock(block);
+		return uncompressedOffsets[block];
+	}
+
+	/**
+	 * @return Size of the block in the archive.
+	 */
+	public int getCompressedSize(int block) {
+		checkBlock(block);
+		long end = (block + 1 < blockCount) ? compressedOffsets[block + 1] : compressedLength;
+		return (int) (end - compressedOffsets[block]);
+	}
+
+	/**
+	 * @return The block holding the byte at the uncompressed offset.
+	 */
+	public int findBlock(long uncompressedOffset) {
+		if (uncompressedOffset < 0 || uncompressedOffset >= uncompressedLength) {
+			throw new IndexOutOfBoundsException("Offset " + uncompressedOffset + " of " + uncompressedLength);
+		}
+		int position = Arrays.binarySearch(uncompressedOffsets, 0, blockCount, uncompressedOffset);
+		if (position >= 0) {
+			// skip empty blocks, e.g. of a flush without new data
+			while (position + 1 < blockCount && uncompressedOffsets[position + 1] == uncompressedOffset) {
+				position++;
+			}
+			return position;
+		}
+		return -position - 2;
+	}
+
+	private void checkBlock(int block) {
+		if (block < 0 || block >= blockCount) {
+			throw new IndexOutOfBoundsException("Block " + block + " of " + blockCount);
+		}
+	}
+}
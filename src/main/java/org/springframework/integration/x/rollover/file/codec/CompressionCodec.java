@@ -0,0 +1,53 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compression format used for the archived files. Implementations must be thread safe, the same codec instance
+ * compresses several files concurrently. Custom codecs can be selected with their fully qualified class name, they
+ * need a public no-argument constructor.
+ *
+ * @see CompressionCodecs
+ */
+public interface CompressionCodec {
+
+	/**
+	 * @return Short name of the codec, e.g. "gzip".
+	 */
+	String getName();
+
+	/**
+	 * @return File name extension of the compressed files, including the dot, e.g. ".gz".
+	 */
+	String getExtension();
+
+	/**
+	 * Wraps the output in a compressing stream. Closing the returned stream finishes the compressed data and closes
+	 * the output.
+	 */
+	OutputStream createOutputStream(OutputStream out) throws IOException;
+
+	/**
+	 * Wraps the compressed input in a decompressing stream.
+	 */
+	InputStream createInputStream(InputStream in) throws IOException;
+
+	/**
+	 * Compresses the whole input into the output. Neither stream is closed.
+	 */
+	void compress(InputStream in, OutputStream out) throws IOException;
+}
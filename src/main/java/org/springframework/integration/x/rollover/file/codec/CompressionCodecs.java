@@ -0,0 +1,77 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file.codec;
+
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+import org.springframework.beans.BeanUtils;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Creates the {@link CompressionCodec} selected by the compressionCodec module option.
+ */
+public final class CompressionCodecs {
+
+	public static final String GZIP = "gzip";
+	public static final String DEFLATE = "deflate";
+	public static final String LZ4 = "lz4";
+	public static final String ZSTD = "zstd";
+	public static final String SNAPPY = "snappy";
+	public static final String BGZF = "bgzf";
+
+	private CompressionCodecs() {
+	}
+
+	/**
+	 * @param name
+	 *            One of gzip, deflate, lz4, zstd, snappy, bgzf or the fully qualified class name of a custom
+	 *            {@link CompressionCodec}.
+	 * @param level
+	 *            Compression level, -1 for the default level of the codec. Ignored by lz4, snappy and custom codecs.
+	 * @param gzipExtension
+	 *            File name extension of gzip and bgzf archives.
+	 * @param blockSize
+	 *            If positive, gzip compresses whole files in parallel blocks of this size.
+	 * @param pool
+	 *            Pool compressing the gzip blocks, required if blockSize is positive.
+	 */
+	public static CompressionCodec create(String name, int level, String gzipExtension, int blockSize,
+			ForkJoinPool pool) {
+		String codec = name.trim().toLowerCase(Locale.ENGLISH);
+		if (GZIP.equals(codec)) {
+			return new GzipCodec(gzipExtension, level, blockSize, pool);
+		}
+		if (DEFLATE.equals(codec)) {
+			return new DeflateCodec(level);
+		}
+		if (LZ4.equals(codec)) {
+			return new Lz4Codec();
+		}
+		if (ZSTD.equals(codec)) {
+			return new ZstdCodec(level);
+		}
+		if (SNAPPY.equals(codec)) {
+			return new SnappyCodec();
+		}
+		if (BGZF.equals(codec)) {
+			return new BlockGzipCodec(gzipExtension, level);
+		}
+		try {
+			Class<?> codecClass = ClassUtils.forName(name.trim(), CompressionCodecs.class.getClassLoader());
+			return (CompressionCodec) BeanUtils.instantiateClass(codecClass);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalArgumentException("Unknown compression codec: " + name, e);
+		}
+	}
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * zlib wrapped deflate with a configurable level. Lighter framing than gzip, for consumers that read zlib streams.
+ */
+public class DeflateCodec extends AbstractCompressionCodec {
+
+	private final int level;
+
+	public DeflateCodec() {
+		this(Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * @param level
+	 *            Deflate level, 0-9 or -1 for the default level.
+	 */
+	public DeflateCodec(int level) {
+		super("deflate", ".deflate");
+		this.level = level;
+	}
+
+	@Override
+	public OutputStream createOutputStream(OutputStream out) throws IOException {
+		final Deflater deflater = new Deflater(level);
+		return new DeflaterOutputStream(out, deflater, COPY_BUFFER_SIZE, true) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					// the deflater is not the default one, DeflaterOutputStream does not release it
+					deflater.end();
+				}
+			}
+		};
+	}
+
+	@Override
+	public InputStream createInputStream(InputStream in) throws IOException {
+		return new InflaterInputStream(in);
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.springframework.integration.x.rollover.file.ParallelGzipCompressor;
+
+/**
+ * gzip with a configurable deflate level. Whole files are compressed in parallel blocks (see
+ * {@link ParallelGzipCompressor}) when a block size and a pool are given.
+ */
+public class GzipCodec extends AbstractCompressionCodec {
+
+	private final int level;
+
+	private final int blockSize;
+
+	private final ForkJoinPool pool;
+
+	public GzipCodec() {
+		this(".gz", Deflater.DEFAULT_COMPRESSION, 0, null);
+	}
+
+	/**
+	 * @param extension
+	 *            File name extension of the compressed files.
+	 * @param level
+	 *            Deflate level, 0-9 or -1 for the default level.
+	 * @param blockSize
+	 *            If positive, whole files are compressed in parallel blocks of this size.
+	 * @param pool
+	 *            Pool compressing the blocks, required if blockSize is positive.
+	 */
+	public GzipCodec(String extension, int level, int blockSize, ForkJoinPool pool) {
+		super("gzip", extension);
+		this.level = level;
+		this.blockSize = blockSize;
+		this.pool = pool;
+	}
+
+	@Override
+	public OutputStream createOutputStream(OutputStream out) throws IOException {
+		return new LevelGZIPOutputStream(out, level);
+	}
+
+	@Override
+	public InputStream createInputStream(InputStream in) throws IOException {
+		return new GZIPInputStream(in, COPY_BUFFER_SIZE);
+	}
+
+	@Override
+	public void compress(InputStream in, OutputStream out) throws IOException {
+		if (blockSize > 0) {
+			new ParallelGzipCompressor(level, blockSize, pool).compress(in, out);
+		} else {
+			super.compress(in, out);
+		}
+	}
+
+	/**
+	 * GZIPOutputStream with a configurable deflate level. flush() performs a sync flush, so everything written so
+	 * far can be decompressed.
+	 */
+	private static class LevelGZIPOutputStream extends GZIPOutputStream {
+
+		LevelGZIPOutputStream(OutputStream out, int level) throws IOException {
+			super(out, COPY_BUFFER_SIZE, true);
+			def.setLevel(level);
+		}
+	}
+}
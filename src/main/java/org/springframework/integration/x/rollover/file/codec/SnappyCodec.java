@@ -0,0 +1,40 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.xerial.snappy.SnappyFramedInputStream;
+import org.xerial.snappy.SnappyFramedOutputStream;
+
+/**
+ * Snappy framing format. The compression level is not configurable.
+ */
+public class SnappyCodec extends AbstractCompressionCodec {
+
+	public SnappyCodec() {
+		super("snappy", ".sz");
+	}
+
+	@Override
+	public OutputStream createOutputStream(OutputStream out) throws IOException {
+		return new SnappyFramedOutputStream(out);
+	}
+
+	@Override
+	public InputStream createInputStream(InputStream in) throws IOException {
+		return new SnappyFramedInputStream(in);
+	}
+}
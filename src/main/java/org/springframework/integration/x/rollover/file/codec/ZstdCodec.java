@@ -0,0 +1,53 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+
+/**
+ * Zstandard, with levels from 1 (fast) to 22 (best ratio, for cold archives).
+ */
+public class ZstdCodec extends AbstractCompressionCodec {
+
+	public static final int DEFAULT_LEVEL = 3;
+
+	private final int level;
+
+	public ZstdCodec() {
+		this(DEFAULT_LEVEL);
+	}
+
+	/**
+	 * @param level
+	 *            Zstandard level, 1-22. Non positive values select the default level (3).
+	 */
+	public ZstdCodec(int level) {
+		super("zstd", ".zst");
+		this.level = (level > 0) ? level : DEFAULT_LEVEL;
+	}
+
+	@Override
+	public OutputStream createOutputStream(OutputStream out) throws IOException {
+		return new ZstdOutputStream(out, level);
+	}
+
+	@Override
+	public InputStream createInputStream(InputStream in) throws IOException {
+		return new ZstdInputStream(in);
+	}
+}
@@ -1,47 +1,35 @@
 package org.springframework.integration.x.rollover.file.config;
 
+import com.codahale.metrics.MetricRegistry;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.integration.x.rollover.file.FileCompressor;
-import org.springframework.scheduling.annotation.EnableAsync;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 /**
  * Created by bukowm on 08/03/16.
  */
 @Configuration
-@EnableAsync
 public class RolloverFileConfiguration {
 
     @Value("${xd.stream.name:file-compressor}")
     private String streamName;
 
+    // Number of files compressed at the same time. Rolled files wait in an unbounded queue, oldest first.
     @Value("${rollover.file.thread.poolSize:2}")
     private int poolSize;
 
-    @Value("${rollover.file.thread.maxPoolSize:8}")
-    private int maxPoolSize;
-
-    @Value("${rollover.file.thread.queueCapacity:100}")
-    private int queueCapacity;
-
     @Bean
     public FileCompressor fileCompressor() {
-        return new FileCompressor();
+        FileCompressor fileCompressor = new FileCompressor();
+        fileCompressor.setMaxConcurrentJobs(this.poolSize);
+        fileCompressor.setThreadNamePrefix(streamName + "-");
+        return fileCompressor;
     }
 
-    @Bean(name = "fileCompressorExecutor")
-    public ThreadPoolTaskExecutor fileCompressorExecutor() {
-        ThreadPoolTaskExecutor taskExecutor = new ThreadPoolTaskExecutor();
-
-        taskExecutor.setThreadNamePrefix(streamName + "-");
-
-        taskExecutor.setCorePoolSize(this.poolSize);
-        taskExecutor.setMaxPoolSize(this.maxPoolSize);
-        taskExecutor.setQueueCapacity(this.queueCapacity);
-
-        return taskExecutor;
+    @Bean
+    public MetricRegistry rolloverFileMetricRegistry() {
+        return new MetricRegistry();
     }
 
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class AdaptiveBufferSizerTest {
+
+	private static final long SECOND = 1000000000L;
+
+	private static final int MB = 1024 * 1024;
+
+	@Test
+	public void testStartsAtTheClampedInitialSize() {
+		assertEquals(8192, new AdaptiveBufferSizer(4096, MB, 8192, 0, 0).getSize());
+		assertEquals(4096, new AdaptiveBufferSizer(4096, MB, 100, 0, 0).getSize());
+		assertEquals(MB, new AdaptiveBufferSizer(4096, MB, 64 * MB, 0, 0).getSize());
+		assertEquals(16384, new AdaptiveBufferSizer(4096, MB, 10000, 0, 0).getSize());
+	}
+
+	@Test
+	public void testGrowsWithTheThroughput() {
+		AdaptiveBufferSizer sizer = new AdaptiveBufferSizer(4096, 4 * MB, 8192, 0, 0);
+		// 100MB/s, averaged from 0 to 50MB/s: the buffer fills in 10ms with 512K
+		assertEquals(512 * 1024, sizer.sample(100L * MB, SECOND));
+		assertEquals(1024 * 1024, sizer.sample(200L * MB, 2 * SECOND));
+		assertEquals(MB, sizer.sample(300L * MB, 3 * SECOND));
+	}
+
+	@Test
+	public void testIsCappedByTheMaxSizeAndTheFlushCadence() {
+		AdaptiveBufferSizer sizer = new AdaptiveBufferSizer(4096, 64 * 1024, 8192, 0, 0);
+		assertEquals(64 * 1024, sizer.sample(100L * MB, SECOND));
+
+		// a flush every 16000 bytes drains the buffer long before it is full
+		long position = 100L * MB;
+		for (int i = 0; i < 20; i++) {
+			position += 16000;
+			sizer.flushed(position);
+		}
+		assertEquals(16384, sizer.sample(200L * MB, 2 * SECOND));
+	}
+
+	@Test
+	public void testIdleStreamsShrinkToTheMinSize() {
+		AdaptiveBufferSizer sizer = new AdaptiveBufferSizer(4096, MB, 8192, 0, 0);
+		sizer.sample(100L * MB, SECOND);
+		long now = SECOND;
+		for (int i = 0; i < 20; i++) {
+			now += SECOND;
+			sizer.sample(100L * MB, now);
+		}
+		assertEquals(4096, sizer.getSize());
+	}
+
+	@Test
+	public void testShrinksOnlyBelowAQuarterAndIgnoresShortSamples() {
+		AdaptiveBufferSizer sizer = new AdaptiveBufferSizer(1024, MB, 65536, 0, 0);
+		// 3MB/s on average fills 32K in 10ms, more than a quarter of 64K: kept
+		assertEquals(65536, sizer.sample(6L * MB, SECOND));
+		// too short to be measured
+		assertEquals(65536, sizer.sample(6L * MB, SECOND + 1000));
+		// 1.5MB/s on average fills 16K in 10ms
+		assertEquals(16384, sizer.sample(6L * MB, 2 * SECOND));
+	}
+
+	@Test
+	public void testPoolRecyclesBuffersBySize() {
+		BufferPool pool = new BufferPool(64 * 1024);
+		ByteBuffer buffer = pool.acquire(5000);
+		assertTrue(buffer.isDirect());
+		assertEquals(8192, buffer.capacity());
+		buffer.put((byte) 1);
+		pool.release(buffer);
+		assertEquals(8192, pool.getRetainedBytes());
+
+		ByteBuffer reused = pool.acquire(8192);
+		assertSame(buffer, reused);
+		assertEquals(0, reused.position());
+		assertEquals(0, pool.getRetainedBytes());
+		assertNotSame(buffer, pool.acquire(4096));
+		assertEquals(1, pool.getReusedCount());
+		assertEquals(2, pool.getAllocatedCount());
+	}
+
+	@Test
+	public void testPoolRetainsAtMostMaxRetainedBytes() {
+		BufferPool pool = new BufferPool(16 * 1024);
+		pool.release(pool.acquire(8192));
+		pool.release(pool.acquire(16384));
+		pool.release(ByteBuffer.allocateDirect(8192));
+		assertEquals(16384, pool.getRetainedBytes());
+	}
+}
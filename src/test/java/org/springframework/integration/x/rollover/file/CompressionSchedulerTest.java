@@ -0,0 +1,126 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompressionSchedulerTest {
+
+	File tmpDir = new File("test_results");
+
+	@Before
+	public void before() {
+		tmpDir.mkdir();
+	}
+
+	@Test
+	public void testOldestFilesAreCompressedFirst() throws Exception {
+
+		RecordingCompressor compressor = new RecordingCompressor();
+		CompressionScheduler scheduler = new CompressionScheduler(compressor, 1, "test-compressor-");
+		scheduler.start();
+
+		// parks the only worker while the other files are queued
+		scheduler.submit(file("first", 5000));
+		assertTrue(compressor.entered.await(5, TimeUnit.SECONDS));
+
+		long now = System.currentTimeMillis();
+		scheduler.submit(file("new", now - 1000));
+		scheduler.submit(file("oldest", now - 3000));
+		scheduler.submit(file("old", now - 2000));
+		assertFalse(scheduler.submit(new File(tmpDir, "old")));
+		assertEquals(3, scheduler.getQueueLength());
+		assertEquals(1, scheduler.getActiveJobs());
+
+		compressor.release.countDown();
+		waitForCompletion(scheduler, 4);
+		scheduler.stop();
+
+		assertEquals(Arrays.asList("first", "oldest", "old", "new"), compressor.names);
+		assertEquals(0, scheduler.getQueueLength());
+		assertEquals(4 * 1000, scheduler.getCompressedBytes());
+		assertTrue(scheduler.getBytesPerSecond() > 0);
+	}
+
+	@Test
+	public void testBurstOfRollsIsNeverRejected() throws Exception {
+
+		RecordingCompressor compressor = new RecordingCompressor();
+		compressor.release.countDown();
+		CompressionScheduler scheduler = new CompressionScheduler(compressor, 2, "test-compressor-");
+		scheduler.start();
+		for (int i = 0; i < 500; i++) {
+			scheduler.submit(new File(tmpDir, "file-" + i));
+		}
+		waitForCompletion(scheduler, 500);
+		scheduler.stop();
+
+		assertEquals(500, compressor.names.size());
+		assertEquals(0, scheduler.getFailedCount());
+	}
+
+	@After
+	public void cleanUp() throws IOException {
+		FileUtils.deleteDirectory(tmpDir);
+	}
+
+	private File file(String name, long lastModified) throws IOException {
+		File file = new File(tmpDir, name);
+		FileUtils.write(file, new String(new char[1000]));
+		file.setLastModified(lastModified);
+		return file;
+	}
+
+	private static void waitForCompletion(CompressionScheduler scheduler, int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (scheduler.getCompletedCount() + scheduler.getFailedCount() < count
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+	}
+
+	static class RecordingCompressor implements CompressionScheduler.Compressor {
+
+		final List<String> names = new CopyOnWriteArrayList<String>();
+
+		final CountDownLatch entered = new CountDownLatch(1);
+
+		final CountDownLatch release = new CountDownLatch(1);
+
+		@Override
+		public void compress(File file) throws IOException {
+			entered.countDown();
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			names.add(file.getName());
+		}
+	}
+}
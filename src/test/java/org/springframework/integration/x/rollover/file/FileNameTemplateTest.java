@@ -0,0 +1,103 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.junit.Test;
+
+public class FileNameTemplateTest {
+
+	@Test
+	public void testFormatsLikeSimpleDateFormat() {
+		FileNameTemplate template = new FileNameTemplate("app_YYYY_MM_DD.log", "yyyy_MM_dd_HH_mm_ss_SSS");
+		assertTrue(template.isDated());
+		assertEquals("app_", template.getPrefix());
+		assertEquals(".log", template.getSuffix());
+
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy_MM_dd_HH_mm_ss_SSS");
+		long time = System.currentTimeMillis();
+		for (long t = time; t < time + 100000; t += 997) {
+			assertEquals("app_" + dateFormat.format(new Date(t)) + ".log", template.format(t));
+		}
+	}
+
+	@Test
+	public void testNamesAreCachedPerTimeBucket() {
+		long minute = 1444000000000L - 1444000000000L % 60000;
+
+		FileNameTemplate seconds = new FileNameTemplate("app_yyyy_mm_dd", "yyyy_MM_dd_HH_mm_ss");
+		String name = seconds.format(minute);
+		assertSame(name, seconds.format(minute + 999));
+		assertNotSame(name, seconds.format(minute + 1000));
+
+		// minutes and coarser are cached per minute
+		FileNameTemplate days = new FileNameTemplate("app_yyyy_mm_dd", "yyyy_MM_dd");
+		name = days.format(minute);
+		assertSame(name, days.format(minute + 59999));
+		assertEquals(name, days.format(minute + 60000));
+
+		// a quoted S is not the millisecond field
+		FileNameTemplate quoted = new FileNameTemplate("app_yyyy_mm_dd", "yyyy_MM_dd'S'");
+		name = quoted.format(minute);
+		assertSame(name, quoted.format(minute + 1));
+		assertTrue(name.endsWith("S"));
+
+		FileNameTemplate millis = new FileNameTemplate("app_yyyy_mm_dd", "yyyy_MM_dd_SSS");
+		assertFalse(millis.format(minute).equals(millis.format(minute + 1)));
+	}
+
+	@Test
+	public void testParsesOnlyTheSegmentsOfTheTemplate() {
+		FileNameTemplate template = new FileNameTemplate("app_yyyy_mm_dd.log.eu", "yyyy_MM_dd_HH_mm_ss_SSS");
+		long time = 1444000000123L;
+		String name = template.format(time);
+		assertEquals(time, template.parseTime(name));
+		String sequenced = template.format(time, 2);
+		assertEquals(name.replace(".log.eu", "_0002.log.eu"), sequenced);
+		assertEquals(time, template.parseTime(sequenced));
+		assertEquals(2, template.parse(sequenced).getSequence());
+		assertEquals(12345, template.parse(template.format(time, 12345)).getSequence());
+
+		// other partitions or stripes whose suffix starts with this one
+		assertEquals(-1, template.parseTime(name + "-west"));
+		assertEquals(-1, template.parseTime(name + "_2"));
+		assertEquals(-1, template.parseTime(sequenced + ".gz"));
+		assertEquals(-1, template.parseTime(sequenced.replace("_0002", "_")));
+		assertEquals(-1, template.parseTime(sequenced.replace("_0002", "_99999999999999999999")));
+		assertEquals(-1, template.parseTime("app_2015_13_01_00_00_00_000.log.eu"));
+		assertEquals(-1, template.parseTime("other_" + name));
+
+		FileNameTemplate stripe = new FileNameTemplate("app_yyyy_mm_dd.part-1", "yyyy_MM_dd");
+		assertTrue(stripe.parseTime("app_2015_01_01.part-1") > 0);
+		assertEquals(-1, stripe.parseTime("app_2015_01_01.part-10"));
+	}
+
+	@Test
+	public void testUndatedName() {
+		FileNameTemplate template = new FileNameTemplate("app.log", "yyyy_MM_dd");
+		assertFalse(template.isDated());
+		assertEquals("app", template.getPrefix());
+		assertEquals("app.log", template.format(System.currentTimeMillis()));
+		assertEquals("app_0001.log", template.format(System.currentTimeMillis(), 1));
+		assertEquals(0, template.parseTime("app.log"));
+		assertEquals(1, template.parse("app_0001.log").getSequence());
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Test;
+
+public class ParallelGzipCompressorTest {
+
+	private static final int BLOCK_SIZE = 64 * 1024;
+
+	ForkJoinPool pool = new ForkJoinPool(4);
+
+	File tmpDir = new File("test_results");
+
+	@Test
+	public void testOutputIsStandardGzip() throws IOException {
+		for (int length : new int[] { 0, 1, 1000, BLOCK_SIZE, 3 * BLOCK_SIZE, 10 * BLOCK_SIZE + 12345 }) {
+			byte[] data = jsonLines(length);
+			assertArrayEquals("length " + length, data, gunzip(compress(data, 6)));
+		}
+	}
+
+	@Test
+	public void testCompressionLevels() throws IOException {
+		byte[] data = jsonLines(5 * BLOCK_SIZE);
+		byte[] fastest = compress(data, 1);
+		byte[] best = compress(data, 9);
+		assertArrayEquals(data, gunzip(fastest));
+		assertArrayEquals(data, gunzip(best));
+		assertTrue(best.length <= fastest.length);
+	}
+
+	@Test
+	public void testDictionaryPrimingKeepsTheRatio() throws IOException {
+		// a random pattern repeated over 8 blocks: without a primed dictionary the start of every block would be
+		// incompressible, with it only the first occurrence of the pattern costs space
+		byte[] pattern = new byte[16 * 1024];
+		new Random(42).nextBytes(pattern);
+		byte[] data = new byte[8 * BLOCK_SIZE];
+		for (int i = 0; i < data.length; i += pattern.length) {
+			System.arraycopy(pattern, 0, data, i, pattern.length);
+		}
+		byte[] compressed = compress(data, 6);
+		assertArrayEquals(data, gunzip(compressed));
+		assertTrue(compressed.length < 2 * pattern.length);
+	}
+
+	@Test
+	public void testFileCompressorUsesParallelCompression() throws IOException {
+		tmpDir.mkdir();
+		File file = new File(tmpDir, "archive.test");
+		byte[] data = jsonLines(5 * BLOCK_SIZE);
+		FileUtils.writeByteArrayToFile(file, data);
+
+		FileCompressor fileCompressor = new FileCompressor();
+		fileCompressor.setCompressionBlockSize(BLOCK_SIZE);
+		fileCompressor.setCompressionLevel(9);
+		fileCompressor.compressFile(file.getPath());
+		fileCompressor.destroy();
+
+		assertFalse(file.exists());
+		File compressedFile = new File(tmpDir, "archive.test.gz");
+		assertEquals(new String(data), RolloverFileMessageHandlerTest.uncompress(compressedFile));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBlockSizeMustExceedTheDictionary() {
+		new ParallelGzipCompressor(6, 32 * 1024, pool);
+	}
+
+	@After
+	public void cleanUp() throws IOException {
+		pool.shutdown();
+		FileUtils.deleteDirectory(tmpDir);
+	}
+
+	private byte[] compress(byte[] data, int level) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new ParallelGzipCompressor(level, BLOCK_SIZE, pool).compress(new ByteArrayInputStream(data), out);
+		return out.toByteArray();
+	}
+
+	private static byte[] gunzip(byte[] compressed) throws IOException {
+		return IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(compressed)));
+	}
+
+	private static byte[] jsonLines(int length) {
+		Random random = new Random(length);
+		StringBuilder lines = new StringBuilder(length + 100);
+		while (lines.length() < length) {
+			lines.append("{\"id\":").append(random.nextInt(100000)).append(",\"name\":\"event-")
+					.append(random.nextInt(50)).append("\",\"value\":").append(random.nextDouble()).append("}\n");
+		}
+		return lines.substring(0, length).getBytes();
+	}
+}
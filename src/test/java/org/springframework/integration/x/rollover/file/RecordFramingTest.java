@@ -0,0 +1,160 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.TreeSet;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RecordFramingTest {
+
+	File tmpDir = new File("test_results");
+
+	@Before
+	public void before() {
+		tmpDir.mkdir();
+	}
+
+	@Test
+	public void testCrc32cMatchesTheCheckValue() {
+		Crc32c crc = new Crc32c();
+		crc.update("123456789".getBytes());
+		assertEquals(0xE3069283L, crc.getValue());
+
+		// the 8 byte steps agree with the byte by byte update, at every alignment
+		byte[] data = new byte[1000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i * 31 + 7);
+		}
+		for (int off = 0; off < 9; off++) {
+			Crc32c bulk = new Crc32c();
+			bulk.update(data, off, data.length - off);
+			Crc32c single = new Crc32c();
+			for (int i = off; i < data.length; i++) {
+				single.update(data[i]);
+			}
+			assertEquals(single.getValue(), bulk.getValue());
+		}
+	}
+
+	@Test
+	public void testFramedRecordsAreReadBackAcrossRollsWithTheirIndex() throws Exception {
+
+		RolloverFileOutputStream stream = new RolloverFileOutputStream("test_results/framed_yyyy_mm_dd", false,
+				TimeZone.getDefault(), "yyyy_MM_dd_HH_mm_ss_SSS", -1, -1, 4000, "archive", false, 8192, null, null,
+				null);
+		stream.setRecordFraming(RolloverFileOutputStream.RecordFraming.LENGTH_CRC32C, 10);
+
+		List<byte[]> expected = new ArrayList<byte[]>();
+		for (int i = 0; i < 500; i++) {
+			// lengths on both sides of the one byte varint
+			byte[] record = new byte[(i * 37) % 300];
+			Arrays.fill(record, (byte) i);
+			expected.add(record);
+			if (i % 2 == 0) {
+				stream.writeRecord(record);
+			} else {
+				stream.writeRecords(Arrays.asList(record));
+			}
+			stream.rolloverOnFileSize();
+		}
+		stream.close();
+
+		List<byte[]> actual = new ArrayList<byte[]>();
+		int segments = 0;
+		for (File file : new TreeSet<File>(FileUtils.listFiles(tmpDir, null, false))) {
+			if (file.getName().endsWith(SegmentIndex.EXTENSION)) {
+				continue;
+			}
+			segments++;
+			SegmentIndex index = SegmentIndex.read(new File(file.getPath() + SegmentIndex.EXTENSION));
+			assertTrue(index.isChecksummed());
+			assertEquals(file.length(), index.getSegmentLength());
+			assertEquals((index.getRecordCount() + 9) / 10, index.getEntryCount());
+
+			List<byte[]> records = readRecords(file, 0);
+			assertEquals(index.getRecordCount(), records.size());
+			actual.addAll(records);
+
+			// seek to the last indexed record and read from there
+			int lastEntry = index.getEntryCount() - 1;
+			List<byte[]> tail = readRecords(file, index.getOffset(lastEntry));
+			assertEquals(records.size() - lastEntry * 10, tail.size());
+			assertArrayEquals(records.get(lastEntry * 10), tail.get(0));
+			assertEquals(index.getOffset(lastEntry), index.getOffsetBefore(records.size() - 1));
+		}
+		assertTrue(segments > 5);
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertArrayEquals(expected.get(i), actual.get(i));
+		}
+	}
+
+	@Test
+	public void testChecksumMismatchIsDetected() throws IOException {
+		byte[] header = new byte[RecordFrames.MAX_HEADER_LENGTH];
+		Crc32c crc = new Crc32c();
+		crc.update("record".getBytes());
+		int headerLength = RecordFrames.writeHeader(header, 6, crc);
+		byte[] frame = new byte[headerLength + 6];
+		System.arraycopy(header, 0, frame, 0, headerLength);
+		System.arraycopy("recorD".getBytes(), 0, frame, headerLength, 6);
+		try {
+			RecordFrames.readRecord(new ByteArrayInputStream(frame), new Crc32c());
+			fail("The corrupted record must be rejected");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("checksum"));
+		}
+		// the end of the input between frames is not an error
+		assertEquals(null, RecordFrames.readRecord(new ByteArrayInputStream(new byte[0]), new Crc32c()));
+	}
+
+	@After
+	public void cleanUp() throws IOException {
+		FileUtils.deleteDirectory(tmpDir);
+	}
+
+	private static List<byte[]> readRecords(File file, long offset) throws IOException {
+		List<byte[]> records = new ArrayList<byte[]>();
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			assertEquals(offset, in.skip(offset));
+			byte[] record;
+			Crc32c checksum = new Crc32c();
+			while ((record = RecordFrames.readRecord(in, checksum)) != null) {
+				records.add(record);
+			}
+		} finally {
+			in.close();
+		}
+		return records;
+	}
+}
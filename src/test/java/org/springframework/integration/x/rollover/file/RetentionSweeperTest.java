@@ -0,0 +1,311 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RetentionSweeperTest {
+
+	private static final long DAY_IN_MS = 1000L * 60 * 60 * 24;
+
+	private static final long HOUR_IN_MS = 1000L * 60 * 60;
+
+	private static final String DATE_FORMAT = "yyyy_MM_dd_HH_mm_ss_SSS";
+
+	File tmpDir = new File("test_results");
+
+	RetentionSweeper sweeper;
+
+	RetentionSweeper otherSweeper;
+
+	@Before
+	public void before() {
+		tmpDir.mkdir();
+	}
+
+	@Test
+	public void testExpiredSegmentsAreDeleted() throws IOException {
+
+		long now = System.currentTimeMillis();
+		File expired = segment(now - 3 * DAY_IN_MS, ".gz", 100);
+		File expiredUncompressed = segment(now - 2 * DAY_IN_MS, "", 100);
+		File recent = segment(now - HOUR_IN_MS, ".gz", 100);
+		File other = new File(tmpDir, "other.txt");
+		FileUtils.write(other, "other");
+
+		sweeper = new RetentionSweeper("test_results/app_yyyy_mm_dd.log", DATE_FORMAT, "archive", ".gz", DAY_IN_MS,
+				-1, null);
+		sweeper.start(null, null, HOUR_IN_MS);
+		assertEquals(3, sweeper.getIndexedCount());
+
+		sweeper.sweep();
+
+		assertFalse(expired.exists());
+		assertFalse(expiredUncompressed.exists());
+		assertTrue(recent.exists());
+		assertTrue(other.exists());
+		assertEquals(2, sweeper.getDeletedCount());
+		assertEquals(1, sweeper.getIndexedCount());
+		assertEquals(100, sweeper.getIndexedBytes());
+	}
+
+	@Test
+	public void testSegmentsBeingCompressedAreKept() throws IOException {
+
+		long now = System.currentTimeMillis();
+		File compressing = segment(now - 3 * DAY_IN_MS, "", 100);
+		File tmp = new File(compressing.getPath() + ".gz.tmp");
+		FileUtils.write(tmp, "partial");
+
+		sweeper = new RetentionSweeper("test_results/app_yyyy_mm_dd.log", DATE_FORMAT, "archive", ".gz", DAY_IN_MS,
+				-1, null);
+		sweeper.start(null, null, HOUR_IN_MS);
+		sweeper.sweep();
+		assertTrue(compressing.exists());
+
+		// the compressor completes
+		File compressed = new File(compressing.getPath() + ".gz");
+		assertTrue(tmp.renameTo(compressed));
+		assertTrue(compressing.delete());
+		sweeper.sweep();
+		assertFalse(compressed.exists());
+	}
+
+	@Test
+	public void testSegmentsBeingCompressedWithACustomTempExtensionAreKept() throws IOException {
+
+		long now = System.currentTimeMillis();
+		File compressing = segment(now - 3 * DAY_IN_MS, "", 100);
+		File partial = new File(compressing.getPath() + ".gz.part");
+		FileUtils.write(partial, "partial");
+
+		sweeper = new RetentionSweeper("test_results/app_yyyy_mm_dd.log", DATE_FORMAT, "archive", ".gz", DAY_IN_MS,
+				-1, null);
+		sweeper.setTempExtension(".part");
+		sweeper.start(null, null, HOUR_IN_MS);
+		assertEquals(1, sweeper.getIndexedCount());
+		sweeper.sweep();
+		assertTrue(compressing.exists());
+		assertTrue(partial.exists());
+	}
+
+	@Test
+	public void testSegmentsWrittenCompressedAreSwept() throws IOException {
+
+		// the compressed output mode: the segments have the codec extension from the start, nothing is compressed
+		long now = System.currentTimeMillis();
+		File expired = segment(now - 3 * DAY_IN_MS, ".gz", 100);
+		File recent = segment(now - HOUR_IN_MS, ".gz", 100);
+		File other = segment(now - 3 * DAY_IN_MS, "", 100);
+
+		sweeper = new RetentionSweeper("test_results/app_yyyy_mm_dd.log", DATE_FORMAT, "archive", null, DAY_IN_MS,
+				-1, null);
+		sweeper.setSegmentExtension(".gz");
+		sweeper.start(null, null, HOUR_IN_MS);
+		assertEquals(2, sweeper.getIndexedCount());
+
+		File rolled = segment(now - 2 * DAY_IN_MS, ".gz", 100);
+		sweeper.archived(rolled);
+		sweeper.sweep();
+
+		assertFalse(expired.exists());
+		assertFalse(rolled.exists());
+		assertTrue(recent.exists());
+		assertTrue(other.exists());
+		assertEquals(2, sweeper.getDeletedCount());
+		assertEquals(100, sweeper.getIndexedBytes());
+	}
+
+	@Test
+	public void testOldestSegmentsAreRemovedBeyondTheSizeBudget() throws IOException {
+
+		long now = System.currentTimeMillis();
+		File oldest = segment(now - 3 * HOUR_IN_MS, "", 1000);
+		File middle = segment(now - 2 * HOUR_IN_MS, "", 1000);
+		File newest = segment(now - HOUR_IN_MS, "", 1000);
+
+		sweeper = new RetentionSweeper("test_results/app_yyyy_mm_dd.log", DATE_FORMAT, "archive", null, -1, 2500,
+				null);
+		sweeper.start(null, null, HOUR_IN_MS);
+		assertEquals(3000, sweeper.getIndexedBytes());
+
+		sweeper.sweep();
+
+		assertFalse(oldest.exists());
+		assertTrue(middle.exists());
+		assertTrue(newest.exists());
+		assertEquals(2000, sweeper.getIndexedBytes());
+	}
+
+	@Test
+	public void testSegmentsOfATimeBucketAreRemovedInSequenceOrder() throws IOException {
+
+		long time = System.currentTimeMillis() - HOUR_IN_MS;
+		File first = segment("archive.app_", time, ".log", 1000);
+		File sequence9999 = segment("archive.app_", time, "_9999.log", 1000);
+		File sequence10000 = segment("archive.app_", time, "_10000.log", 1000);
+
+		sweeper = new RetentionSweeper("test_results/app_yyyy_mm_dd.log", DATE_FORMAT, "archive", null, -1, 1500,
+				null);
+		sweeper.start(null, null, HOUR_IN_MS);
+		sweeper.sweep();
+
+		assertFalse(first.exists());
+		assertFalse(sequence9999.exists());
+		assertTrue(sequence10000.exists());
+	}
+
+	@Test
+	public void testArchivedSegmentsAreIndexedWithoutListingTheDirectory() throws IOException {
+
+		sweeper = new RetentionSweeper("test_results/app_yyyy_mm_dd.log", DATE_FORMAT, "archive", null, -1, 1500,
+				null);
+		sweeper.start(null, null, HOUR_IN_MS);
+		assertEquals(0, sweeper.getIndexedCount());
+
+		long now = System.currentTimeMillis();
+		File first = segment(now - 2 * HOUR_IN_MS, "", 1000);
+		File second = segment(now - HOUR_IN_MS, "", 1000);
+		sweeper.archived(first);
+		sweeper.archived(second);
+		// not reported by the stream, so unknown to the sweeper
+		File unknown = segment(now - 3 * HOUR_IN_MS, "", 1000);
+
+		sweeper.sweep();
+
+		assertEquals(1, sweeper.getIndexedCount());
+		assertFalse(first.exists());
+		assertTrue(second.exists());
+		assertTrue(unknown.exists());
+	}
+
+	@Test
+	public void testExpiredSegmentsAreMovedToTheRetentionDirectory() throws IOException {
+
+		File retentionDir = new File(tmpDir, "retained");
+		File expired = segment(System.currentTimeMillis() - 3 * DAY_IN_MS, ".gz", 100);
+		String content = FileUtils.readFileToString(expired);
+
+		sweeper = new RetentionSweeper("test_results/app_yyyy_mm_dd.log", DATE_FORMAT, "archive", ".gz", DAY_IN_MS,
+				-1, retentionDir);
+		sweeper.start(null, null, HOUR_IN_MS);
+		sweeper.sweep();
+
+		assertFalse(expired.exists());
+		File moved = new File(retentionDir, expired.getName());
+		assertEquals(content, FileUtils.readFileToString(moved));
+		assertEquals(1, sweeper.getMovedCount());
+	}
+
+	@Test
+	public void testEveryStripeSweepsOnlyItsOwnArchives() throws IOException {
+
+		long now = System.currentTimeMillis();
+		String[] stripes = { ".part-1", ".part-10" };
+		for (String stripe : stripes) {
+			segment("app_", now - 3 * HOUR_IN_MS, ".log" + stripe, 1000);
+			segment("app_", now - 2 * HOUR_IN_MS, ".log" + stripe, 1000);
+		}
+		// without an archivePrefix the active segments look like archives of the other stripes
+		File activePart1 = segment("app_", now, ".log.part-1", 1000);
+		File activePart10 = segment("app_", now, ".log.part-10", 1000);
+
+		// an even share of a 4000 bytes budget, the archives of each stripe fit in it
+		sweeper = new RetentionSweeper("test_results/app_yyyy_mm_dd.log.part-1", DATE_FORMAT, "", null, -1, 2000,
+				null);
+		sweeper.start(activePart1, null, HOUR_IN_MS);
+		otherSweeper = new RetentionSweeper("test_results/app_yyyy_mm_dd.log.part-10", DATE_FORMAT, "", null, -1,
+				2000, null);
+		otherSweeper.start(activePart10, null, HOUR_IN_MS);
+		assertEquals(2, sweeper.getIndexedCount());
+		assertEquals(2000, sweeper.getIndexedBytes());
+		assertEquals(2, otherSweeper.getIndexedCount());
+		assertEquals(2000, otherSweeper.getIndexedBytes());
+
+		sweeper.sweep();
+		otherSweeper.sweep();
+
+		assertEquals(0, sweeper.getDeletedCount());
+		assertEquals(0, otherSweeper.getDeletedCount());
+		assertEquals(6, tmpDir.listFiles().length);
+	}
+
+	@Test
+	public void testTheStripeSharesKeepTheArchivesWithinTheBudget() throws IOException {
+
+		long now = System.currentTimeMillis();
+		long retainMaxBytes = 4000;
+		String[] stripes = { ".part-0", ".part-1" };
+		File[][] archives = new File[stripes.length][3];
+		for (int k = 0; k < stripes.length; k++) {
+			for (int i = 0; i < 3; i++) {
+				archives[k][i] = segment("archive.app_", now - (3 - i) * HOUR_IN_MS, ".log" + stripes[k], 1000);
+			}
+		}
+
+		// as started by the handler, every stripe sweeps with an even share of the budget
+		sweeper = new RetentionSweeper("test_results/app_yyyy_mm_dd.log.part-0", DATE_FORMAT, "archive", null, -1,
+				retainMaxBytes / stripes.length, null);
+		sweeper.start(null, null, HOUR_IN_MS);
+		otherSweeper = new RetentionSweeper("test_results/app_yyyy_mm_dd.log.part-1", DATE_FORMAT, "archive", null,
+				-1, retainMaxBytes / stripes.length, null);
+		otherSweeper.start(null, null, HOUR_IN_MS);
+		assertEquals(6000, sweeper.getIndexedBytes() + otherSweeper.getIndexedBytes());
+
+		sweeper.sweep();
+		otherSweeper.sweep();
+
+		assertTrue(sweeper.getIndexedBytes() + otherSweeper.getIndexedBytes() <= retainMaxBytes);
+		assertEquals(retainMaxBytes, FileUtils.sizeOfDirectory(tmpDir));
+		for (File[] stripeArchives : archives) {
+			assertFalse(stripeArchives[0].exists());
+			assertTrue(stripeArchives[1].exists());
+			assertTrue(stripeArchives[2].exists());
+		}
+	}
+
+	@After
+	public void cleanUp() throws IOException {
+		if (sweeper != null) {
+			sweeper.stop();
+		}
+		if (otherSweeper != null) {
+			otherSweeper.stop();
+		}
+		FileUtils.deleteDirectory(tmpDir);
+	}
+
+	private File segment(long timestamp, String extension, int size) throws IOException {
+		return segment("archive.app_", timestamp, ".log" + extension, size);
+	}
+
+	private File segment(String prefix, long timestamp, String suffix, int size) throws IOException {
+		String date = new SimpleDateFormat(DATE_FORMAT).format(new Date(timestamp));
+		File file = new File(tmpDir, prefix + date + suffix);
+		FileUtils.write(file, StringUtils.repeat("x", size));
+		return file;
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.GenericMessage;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration
+public class RolloverFileAsyncTest {
+
+	@Autowired
+	ConfigurableApplicationContext applicationContext;
+
+	@Autowired
+	MessageChannel input;
+
+	@Autowired
+	RolloverFileMessageHandler rolloverFileMessageHandler;
+
+	File tmpDir = new File("test_results");
+
+	@Before
+	public void before() {
+		tmpDir.mkdir();
+	}
+
+	@Test
+	public void testWriteBehindWritesAllMessagesInOrder() throws IOException, InterruptedException {
+
+		applicationContext.start();
+
+		WriteBehindRingBuffer writeBehindBuffer = rolloverFileMessageHandler.getWriteBehindBuffer();
+		assertNotNull(writeBehindBuffer);
+		assertEquals(128, writeBehindBuffer.getCapacity());
+
+		for (int i = 0; i < 5000; i++) {
+			input.send(new GenericMessage<String>("message-" + i));
+		}
+
+		// stop drains the buffer before the file is closed
+		applicationContext.stop();
+
+		assertEquals(5000, writeBehindBuffer.getWrittenCount());
+		assertTrue(writeBehindBuffer.getMaxLatencyMicros() >= writeBehindBuffer.getMeanLatencyMicros());
+
+		List<File> files = new ArrayList<File>(FileUtils.listFiles(tmpDir, null, false));
+		assertEquals(1, files.size());
+		assertTrue(files.get(0).getName().startsWith("archive.test666_"));
+
+		List<String> lines = FileUtils.readLines(files.get(0));
+		assertEquals(5000, lines.size());
+		for (int i = 0; i < 5000; i++) {
+			assertEquals("message-" + i, lines.get(i));
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testWriteBehindIsRejectedWithStripes() {
+
+		RolloverFileMessageHandler handler = new RolloverFileMessageHandler();
+		handler.setAsyncQueueCapacity(16);
+		handler.setStripes(2);
+		handler.start();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testWriteBehindIsRejectedWithAPartitionExpression() {
+
+		RolloverFileMessageHandler handler = new RolloverFileMessageHandler();
+		handler.setAsyncQueueCapacity(16);
+		handler.setPartitionExpression("headers.tenant");
+		handler.start();
+	}
+
+	@After
+	public void cleanUp() throws IOException {
+		FileUtils.deleteDirectory(tmpDir);
+	}
+}
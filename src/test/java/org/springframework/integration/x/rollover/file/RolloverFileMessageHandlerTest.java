@@ -19,7 +19,11 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.TreeSet;
 import java.util.zip.GZIPInputStream;
 
@@ -32,6 +36,7 @@ import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessagingException;
 import org.springframework.messaging.support.GenericMessage;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
@@ -110,6 +115,36 @@ public class RolloverFileMessageHandlerTest {
 		assertEquals("bar", IOUtils.toString(secondFile.toURI()));
 	}
 	
+	@Test
+	public void testRolloverFileSinkBatchPayloads() throws IOException, InterruptedException {
+
+		applicationContext.start();
+
+		input.send(new GenericMessage<List<String>>(Arrays.asList("foo", "bar")));
+		input.send(new GenericMessage<byte[][]>(new byte[][] { "b1".getBytes(), "b2\n".getBytes() }));
+		input.send(new GenericMessage<Set<Object>>(new LinkedHashSet<Object>(Arrays.asList("baz", "b3".getBytes()))));
+
+		applicationContext.stop();
+
+		// a time based rollover may happen in the middle, concatenate the files in the order they were written
+		StringBuilder content = new StringBuilder();
+		for (File file : new TreeSet<File>(FileUtils.listFiles(tmpDir, null, false))) {
+			content.append(IOUtils.toString(file.toURI()));
+		}
+		assertEquals("foo\nbar\nb1b2\nbaz\nb3", content.toString());
+	}
+
+	@Test(expected = MessagingException.class)
+	public void testRolloverFileSinkRejectsUnsupportedBatchElements() {
+
+		applicationContext.start();
+		try {
+			input.send(new GenericMessage<List<Object>>(Arrays.<Object> asList("foo", 42)));
+		} finally {
+			applicationContext.stop();
+		}
+	}
+
 	public static String uncompress(File compressedFile) throws FileNotFoundException, IOException {
 		return IOUtils.toString(new GZIPInputStream(new FileInputStream(compressedFile)));
 	}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.TimeZone;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class RolloverFileMetricsTest {
+
+	File tmpDir = new File("test_results");
+
+	MetricRegistry registry = new MetricRegistry();
+
+	@Before
+	public void before() {
+		tmpDir.mkdir();
+	}
+
+	@Test
+	public void testStreamMetrics() throws Exception {
+
+		RolloverFileMetrics metrics = new RolloverFileMetrics(registry, "metrics-test");
+		RolloverFileOutputStream stream = new RolloverFileOutputStream("test_results/metrics_yyyy_mm_dd", true,
+				TimeZone.getDefault(), "yyyy_MM_dd_HH_mm_ss_SSS", -1, -1, 100, "archive", false, 8192, null, null,
+				null);
+		stream.setMetrics(metrics);
+
+		for (int i = 0; i < 10; i++) {
+			stream.write(new byte[60]);
+			stream.write("0123456789", true);
+			metrics.written(2, 1000);
+			stream.flush();
+			stream.rolloverOnFileSize();
+		}
+		stream.close();
+
+		assertEquals(20, registry.meter("rollover-file.metrics-test.messages").getCount());
+		assertEquals(10 * 71, registry.meter("rollover-file.metrics-test.bytes").getCount());
+		assertEquals(10, registry.timer("rollover-file.metrics-test.writes").getCount());
+		// one more on close
+		assertEquals(11, registry.counter("rollover-file.metrics-test.flushes").getCount());
+		assertEquals(5, registry.counter("rollover-file.metrics-test.rollovers.size").getCount());
+		assertEquals(0, registry.counter("rollover-file.metrics-test.rollovers.time").getCount());
+		assertEquals(5, registry.timer("rollover-file.metrics-test.rollovers").getCount());
+	}
+
+	@Test
+	public void testGaugesArePublishedThroughJmx() throws Exception {
+
+		RolloverFileMetrics metrics = new RolloverFileMetrics(registry, "jmx-test");
+		metrics.registerGauges(new RolloverFileMessageHandler());
+		metrics.startJmxReporter();
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName queue = new ObjectName(RolloverFileMetrics.DOMAIN, "name",
+				"rollover-file.jmx-test.compression.queue");
+		assertTrue(server.isRegistered(queue));
+		assertEquals(0, server.getAttribute(queue, "Value"));
+		assertTrue(server.isRegistered(new ObjectName(RolloverFileMetrics.DOMAIN, "name",
+				"rollover-file.jmx-test.messages")));
+
+		metrics.close();
+		assertFalse(server.isRegistered(queue));
+		assertTrue(registry.getMetrics().isEmpty());
+	}
+
+	@After
+	public void cleanUp() throws IOException {
+		FileUtils.deleteDirectory(tmpDir);
+	}
+}
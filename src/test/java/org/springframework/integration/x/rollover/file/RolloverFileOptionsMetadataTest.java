@@ -44,10 +44,22 @@ public class RolloverFileOptionsMetadataTest {
 				metadata,
 				containsInAnyOrder(moduleOptionNamed("filename"), moduleOptionNamed("append"),
 						moduleOptionNamed("timeZoneID"), moduleOptionNamed("dateFormat"),
-						moduleOptionNamed("bufferSize"), moduleOptionNamed("flushRate"),
+						moduleOptionNamed("bufferSize"), moduleOptionNamed("minBufferSize"),
+						moduleOptionNamed("maxBufferSize"), moduleOptionNamed("flushRate"),
+						moduleOptionNamed("flushIntervalMs"), moduleOptionNamed("flushBytes"),
+						moduleOptionNamed("durability"), moduleOptionNamed("durabilityIntervalMs"),
 						moduleOptionNamed("rolloverPeriod"), moduleOptionNamed("maxRolledFileSize"),
 						moduleOptionNamed("archivePrefix"), moduleOptionNamed("compressArchive"),
-						moduleOptionNamed("binary")));
+						moduleOptionNamed("binary"), moduleOptionNamed("recordFraming"),
+						moduleOptionNamed("recordIndexInterval"), moduleOptionNamed("charset"),
+						moduleOptionNamed("outputMode"), moduleOptionNamed("asyncQueueCapacity"),
+						moduleOptionNamed("asyncBackpressure"), moduleOptionNamed("stripes"),
+						moduleOptionNamed("stripeHeader"), moduleOptionNamed("partitionExpression"),
+						moduleOptionNamed("maxOpenPartitions"), moduleOptionNamed("partitionIdleTimeoutMs"),
+						moduleOptionNamed("jmxEnabled"),
+						moduleOptionNamed("retainDays"), moduleOptionNamed("retainMaxBytes"),
+						moduleOptionNamed("retentionDirectory"), moduleOptionNamed("compressionCodec"),
+						moduleOptionNamed("compressionLevel"), moduleOptionNamed("compressionBlockSize")));
 
 		for (ModuleOption moduleOption : metadata) {
 			if (moduleOption.getName().equals("filename")) {
@@ -65,9 +77,27 @@ public class RolloverFileOptionsMetadataTest {
 			if (moduleOption.getName().equals("bufferSize")) {
 				assertEquals(8192, moduleOption.getDefaultValue());
 			}
+			if (moduleOption.getName().equals("minBufferSize")) {
+				assertEquals(4096, moduleOption.getDefaultValue());
+			}
+			if (moduleOption.getName().equals("maxBufferSize")) {
+				assertEquals(0, moduleOption.getDefaultValue());
+			}
 			if (moduleOption.getName().equals("flushRate")) {
 				assertEquals(0L, moduleOption.getDefaultValue());
 			}
+			if (moduleOption.getName().equals("flushIntervalMs")) {
+				assertEquals(0L, moduleOption.getDefaultValue());
+			}
+			if (moduleOption.getName().equals("flushBytes")) {
+				assertEquals(0L, moduleOption.getDefaultValue());
+			}
+			if (moduleOption.getName().equals("durability")) {
+				assertEquals("none", moduleOption.getDefaultValue());
+			}
+			if (moduleOption.getName().equals("durabilityIntervalMs")) {
+				assertEquals(1000L, moduleOption.getDefaultValue());
+			}
 			if (moduleOption.getName().equals("rolloverPeriod")) {
 				assertEquals(86400000L, moduleOption.getDefaultValue());
 			}
@@ -83,6 +113,60 @@ public class RolloverFileOptionsMetadataTest {
 			if (moduleOption.getName().equals("binary")) {
 				assertEquals(false, moduleOption.getDefaultValue());
 			}
+			if (moduleOption.getName().equals("recordFraming")) {
+				assertEquals("none", moduleOption.getDefaultValue());
+			}
+			if (moduleOption.getName().equals("recordIndexInterval")) {
+				assertEquals(0, moduleOption.getDefaultValue());
+			}
+			if (moduleOption.getName().equals("charset")) {
+				assertEquals("UTF-8", moduleOption.getDefaultValue());
+			}
+			if (moduleOption.getName().equals("outputMode")) {
+				assertEquals("stream", moduleOption.getDefaultValue());
+			}
+			if (moduleOption.getName().equals("asyncQueueCapacity")) {
+				assertEquals(0, moduleOption.getDefaultValue());
+			}
+			if (moduleOption.getName().equals("asyncBackpressure")) {
+				assertEquals("block", moduleOption.getDefaultValue());
+			}
+			if (moduleOption.getName().equals("stripes")) {
+				assertEquals(1, moduleOption.getDefaultValue());
+			}
+			if (moduleOption.getName().equals("stripeHeader")) {
+				assertEquals("", moduleOption.getDefaultValue());
+			}
+			if (moduleOption.getName().equals("partitionExpression")) {
+				assertEquals("", moduleOption.getDefaultValue());
+			}
+			if (moduleOption.getName().equals("maxOpenPartitions")) {
+				assertEquals(100, moduleOption.getDefaultValue());
+			}
+			if (moduleOption.getName().equals("partitionIdleTimeoutMs")) {
+				assertEquals(300000L, moduleOption.getDefaultValue());
+			}
+			if (moduleOption.getName().equals("jmxEnabled")) {
+				assertEquals(true, moduleOption.getDefaultValue());
+			}
+			if (moduleOption.getName().equals("retainDays")) {
+				assertEquals(0, moduleOption.getDefaultValue());
+			}
+			if (moduleOption.getName().equals("retainMaxBytes")) {
+				assertEquals(-1L, moduleOption.getDefaultValue());
+			}
+			if (moduleOption.getName().equals("retentionDirectory")) {
+				assertEquals("", moduleOption.getDefaultValue());
+			}
+			if (moduleOption.getName().equals("compressionCodec")) {
+				assertEquals("gzip", moduleOption.getDefaultValue());
+			}
+			if (moduleOption.getName().equals("compressionLevel")) {
+				assertEquals(-1, moduleOption.getDefaultValue());
+			}
+			if (moduleOption.getName().equals("compressionBlockSize")) {
+				assertEquals(0, moduleOption.getDefaultValue());
+			}
 		}
 	}
 
@@ -0,0 +1,649 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+public class RolloverFileOutputStreamTest {
+
+	File tmpDir = new File("test_results");
+
+	ExecutorService executor = Executors.newCachedThreadPool();
+
+	@Before
+	public void before() {
+		tmpDir.mkdir();
+	}
+
+	@Test
+	public void testRollInOneStreamDoesNotBlockAnotherStream() throws Exception {
+
+		BlockingFileCompressor slowCompressor = new BlockingFileCompressor();
+
+		final RolloverFileOutputStream slowStream = new RolloverFileOutputStream("test_results/slow_yyyy_mm_dd", true,
+				TimeZone.getDefault(), "yyyy_MM_dd_HH_mm_ss_SSS", -1, -1, 1, "archive", true, 8192, null, slowCompressor,
+				null);
+
+		final RolloverFileOutputStream fastStream = new RolloverFileOutputStream("test_results/fast_yyyy_mm_dd", true,
+				TimeZone.getDefault(), "yyyy_MM_dd_HH_mm_ss_SSS", -1, -1, 10000, "", false, 8192, null, null, null);
+
+		// The slow sink rolls, its rolled segment hangs in the compressor on the retire thread.
+		Future<?> slowRoll = executor.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				slowStream.write("slow\n".getBytes());
+				slowStream.rolloverOnFileSize();
+				return null;
+			}
+		});
+		assertTrue(slowCompressor.entered.await(5, TimeUnit.SECONDS));
+		// the roll itself does not wait for the compressor
+		slowRoll.get(5, TimeUnit.SECONDS);
+
+		// Meanwhile the other sink must keep writing, flushing and size checking at full speed.
+		Future<Long> fastWrites = executor.submit(new Callable<Long>() {
+			@Override
+			public Long call() throws Exception {
+				long bytes = 0;
+				byte[] record = "0123456789\n".getBytes();
+				for (int i = 0; i < 10000; i++) {
+					fastStream.write(record);
+					fastStream.rolloverOnFileSize();
+					bytes += record.length;
+				}
+				fastStream.flush();
+				return bytes;
+			}
+		});
+
+		assertEquals(110000L, fastWrites.get(5, TimeUnit.SECONDS).longValue());
+		assertEquals(1, slowStream.getRetiringSegmentCount());
+		// the rolled segments of the fast sink are closed in the background, the last bytes are written then
+		for (int i = 0; i < 100 && fastStream.getRetiringSegmentCount() > 0; i++) {
+			Thread.sleep(50);
+		}
+		long fastFilesLength = 0;
+		for (File file : FileUtils.listFiles(tmpDir, null, false)) {
+			if (file.getName().startsWith("fast_")) {
+				fastFilesLength += file.length();
+			}
+		}
+		assertEquals(110000L, fastFilesLength);
+
+		// nor do the writers of the slow sink
+		slowStream.write("more\n".getBytes());
+
+		slowCompressor.release.countDown();
+		slowStream.close();
+		fastStream.close();
+		assertEquals(0, slowStream.getRetiringSegmentCount());
+	}
+
+	@Test
+	public void testSlowTimeRolloverDoesNotDelayOtherStreams() throws Exception {
+
+		ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler();
+		taskScheduler.setPoolSize(2);
+		taskScheduler.initialize();
+
+		BlockingFileCompressor slowCompressor = new BlockingFileCompressor();
+		long now = System.currentTimeMillis();
+
+		RolloverFileOutputStream slowStream = new RolloverFileOutputStream("test_results/slow_yyyy_mm_dd", true,
+				TimeZone.getDefault(), "yyyy_MM_dd_HH_mm_ss_SSS", now + 100, 100, -1, "archive", true, 8192,
+				null, slowCompressor, taskScheduler);
+
+		RolloverFileOutputStream fastStream = new RolloverFileOutputStream("test_results/fast_yyyy_mm_dd", true,
+				TimeZone.getDefault(), "yyyy_MM_dd_HH_mm_ss_SSS", now + 100, 100, -1, "", false, 8192, null, null,
+				taskScheduler);
+
+		// The first time based roll of the slow sink parks its retire thread, not a scheduler thread.
+		assertTrue(slowCompressor.entered.await(5, TimeUnit.SECONDS));
+
+		Thread.sleep(1000);
+
+		assertTrue(fastStream.getTimeRolloverCount() >= 3);
+		assertTrue(slowStream.getTimeRolloverCount() >= 3);
+		assertTrue(slowStream.getRetiringSegmentCount() >= 3);
+
+		slowCompressor.release.countDown();
+		slowStream.close();
+		fastStream.close();
+
+		// No roll over happens once the streams are closed.
+		long fastRolloverCount = fastStream.getTimeRolloverCount();
+		Thread.sleep(300);
+		assertEquals(fastRolloverCount, fastStream.getTimeRolloverCount());
+
+		taskScheduler.shutdown();
+	}
+
+	@Test
+	public void testStringWritesAreEncodedWithTheConfiguredCharset() throws Exception {
+
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			// a supplementary character (surrogate pair) lands on the encoder chunk boundaries
+			text.append("gr\u00fc\u00dfe \ud83d\ude00 ");
+		}
+		String s = text.toString();
+
+		RolloverFileOutputStream stream = new RolloverFileOutputStream("test_results/text_yyyy_mm_dd", false,
+				TimeZone.getDefault(), "yyyy_MM_dd_HH_mm_ss_SSS", -1, -1, -1, "", false, 8192, null, null, null);
+		File utf8File = new File(stream.getDatedFilename());
+		stream.write(s, true);
+		stream.write("", true);
+		stream.close();
+
+		assertEquals(s + "\n\n", FileUtils.readFileToString(utf8File, "UTF-8"));
+		assertEquals((s + "\n\n").getBytes("UTF-8").length, utf8File.length());
+
+		stream = new RolloverFileOutputStream("test_results/latin_yyyy_mm_dd", false, TimeZone.getDefault(),
+				"yyyy_MM_dd_HH_mm_ss_SSS", -1, -1, -1, "", false, 8192, null, null, null);
+		stream.setCharset(Charset.forName("ISO-8859-1"));
+		File latinFile = new File(stream.getDatedFilename());
+		stream.write("gr\u00fc\u00dfe", false);
+		stream.close();
+
+		assertEquals(5, latinFile.length());
+		assertEquals("gr\u00fc\u00dfe", FileUtils.readFileToString(latinFile, "ISO-8859-1"));
+	}
+
+	@Test
+	public void testChannelOutputModeKeepsAllBytesAcrossRollovers() throws Exception {
+
+		RolloverFileOutputStream stream = new RolloverFileOutputStream("test_results/channel_yyyy_mm_dd", true,
+				TimeZone.getDefault(), "yyyy_MM_dd_HH_mm_ss_SSS", -1, -1, 1000, "", false, 64,
+				RolloverFileOutputStream.OutputMode.CHANNEL, null, null);
+
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 500; i++) {
+			String line = "line-" + i + "\n";
+			if (i % 4 == 0) {
+				stream.write(line.getBytes());
+			} else if (i % 4 == 1) {
+				stream.write(line, false);
+			} else if (i % 4 == 2) {
+				stream.write(new ByteBuffer[] { ByteBuffer.wrap(line.getBytes(), 0, 2),
+						ByteBuffer.wrap(line.getBytes(), 2, line.length() - 2) });
+			} else {
+				stream.write(Arrays.asList(line.substring(0, 2).getBytes(), line.substring(2).getBytes()), false);
+			}
+			expected.append(line);
+			stream.rolloverOnFileSize();
+		}
+		stream.force();
+		stream.close();
+
+		StringBuilder actual = new StringBuilder();
+		for (File file : new TreeSet<File>(FileUtils.listFiles(tmpDir, null, false))) {
+			actual.append(FileUtils.readFileToString(file));
+		}
+		assertEquals(expected.toString(), actual.toString());
+	}
+
+	@Test
+	public void testAdaptiveBufferSizeKeepsAllBytesAndRecyclesTheBuffers() throws Exception {
+
+		RolloverFileOutputStream stream = new RolloverFileOutputStream("test_results/adaptive_yyyy_mm_dd", true,
+				TimeZone.getDefault(), "yyyy_MM_dd_HH_mm_ss_SSS", -1, -1, 4000, "", false, 100, null, null, null);
+		stream.write("buffered-before\n".getBytes());
+		stream.setAdaptiveBufferSize(1000, 64 * 1024);
+		// the initial bufferSize, rounded up to the pooled sizes
+		assertEquals(1024, stream.getBufferCapacity());
+
+		StringBuilder expected = new StringBuilder("buffered-before\n");
+		for (int i = 0; i < 2000; i++) {
+			String line = "line-" + i + "\n";
+			if (i % 2 == 0) {
+				stream.write(line.getBytes());
+			} else {
+				stream.write(Arrays.asList(line.substring(0, 2).getBytes(), line.substring(2).getBytes()), false);
+			}
+			expected.append(line);
+			stream.rolloverOnFileSize();
+		}
+		long retainedBytes = BufferPool.getSharedPool().getRetainedBytes();
+		int capacity = stream.getBufferCapacity();
+		stream.close();
+		assertEquals(retainedBytes + capacity, BufferPool.getSharedPool().getRetainedBytes());
+
+		StringBuilder actual = new StringBuilder();
+		for (File file : new TreeSet<File>(FileUtils.listFiles(tmpDir, null, false))) {
+			actual.append(FileUtils.readFileToString(file));
+		}
+		assertEquals(expected.toString(), actual.toString());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testAdaptiveBufferSizeRequiresABufferedOutputMode() throws Exception {
+
+		RolloverFileOutputStream stream = new RolloverFileOutputStream("test_results/adaptive_yyyy_mm_dd", false,
+				TimeZone.getDefault(), "yyyy_MM_dd_HH_mm_ss_SSS", -1, -1, 1000, "", false, 8192,
+				RolloverFileOutputStream.OutputMode.MAPPED, null, null);
+		try {
+			stream.setAdaptiveBufferSize(1024, 64 * 1024);
+		} finally {
+			stream.close();
+		}
+	}
+
+	@Test
+	public void testMappedSegmentsLeftUnclosedAreTrimmedBeforeTheyAreAppendedTo() throws Exception {
+
+		tmpDir.mkdir();
+		// a segment of a run that crashed, with the preallocated zeros and the trailer after its bytes
+		File open = new File(tmpDir, "open");
+		File segment = new File(tmpDir, "crashed");
+		MappedSegmentOutputStream crashed = new MappedSegmentOutputStream(open, false, 4096);
+		crashed.write("line-1\n".getBytes());
+		crashed.force();
+		FileUtils.copyFile(open, segment);
+		crashed.close();
+		assertTrue(segment.length() > 4096);
+
+		MappedSegmentOutputStream out = new MappedSegmentOutputStream(segment, true, 4096);
+		out.write("line-2\n".getBytes());
+		out.close();
+		assertEquals("line-1\nline-2\n", FileUtils.readFileToString(segment));
+	}
+
+	@Test
+	public void testClosedMappedSegmentsEndingWithZerosAreNotTrimmed() throws Exception {
+
+		tmpDir.mkdir();
+		File segment = new File(tmpDir, "closed");
+		MappedSegmentOutputStream out = new MappedSegmentOutputStream(segment, false, 4096);
+		out.write(new byte[] { 1, 0, 0 });
+		out.close();
+		assertEquals(3, segment.length());
+
+		assertEquals(3, MappedSegmentOutputStream.trimPreallocation(segment));
+		out = new MappedSegmentOutputStream(segment, true, 4096);
+		out.write(0);
+		out.close();
+		assertArrayEquals(new byte[] { 1, 0, 0, 0 }, FileUtils.readFileToByteArray(segment));
+
+		FileUtils.writeByteArrayToFile(segment, new byte[100000]);
+		assertEquals(100000, MappedSegmentOutputStream.trimPreallocation(segment));
+	}
+
+	@Test
+	public void testMappedOutputModeTruncatesSegmentsToWrittenBytes() throws Exception {
+
+		RolloverFileOutputStream stream = new RolloverFileOutputStream("test_results/mapped_yyyy_mm_dd", false,
+				TimeZone.getDefault(), "yyyy_MM_dd_HH_mm_ss_SSS", -1, -1, 1000, "archive", true, 8192,
+				RolloverFileOutputStream.OutputMode.MAPPED, new RecordingFileCompressor(), null);
+
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 300; i++) {
+			String line = "line-" + i + "\n";
+			stream.write(line, false);
+			expected.append(line);
+			stream.rolloverOnFileSize();
+		}
+		// larger than the preallocated segment, has to map the next region
+		String large = StringUtils.repeat("x", 2500) + "\n";
+		stream.write(large.getBytes());
+		expected.append(large);
+		stream.force();
+		stream.close();
+
+		StringBuilder actual = new StringBuilder();
+		for (File file : new TreeSet<File>(FileUtils.listFiles(tmpDir, null, false))) {
+			assertTrue(file.getName().startsWith("archive.mapped_"));
+			actual.append(FileUtils.readFileToString(file));
+		}
+		assertEquals(expected.toString(), actual.toString());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMappedOutputModeRequiresMaxRolledFileSize() throws Exception {
+		new RolloverFileOutputStream("test_results/mapped_yyyy_mm_dd", false, TimeZone.getDefault(),
+				"yyyy_MM_dd_HH_mm_ss_SSS", -1, -1, -1, "archive", true, 8192,
+				RolloverFileOutputStream.OutputMode.MAPPED, null, null);
+	}
+
+	@Test
+	public void testCompressedOutputModeNeverAppendsToAnExistingSegment() throws Exception {
+
+		tmpDir.mkdir();
+		String date = new SimpleDateFormat("yyyy_MM_dd").format(new Date());
+		// left behind by a crash, without its gzip trailer
+		File crashed = new File(tmpDir, "reopened_" + date + ".log.gz");
+		FileUtils.writeByteArrayToFile(crashed, new byte[] { 0x1f, (byte) 0x8b, 8, 0 });
+
+		RolloverFileOutputStream stream = new RolloverFileOutputStream("test_results/reopened_yyyy_mm_dd.log", true,
+				TimeZone.getDefault(), "yyyy_MM_dd", -1, -1, -1, "", true, 64,
+				RolloverFileOutputStream.OutputMode.COMPRESSED, new RecordingFileCompressor(), null);
+		File segment = new File(stream.getDatedFilename());
+		assertEquals("reopened_" + date + "_0001.log.gz", segment.getName());
+		stream.write("line", true);
+		stream.close();
+
+		assertEquals(4, crashed.length());
+		assertEquals("line\n", RolloverFileMessageHandlerTest.uncompress(segment));
+	}
+
+	@Test
+	public void testCompressedOutputModeWritesArchivesDirectly() throws Exception {
+
+		RecordingFileCompressor fileCompressor = new RecordingFileCompressor();
+		RolloverFileOutputStream stream = new RolloverFileOutputStream("test_results/compressed_yyyy_mm_dd", false,
+				TimeZone.getDefault(), "yyyy_MM_dd_HH_mm_ss_SSS", -1, -1, 1000, "archive", true, 64,
+				RolloverFileOutputStream.OutputMode.COMPRESSED, fileCompressor, null);
+		assertTrue(stream.getDatedFilename().endsWith(".gz"));
+
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 300; i++) {
+			String line = "line-" + i + "\n";
+			stream.write(line, false);
+			expected.append(line);
+			stream.rolloverOnFileSize();
+		}
+
+		// a flush is a sync point, the open segment can be decompressed up to it
+		stream.write("flushed\n", false);
+		expected.append("flushed\n");
+		stream.flush();
+		String openSegment = readUntilEndOfData(new File(stream.getDatedFilename()));
+		assertTrue(openSegment.endsWith("flushed\n"));
+		stream.close();
+
+		// the segments are archives already, the compressor is never called
+		assertTrue(fileCompressor.files.isEmpty());
+
+		List<File> files = new ArrayList<File>(new TreeSet<File>(FileUtils.listFiles(tmpDir, null, false)));
+		assertTrue(files.size() > 1);
+		StringBuilder actual = new StringBuilder();
+		for (File file : files) {
+			assertTrue(file.getName().startsWith("archive.compressed_"));
+			assertTrue(file.getName().endsWith(".gz"));
+			actual.append(RolloverFileMessageHandlerTest.uncompress(file));
+		}
+		assertEquals(expected.toString(), actual.toString());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCompressedOutputModeRequiresFileCompressor() throws Exception {
+		new RolloverFileOutputStream("test_results/compressed_yyyy_mm_dd", false, TimeZone.getDefault(),
+				"yyyy_MM_dd_HH_mm_ss_SSS", -1, -1, -1, "archive", true, 8192,
+				RolloverFileOutputStream.OutputMode.COMPRESSED, null, null);
+	}
+
+	@Test
+	public void testFlushIntervalFlushesQuietStreams() throws Exception {
+
+		RolloverFileOutputStream stream = new RolloverFileOutputStream("test_results/linger_yyyy_mm_dd", false,
+				TimeZone.getDefault(), "yyyy_MM_dd_HH_mm_ss_SSS", -1, -1, -1, "", false, 8192, null, null, null);
+		stream.setFlushInterval(50);
+		File file = new File(stream.getDatedFilename());
+
+		stream.write("message", true);
+		assertEquals(8, stream.getUnflushedBytes());
+		assertEquals(0, file.length());
+
+		// no further writes, the flush task empties the buffer
+		long deadline = System.currentTimeMillis() + 5000;
+		while (file.length() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(8, file.length());
+		assertEquals(0, stream.getUnflushedBytes());
+		stream.close();
+
+		assertEquals("message\n", FileUtils.readFileToString(file));
+	}
+
+	@Test
+	public void testGroupDurabilitySharesForcesBetweenWriters() throws Exception {
+
+		final RolloverFileOutputStream stream = new RolloverFileOutputStream("test_results/group_yyyy_mm_dd", true,
+				TimeZone.getDefault(), "yyyy_MM_dd_HH_mm_ss_SSS", -1, -1, 20000, "", false, 8192, null, null, null);
+		stream.setDurability(RolloverFileOutputStream.Durability.GROUP, 0);
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<Void>> writers = new ArrayList<Future<Void>>();
+		for (int t = 0; t < 8; t++) {
+			final int writer = t;
+			writers.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					for (int i = 0; i < 200; i++) {
+						stream.write("writer-" + writer + "-" + i, true);
+						stream.sync();
+						stream.rolloverOnFileSize();
+					}
+					return null;
+				}
+			}));
+		}
+		for (Future<Void> writer : writers) {
+			writer.get(30, TimeUnit.SECONDS);
+		}
+		executor.shutdown();
+
+		assertEquals(1600, stream.getSyncRequestCount());
+		assertTrue(stream.getSyncCount() > 0);
+		assertTrue(stream.getMaxSyncMicros() >= stream.getLastSyncMicros());
+		stream.close();
+
+		int lines = 0;
+		for (File file : FileUtils.listFiles(tmpDir, null, false)) {
+			lines += FileUtils.readLines(file).size();
+		}
+		assertEquals(1600, lines);
+	}
+
+	@Test
+	public void testPeriodicDurabilityForcesFromTheScheduler() throws Exception {
+
+		RolloverFileOutputStream stream = new RolloverFileOutputStream("test_results/periodic_yyyy_mm_dd", false,
+				TimeZone.getDefault(), "yyyy_MM_dd_HH_mm_ss_SSS", -1, -1, -1, "", false, 8192,
+				RolloverFileOutputStream.OutputMode.CHANNEL, null, null);
+		stream.setDurability(RolloverFileOutputStream.Durability.PERIODIC, 20);
+		File file = new File(stream.getDatedFilename());
+
+		stream.write("message", true);
+		long deadline = System.currentTimeMillis() + 5000;
+		while (stream.getSyncCount() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, stream.getSyncCount());
+		assertEquals(8, file.length());
+
+		// nothing written since, the task does not force again
+		Thread.sleep(100);
+		assertEquals(1, stream.getSyncCount());
+		stream.close();
+	}
+
+	@Test
+	public void testSegmentsStartedInTheSameBucketGetDistinctNames() throws Exception {
+
+		RolloverFileOutputStream stream = new RolloverFileOutputStream("test_results/dedup_yyyy_mm_dd.log", false,
+				TimeZone.getDefault(), "yyyy_MM_dd", -1, -1, 5, "", false, 8192, null, null, null);
+		String firstName = new File(stream.getDatedFilename()).getName();
+		String date = firstName.substring(0, firstName.length() - ".log".length());
+		for (int i = 0; i < 3; i++) {
+			stream.write("line" + i, true);
+			stream.rolloverOnFileSize();
+		}
+		stream.close();
+
+		// same day, the rolls don't append into the previous segment, the sequence goes before the extension
+		assertEquals("line0\n", FileUtils.readFileToString(new File(tmpDir, firstName)));
+		assertEquals("line1\n", FileUtils.readFileToString(new File(tmpDir, date + "_0001.log")));
+		assertEquals("line2\n", FileUtils.readFileToString(new File(tmpDir, date + "_0002.log")));
+		assertEquals(0, new File(tmpDir, date + "_0003.log").length());
+	}
+
+	@Test
+	public void testSegmentNamesTakenByArchivesOnDiskAreSkipped() throws Exception {
+
+		tmpDir.mkdir();
+		String date = new SimpleDateFormat("yyyy_MM_dd").format(new Date());
+		// archives of a previous run of the same day
+		File archive = new File(tmpDir, "archive.restart_" + date + ".log");
+		File compressedArchive = new File(tmpDir, "archive.restart_" + date + "_0001.log.gz");
+		FileUtils.write(archive, "first run\n");
+		FileUtils.write(compressedArchive, "second run");
+
+		RolloverFileOutputStream stream = new RolloverFileOutputStream("test_results/restart_yyyy_mm_dd.log", true,
+				TimeZone.getDefault(), "yyyy_MM_dd", -1, -1, -1, "archive", true, 8192, null,
+				new RecordingFileCompressor(), null);
+		assertEquals("restart_" + date + "_0002.log", new File(stream.getDatedFilename()).getName());
+		stream.write("third run", true);
+		stream.close();
+
+		assertEquals("first run\n", FileUtils.readFileToString(archive));
+		assertEquals("second run", FileUtils.readFileToString(compressedArchive));
+		assertEquals("third run\n",
+				FileUtils.readFileToString(new File(tmpDir, "archive.restart_" + date + "_0002.log")));
+	}
+
+	@Test
+	public void testRollSwapsInThePreOpenedSpareSegment() throws Exception {
+
+		RolloverFileOutputStream stream = new RolloverFileOutputStream("test_results/spare_yyyy_mm_dd", false,
+				TimeZone.getDefault(), "yyyy_MM_dd_HH_mm_ss_SSS", -1, -1, 1000, "archive", false, 8192,
+				RolloverFileOutputStream.OutputMode.MAPPED, null, null);
+		// opened and preallocated in the background
+		File spareFile = new File(tmpDir, ".spare_yyyy_mm_dd.spare");
+		for (int i = 0; i < 100 && !spareFile.exists(); i++) {
+			Thread.sleep(50);
+		}
+		assertTrue(spareFile.exists());
+
+		stream.write("first\n".getBytes());
+		stream.rollover();
+		File secondFile = new File(stream.getDatedFilename());
+		stream.write("second\n".getBytes());
+		stream.close();
+
+		assertFalse(spareFile.exists());
+		assertEquals("second\n", FileUtils.readFileToString(new File(tmpDir, "archive." + secondFile.getName())));
+	}
+
+	@Test
+	public void testAFailedOpenReleasesTheSpareSegment() throws Exception {
+
+		tmpDir.mkdir();
+		String date = new SimpleDateFormat("yyyy_MM_dd").format(new Date());
+		// the first segment can't be opened
+		assertTrue(new File(tmpDir, "failed_" + date).mkdir());
+
+		try {
+			new RolloverFileOutputStream("test_results/failed_yyyy_mm_dd", true, TimeZone.getDefault(), "yyyy_MM_dd",
+					-1, -1, 1000, "archive", false, 8192, RolloverFileOutputStream.OutputMode.MAPPED, null, null);
+			fail("The directory was opened as a segment");
+		} catch (IOException e) {
+			// expected
+		}
+
+		// left to the retire thread, the spare would still be opened in the background
+		Thread.sleep(500);
+		assertFalse(new File(tmpDir, ".failed_yyyy_mm_dd.spare").exists());
+	}
+
+	private static String readUntilEndOfData(File gzipFile) throws IOException {
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		InputStream in = new GZIPInputStream(new FileInputStream(gzipFile));
+		try {
+			byte[] buffer = new byte[1024];
+			int count;
+			while ((count = in.read(buffer)) > 0) {
+				data.write(buffer, 0, count);
+			}
+		} catch (EOFException e) {
+			// the gzip trailer is only written on close
+		} finally {
+			in.close();
+		}
+		return data.toString("UTF-8");
+	}
+
+	@After
+	public void cleanUp() throws IOException {
+		executor.shutdownNow();
+		FileUtils.deleteDirectory(tmpDir);
+	}
+
+	/**
+	 * Compressor that leaves the rolled files uncompressed and remembers their paths.
+	 */
+	static class RecordingFileCompressor extends FileCompressor {
+
+		final List<String> files = new CopyOnWriteArrayList<String>();
+
+		@Override
+		public void compressFile(String filePath) {
+			files.add(filePath);
+		}
+	}
+
+	/**
+	 * Compressor that parks the calling thread until released, simulating a slow archive step.
+	 */
+	static class BlockingFileCompressor extends FileCompressor {
+
+		final CountDownLatch entered = new CountDownLatch(1);
+
+		final CountDownLatch release = new CountDownLatch(1);
+
+		@Override
+		public void compressFile(String filePath) {
+			entered.countDown();
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration
+public class RolloverFilePartitionedTest {
+
+	@Autowired
+	ConfigurableApplicationContext applicationContext;
+
+	@Autowired
+	MessageChannel input;
+
+	@Autowired
+	RolloverFileMessageHandler rolloverFileMessageHandler;
+
+	File tmpDir = new File("test_results");
+
+	@Before
+	public void before() {
+		tmpDir.mkdir();
+	}
+
+	@Test
+	public void testMessagesAreWrittenToTheFileOfTheirPartition() throws IOException, InterruptedException {
+
+		applicationContext.start();
+
+		send("acme", "first");
+		send("globex", "first");
+		assertEquals(2, rolloverFileMessageHandler.getOpenPartitionCount());
+
+		// a third partition closes the least recently used one
+		send("acme", "second");
+		send("in/itech", "first");
+		assertEquals(2, rolloverFileMessageHandler.getOpenPartitionCount());
+		assertEquals(1, rolloverFileMessageHandler.getClosedPartitionCount());
+
+		// the idle partitions are closed
+		long deadline = System.currentTimeMillis() + 5000;
+		while (rolloverFileMessageHandler.getOpenPartitionCount() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		assertEquals(0, rolloverFileMessageHandler.getOpenPartitionCount());
+		assertEquals(3, rolloverFileMessageHandler.getClosedPartitionCount());
+
+		// and opened again by the next message
+		send("globex", "second");
+		input.send(MessageBuilder.withPayload("default:first").build());
+
+		applicationContext.stop();
+
+		Map<String, String> contentOfPartition = new HashMap<String, String>();
+		for (File file : new TreeSet<File>(FileUtils.listFiles(tmpDir, null, false))) {
+			String name = file.getName();
+			assertTrue(name.startsWith("archive.partitioned_"));
+			String partition = name.substring(name.lastIndexOf('.') + 1);
+			String content = contentOfPartition.get(partition);
+			contentOfPartition.put(partition,
+					((content != null) ? content : "") + FileUtils.readFileToString(file));
+		}
+		assertEquals(4, contentOfPartition.size());
+		assertEquals("acme:first\nacme:second\n", contentOfPartition.get("acme"));
+		assertEquals("globex:first\nglobex:second\n", contentOfPartition.get("globex"));
+		assertEquals("in/itech:first\n", contentOfPartition.get("in_itech"));
+		assertEquals("default:first\n", contentOfPartition.get("default"));
+	}
+
+	private void send(String tenant, String message) {
+		input.send(MessageBuilder.withPayload(tenant + ":" + message).setHeader("tenant", tenant).build());
+	}
+
+	@After
+	public void cleanUp() throws IOException {
+		FileUtils.deleteDirectory(tmpDir);
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration
+public class RolloverFileStripedTest {
+
+	@Autowired
+	ConfigurableApplicationContext applicationContext;
+
+	@Autowired
+	MessageChannel input;
+
+	File tmpDir = new File("test_results");
+
+	@Before
+	public void before() {
+		tmpDir.mkdir();
+	}
+
+	@Test
+	public void testMessagesOfAKeyStayInOneStripeAndStripesRollTogether() throws IOException, InterruptedException {
+
+		applicationContext.start();
+
+		for (int i = 0; i < 3000; i++) {
+			input.send(MessageBuilder.withPayload("key-" + (i % 10) + "-message-" + i).setHeader("key", i % 10)
+					.build());
+		}
+
+		applicationContext.stop();
+
+		Map<String, Integer> stripeOfKey = new HashMap<String, Integer>();
+		Map<String, Integer> lastMessageOfKey = new HashMap<String, Integer>();
+		int[] segmentsPerStripe = new int[4];
+		int lines = 0;
+		for (File file : new TreeSet<File>(FileUtils.listFiles(tmpDir, null, false))) {
+			String name = file.getName();
+			assertTrue(name.startsWith("archive.striped_"));
+			int stripe = Integer.parseInt(name.substring(name.lastIndexOf(".part-") + ".part-".length()));
+			segmentsPerStripe[stripe]++;
+
+			for (String line : FileUtils.readLines(file)) {
+				String[] parts = line.split("-");
+				String key = parts[1];
+				int message = Integer.parseInt(parts[3]);
+				Integer previousStripe = stripeOfKey.put(key, stripe);
+				assertTrue(previousStripe == null || previousStripe == stripe);
+				Integer previousMessage = lastMessageOfKey.put(key, message);
+				assertTrue(previousMessage == null || previousMessage < message);
+				lines++;
+			}
+		}
+		assertEquals(3000, lines);
+		assertEquals(10, stripeOfKey.size());
+
+		// a full stripe rolls all of them
+		assertTrue(segmentsPerStripe[0] > 1);
+		for (int count : segmentsPerStripe) {
+			assertEquals(segmentsPerStripe[0], count);
+		}
+	}
+
+	@After
+	public void cleanUp() throws IOException {
+		FileUtils.deleteDirectory(tmpDir);
+	}
+}
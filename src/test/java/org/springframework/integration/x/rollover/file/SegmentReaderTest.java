@@ -0,0 +1,216 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.integration.x.rollover.file.SegmentReader.Segment;
+
+public class SegmentReaderTest {
+
+	private static final String DATE_FORMAT = "yyyy_MM_dd_HH_mm_ss_SSS";
+
+	File tmpDir = new File("test_results");
+
+	@Before
+	public void before() {
+		tmpDir.mkdir();
+	}
+
+	@Test
+	public void testListsAndReadsCompressedSegmentsInTimeOrder() throws Exception {
+		FileCompressor fileCompressor = new FileCompressor();
+		RolloverFileOutputStream stream = new RolloverFileOutputStream("test_results/replay_yyyy_mm_dd", true,
+				TimeZone.getDefault(), DATE_FORMAT, -1, -1, -1, "archive", true, 8192, null, fileCompressor, null);
+		for (int i = 0; i < 5; i++) {
+			stream.write("segment-" + i, true);
+			stream.rollover();
+		}
+		stream.write("segment-5", true);
+		stream.close();
+
+		SegmentReader reader = new SegmentReader("test_results/replay_yyyy_mm_dd", DATE_FORMAT, "archive",
+				fileCompressor.getCodec());
+		List<Segment> segments = reader.listSegments();
+		assertEquals(6, segments.size());
+		for (int i = 0; i < segments.size(); i++) {
+			Segment segment = segments.get(i);
+			assertTrue(segment.isArchived());
+			assertTrue(segment.isCompressed());
+			assertEquals("segment-" + i + "\n", IOUtils.toString(reader.open(segment)));
+		}
+	}
+
+	@Test
+	public void testMapsUncompressedSegments() throws Exception {
+		RolloverFileOutputStream stream = new RolloverFileOutputStream("test_results/mapped_yyyy_mm_dd", true,
+				TimeZone.getDefault(), DATE_FORMAT, -1, -1, -1, "", false, 8192, null, null, null);
+		stream.write("first", true);
+		stream.rollover();
+		stream.write("second", true);
+		stream.close();
+
+		SegmentReader reader = new SegmentReader("test_results/mapped_yyyy_mm_dd", DATE_FORMAT, null, null);
+		List<Segment> segments = reader.listSegments();
+		assertEquals(2, segments.size());
+		assertFalse(segments.get(0).isArchived());
+
+		MappedByteBuffer mapped = reader.map(segments.get(1));
+		byte[] content = new byte[mapped.remaining()];
+		mapped.get(content);
+		assertEquals("second\n", new String(content));
+		assertEquals("first\n", IOUtils.toString(reader.open(segments.get(0))));
+	}
+
+	@Test
+	public void testParsesSequencesAndSkipsOtherFiles() throws IOException {
+		SegmentReader reader = new SegmentReader("test_results/app_yyyy_mm_dd.log", "yyyy_MM_dd", "archive", null);
+		String[] names = { "app_2015_01_02.log", "archive.app_2015_01_01_10000.log", "archive.app_2015_01_01_0002.log",
+				"archive.app_2015_01_01.log", "archive.app_2015_01_01.log.idx", "app_2015_01_02.log.tmp",
+				".app_2015_01_02.log.spare", "other_2015_01_01.log", "app_2015_13_01.log",
+				"app_2015_01_01_99999999999999999999.log", "app_2015_01_01.log_2" };
+		for (String name : names) {
+			FileUtils.touch(new File(tmpDir, name));
+		}
+
+		List<Segment> segments = reader.listSegments();
+		assertEquals(4, segments.size());
+		assertEquals("archive.app_2015_01_01.log", segments.get(0).getFile().getName());
+		assertEquals("archive.app_2015_01_01_0002.log", segments.get(1).getFile().getName());
+		assertEquals(2, segments.get(1).getSequence());
+		assertEquals(10000, segments.get(2).getSequence());
+		assertEquals("app_2015_01_02.log", segments.get(3).getFile().getName());
+		assertNull(reader.parse(new File(tmpDir, "app_2015_01_02.log.bidx")));
+	}
+
+	@Test
+	public void testTailFollowsTheActiveSegmentAcrossRollovers() throws Exception {
+		final RolloverFileOutputStream stream = new RolloverFileOutputStream("test_results/tail_yyyy_mm_dd", true,
+				TimeZone.getDefault(), DATE_FORMAT, -1, -1, -1, "archive", false, 8192, null, null, null);
+		SegmentReader reader = new SegmentReader("test_results/tail_yyyy_mm_dd", DATE_FORMAT, "archive", null);
+		final SegmentReader.Tail tail = reader.tail(new File(stream.getDatedFilename()), 0, 5);
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<List<String>> lines = executor.submit(new Callable<List<String>>() {
+				@Override
+				public List<String> call() throws IOException {
+					BufferedReader in = new BufferedReader(new InputStreamReader(tail));
+					List<String> lines = new ArrayList<String>();
+					while (lines.size() < 300) {
+						lines.add(in.readLine());
+					}
+					return lines;
+				}
+			});
+
+			for (int i = 0; i < 300; i++) {
+				stream.write("line-" + i, true);
+				stream.flush();
+				if (i % 50 == 49) {
+					stream.rollover();
+				}
+			}
+
+			List<String> read = lines.get(10, TimeUnit.SECONDS);
+			for (int i = 0; i < 300; i++) {
+				assertEquals("line-" + i, read.get(i));
+			}
+			assertTrue(tail.getSegment().getTimestamp() > reader.listSegments().get(0).getTimestamp());
+		} finally {
+			tail.close();
+			stream.close();
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testTailReadsTheBufferedBytesOfASegmentRolledWithoutArchivePrefix() throws Exception {
+		RolloverFileOutputStream stream = new RolloverFileOutputStream("test_results/buffered_yyyy_mm_dd", true,
+				TimeZone.getDefault(), DATE_FORMAT, -1, -1, -1, "", false, 8192, null, null, null);
+		SegmentReader reader = new SegmentReader("test_results/buffered_yyyy_mm_dd", DATE_FORMAT, "", null);
+		SegmentReader.Tail tail = reader.tail(new File(stream.getDatedFilename()), 0, 5);
+		try {
+			// never flushed by a write, the rolled segment is closed later on the retire thread
+			stream.write("segment-0", true);
+			stream.rollover();
+			stream.write("segment-1", true);
+			stream.flush();
+
+			byte[] lines = new byte[20];
+			IOUtils.readFully(tail, lines);
+			assertEquals("segment-0\nsegment-1\n", new String(lines));
+		} finally {
+			tail.close();
+			stream.close();
+		}
+	}
+
+	@Test
+	public void testTailStartsAtTheUncompressedPositionOfACompressedSegment() throws Exception {
+		FileCompressor fileCompressor = new FileCompressor();
+		RolloverFileOutputStream stream = new RolloverFileOutputStream("test_results/offset_yyyy_mm_dd", true,
+				TimeZone.getDefault(), DATE_FORMAT, -1, -1, -1, "archive", true, 8192, null, fileCompressor, null);
+		stream.write("segment-0", true);
+		stream.rollover();
+		stream.write("segment-1", true);
+		stream.close();
+
+		SegmentReader reader = new SegmentReader("test_results/offset_yyyy_mm_dd", DATE_FORMAT, "archive",
+				fileCompressor.getCodec());
+		List<Segment> segments = reader.listSegments();
+		assertTrue(segments.get(0).isCompressed());
+		SegmentReader.Tail tail = reader.tail(segments.get(0).getFile(), 8, 5);
+		try {
+			assertEquals(8, tail.getPosition());
+			byte[] rest = new byte[2];
+			IOUtils.readFully(tail, rest);
+			assertEquals("0\n", new String(rest));
+			assertEquals(10, tail.getPosition());
+
+			byte[] next = new byte[10];
+			IOUtils.readFully(tail, next);
+			assertEquals("segment-1\n", new String(next));
+			assertTrue(tail.getSegment().isSameSegment(segments.get(1)));
+		} finally {
+			tail.close();
+		}
+	}
+
+	@After
+	public void cleanUp() throws IOException {
+		FileUtils.deleteDirectory(tmpDir);
+	}
+}
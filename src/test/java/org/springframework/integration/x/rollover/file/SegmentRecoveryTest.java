@@ -0,0 +1,253 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.TimeZone;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SegmentRecoveryTest {
+
+	private static final String DATE_FORMAT = "yyyy_MM_dd_HH_mm_ss_SSS";
+
+	File tmpDir = new File("test_results");
+
+	RolloverFileOutputStream stream;
+
+	RolloverFileOutputStream otherStream;
+
+	@Before
+	public void before() {
+		tmpDir.mkdir();
+	}
+
+	@Test
+	public void testLeftoversOfACrashAreRecovered() throws Exception {
+
+		// died while compressing: the source still exists, the output is incomplete
+		File compressing = file("archive.app_2016_01_01_00_00_00_000.log", "compressing");
+		File incompleteOutput = file("archive.app_2016_01_01_00_00_00_000.log.gz.tmp", "partial");
+		// died after deleting the source, before renaming the complete output
+		File completeOutput = file("archive.app_2016_01_02_00_00_00_000.log.gz.tmp", "");
+		FileUtils.writeByteArrayToFile(completeOutput, gzip("complete"));
+		// died before compressing
+		File uncompressed = file("archive.app_2016_01_03_00_00_00_000.log", "uncompressed");
+		// died while writing the segment
+		File orphan = file("app_2016_01_04_00_00_00_000.log", "orphan");
+		File unrelated = file("other.log", "other");
+
+		stream = new RolloverFileOutputStream("test_results/app_yyyy_mm_dd.log", true, TimeZone.getDefault(),
+				DATE_FORMAT, -1, -1, -1, "archive", true, 8192, null, new FileCompressor(), null);
+		File active = new File(stream.getDatedFilename());
+		ageFiles();
+
+		SegmentRecovery recovery = new SegmentRecovery(stream, DATE_FORMAT, new FileCompressor(), 2);
+		recovery.start("test-recovery");
+		recovery.join(10000);
+
+		assertEquals(1, recovery.getDiscardedCount());
+		assertEquals(1, recovery.getCompletedCount());
+		assertEquals(2, recovery.getRequeuedCount());
+		assertEquals(1, recovery.getOrphanCount());
+
+		assertFalse(incompleteOutput.exists());
+		assertFalse(completeOutput.exists());
+		assertFalse(compressing.exists());
+		assertFalse(uncompressed.exists());
+		assertFalse(orphan.exists());
+		assertEquals("compressing", uncompress(compressing.getName() + ".gz"));
+		assertEquals("complete", uncompress("archive.app_2016_01_02_00_00_00_000.log.gz"));
+		assertEquals("uncompressed", uncompress(uncompressed.getName() + ".gz"));
+		assertEquals("orphan", uncompress("archive." + orphan.getName() + ".gz"));
+		assertTrue(active.exists());
+		assertTrue(unrelated.exists());
+	}
+
+	@Test
+	public void testFilesOfTheCurrentRunAreLeftAlone() throws Exception {
+
+		stream = new RolloverFileOutputStream("test_results/app_yyyy_mm_dd.log", true, TimeZone.getDefault(),
+				DATE_FORMAT, -1, -1, -1, "", true, 8192, null,
+				new RolloverFileOutputStreamTest.RecordingFileCompressor(), null);
+		File active = new File(stream.getDatedFilename());
+		ageFiles();
+
+		// the active segment is never archived, even if it looks old
+		SegmentRecovery recovery = new SegmentRecovery(stream, DATE_FORMAT, new FileCompressor(), 2);
+
+		// a compression started by this run, after the recovery
+		File rolled = file("app_2016_01_01_00_00_00_000.log", "rolled");
+		File compressing = file("app_2016_01_01_00_00_00_000.log.gz.tmp", "partial");
+		compressing.setLastModified(System.currentTimeMillis() + 1000);
+		rolled.setLastModified(System.currentTimeMillis() + 1000);
+
+		recovery.run();
+		assertEquals(0, recovery.getOrphanCount());
+		assertEquals(0, recovery.getDiscardedCount());
+		assertTrue(active.exists());
+		assertTrue(compressing.exists());
+		assertTrue(rolled.exists());
+	}
+
+	@Test
+	public void testSegmentsOfAPartitionWithALongerNameAreLeftAlone() throws Exception {
+
+		File euOrphan = file("app_2016_01_04_00_00_00_000.log.eu", "eu");
+		File euSequenceOrphan = file("app_2016_01_04_00_00_00_000_0001.log.eu", "eu-1");
+		File euWestOrphan = file("app_2016_01_04_00_00_00_000.log.eu-west", "eu-west");
+		File euWestArchive = file("archive.app_2016_01_03_00_00_00_000.log.eu-west", "eu-west");
+
+		// the partitions "eu" and "eu-west" of a sink share the directory
+		stream = new RolloverFileOutputStream("test_results/app_yyyy_mm_dd.log.eu", true, TimeZone.getDefault(),
+				DATE_FORMAT, -1, -1, -1, "archive", false, 8192, null, null, null);
+		otherStream = new RolloverFileOutputStream("test_results/app_yyyy_mm_dd.log.eu-west", true,
+				TimeZone.getDefault(), DATE_FORMAT, -1, -1, -1, "archive", false, 8192, null, null, null);
+		File euWestActive = new File(otherStream.getDatedFilename());
+		ageFiles();
+
+		SegmentRecovery recovery = new SegmentRecovery(stream, DATE_FORMAT, null, 2);
+		recovery.run();
+
+		assertEquals(2, recovery.getOrphanCount());
+		assertFalse(euOrphan.exists());
+		assertFalse(euSequenceOrphan.exists());
+		assertTrue(new File(tmpDir, "archive." + euOrphan.getName()).exists());
+		assertTrue(euWestOrphan.exists());
+		assertTrue(euWestArchive.exists());
+		assertTrue(euWestActive.exists());
+	}
+
+	@Test
+	public void testOnlyTheArchivesOfTheStreamAreQueuedForCompression() throws Exception {
+
+		File part1 = file("archive.app_2016_01_03_00_00_00_000.log.part-1", "part-1");
+		File part1Output = file("archive.app_2016_01_02_00_00_00_000.log.part-1.gz.tmp", "partial");
+		File part1Source = file("archive.app_2016_01_02_00_00_00_000.log.part-1", "part-1");
+		File part10 = file("archive.app_2016_01_03_00_00_00_000.log.part-10", "part-10");
+		File part10Output = file("archive.app_2016_01_02_00_00_00_000.log.part-10.gz.tmp", "partial");
+		File part10Source = file("archive.app_2016_01_02_00_00_00_000.log.part-10", "part-10");
+
+		stream = new RolloverFileOutputStream("test_results/app_yyyy_mm_dd.log.part-1", true, TimeZone.getDefault(),
+				DATE_FORMAT, -1, -1, -1, "archive", true, 8192, null, new FileCompressor(), null);
+		ageFiles();
+
+		SegmentRecovery recovery = new SegmentRecovery(stream, DATE_FORMAT, new FileCompressor(), 2);
+		recovery.run();
+
+		assertEquals(1, recovery.getDiscardedCount());
+		assertEquals(2, recovery.getRequeuedCount());
+		assertFalse(part1.exists());
+		assertFalse(part1Output.exists());
+		assertFalse(part1Source.exists());
+		assertEquals("part-1", uncompress(part1.getName() + ".gz"));
+		assertTrue(part10.exists());
+		assertTrue(part10Output.exists());
+		assertTrue(part10Source.exists());
+	}
+
+	@Test
+	public void testActiveFilesOfTheOtherStreamsAreLeftAlone() throws Exception {
+
+		final File otherActive = file("app_2016_01_04_00_00_00_000.log", "written by another stream");
+		stream = new RolloverFileOutputStream("test_results/app_yyyy_mm_dd.log", true, TimeZone.getDefault(),
+				DATE_FORMAT, -1, -1, -1, "archive", false, 8192, null, null, null);
+		ageFiles();
+
+		SegmentRecovery recovery = new SegmentRecovery(stream, DATE_FORMAT, null, 2);
+		recovery.setActiveFiles(new SegmentRecovery.ActiveFiles() {
+			@Override
+			public boolean contains(File file) {
+				return file.equals(otherActive.getAbsoluteFile());
+			}
+		});
+		recovery.run();
+
+		assertEquals(0, recovery.getOrphanCount());
+		assertTrue(otherActive.exists());
+	}
+
+	@Test
+	public void testMappedOrphansAreTrimmedBeforeTheyAreArchived() throws Exception {
+
+		// a segment of a run that crashed, with the preallocated zeros and the trailer after its bytes
+		File open = new File(tmpDir, "open");
+		File orphan = new File(tmpDir, "app_2016_01_04_00_00_00_000.log");
+		MappedSegmentOutputStream crashed = new MappedSegmentOutputStream(open, false, 100000);
+		crashed.write("orphan\n".getBytes());
+		crashed.force();
+		FileUtils.copyFile(open, orphan);
+		crashed.close();
+		assertTrue(open.delete());
+		assertTrue(orphan.length() > 100000);
+		// a segment that was closed, its last zero bytes are data
+		File closed = new File(tmpDir, "app_2016_01_03_00_00_00_000.log");
+		FileUtils.writeByteArrayToFile(closed, new byte[] { 1, 0, 0 });
+		stream = new RolloverFileOutputStream("test_results/app_yyyy_mm_dd.log", true, TimeZone.getDefault(),
+				DATE_FORMAT, -1, -1, 4096, "archive", false, 8192, RolloverFileOutputStream.OutputMode.MAPPED, null,
+				null);
+		ageFiles();
+
+		new SegmentRecovery(stream, DATE_FORMAT, null, 2).run();
+
+		assertFalse(orphan.exists());
+		assertEquals("orphan\n", FileUtils.readFileToString(new File(tmpDir, "archive." + orphan.getName())));
+		assertFalse(closed.exists());
+		assertEquals(3, new File(tmpDir, "archive." + closed.getName()).length());
+	}
+
+	@After
+	public void cleanUp() throws IOException {
+		if (stream != null) {
+			stream.close();
+		}
+		if (otherStream != null) {
+			otherStream.close();
+		}
+		FileUtils.deleteDirectory(tmpDir);
+	}
+
+	private File file(String name, String content) throws IOException {
+		File file = new File(tmpDir, name);
+		FileUtils.write(file, content);
+		return file;
+	}
+
+	private void ageFiles() {
+		for (File file : tmpDir.listFiles()) {
+			file.setLastModified(System.currentTimeMillis() - 60000);
+		}
+	}
+
+	private String uncompress(String name) throws IOException {
+		return RolloverFileMessageHandlerTest.uncompress(new File(tmpDir, name));
+	}
+
+	private static byte[] gzip(String content) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GZIPOutputStream gzip = new GZIPOutputStream(out);
+		gzip.write(content.getBytes());
+		gzip.close();
+		return out.toByteArray();
+	}
+}
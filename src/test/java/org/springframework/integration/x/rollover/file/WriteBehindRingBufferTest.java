@@ -0,0 +1,126 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class WriteBehindRingBufferTest {
+
+	@Test
+	public void testPayloadsAreWrittenInOrderAndDrainedOnStop() throws Exception {
+
+		RecordingBatchWriter writer = new RecordingBatchWriter();
+		WriteBehindRingBuffer buffer = new WriteBehindRingBuffer(64, 16, WriteBehindRingBuffer.Backpressure.BLOCK,
+				writer);
+		buffer.start("test-writer");
+
+		for (int i = 0; i < 10000; i++) {
+			assertTrue(buffer.publish(i));
+		}
+		buffer.stop();
+
+		assertEquals(10000, writer.payloads.size());
+		for (int i = 0; i < 10000; i++) {
+			assertEquals(i, writer.payloads.get(i));
+		}
+		assertEquals(10000, buffer.getWrittenCount());
+		assertEquals(0, buffer.getQueueDepth());
+		assertTrue(buffer.getBatchCount() <= 10000);
+		assertTrue(writer.maxBatchSize <= 16);
+	}
+
+	@Test
+	public void testDropBackpressure() throws Exception {
+
+		RecordingBatchWriter writer = new RecordingBatchWriter();
+		writer.blocked = new CountDownLatch(1);
+		WriteBehindRingBuffer buffer = new WriteBehindRingBuffer(4, 4, WriteBehindRingBuffer.Backpressure.DROP,
+				writer);
+		buffer.start("test-writer");
+
+		// the first payload parks the writer thread, the next four fill the buffer
+		buffer.publish("first");
+		assertTrue(writer.entered.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < 4; i++) {
+			assertTrue(buffer.publish("queued"));
+		}
+		assertEquals(4, buffer.getQueueDepth());
+
+		assertFalse(buffer.publish("dropped"));
+		assertFalse(buffer.publish("dropped"));
+		assertEquals(2, buffer.getDroppedCount());
+
+		writer.blocked.countDown();
+		buffer.stop();
+		assertEquals(5, writer.payloads.size());
+		assertFalse(writer.payloads.contains("dropped"));
+	}
+
+	@Test
+	public void testFailBackpressure() throws Exception {
+
+		RecordingBatchWriter writer = new RecordingBatchWriter();
+		writer.blocked = new CountDownLatch(1);
+		WriteBehindRingBuffer buffer = new WriteBehindRingBuffer(1, 1, WriteBehindRingBuffer.Backpressure.FAIL,
+				writer);
+		buffer.start("test-writer");
+
+		buffer.publish("first");
+		assertTrue(writer.entered.await(5, TimeUnit.SECONDS));
+		assertTrue(buffer.publish("queued"));
+		assertFalse(buffer.publish("rejected"));
+		assertEquals(0, buffer.getDroppedCount());
+
+		writer.blocked.countDown();
+		buffer.stop();
+		assertEquals(2, writer.payloads.size());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testPublishRequiresRunningBuffer() throws Exception {
+		new WriteBehindRingBuffer(1, 1, WriteBehindRingBuffer.Backpressure.BLOCK, new RecordingBatchWriter())
+				.publish("payload");
+	}
+
+	static class RecordingBatchWriter implements WriteBehindRingBuffer.BatchWriter {
+
+		final List<Object> payloads = new CopyOnWriteArrayList<Object>();
+
+		final CountDownLatch entered = new CountDownLatch(1);
+
+		volatile CountDownLatch blocked;
+
+		volatile int maxBatchSize;
+
+		@Override
+		public void write(Object[] batch, int count) throws Exception {
+			entered.countDown();
+			if (blocked != null) {
+				blocked.await(10, TimeUnit.SECONDS);
+			}
+			maxBatchSize = Math.max(maxBatchSize, count);
+			for (int i = 0; i < count; i++) {
+				payloads.add(batch[i]);
+			}
+		}
+	}
+}
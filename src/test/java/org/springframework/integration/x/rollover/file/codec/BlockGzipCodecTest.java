@@ -0,0 +1,163 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.integration.x.rollover.file.FileCompressor;
+
+public class BlockGzipCodecTest {
+
+	File tmpDir = new File("test_results");
+
+	@Before
+	public void before() {
+		tmpDir.mkdir();
+	}
+
+	@Test
+	public void testArchiveIsSplitAtRecordsAndIndexed() throws Exception {
+		File file = new File(tmpDir, "archive.test");
+		final byte[] data = textLines(1000 * 1000);
+		FileUtils.writeByteArrayToFile(file, data);
+
+		FileCompressor fileCompressor = new FileCompressor();
+		fileCompressor.setCompressionCodec("bgzf");
+		fileCompressor.compressFile(file.getPath());
+
+		File archive = new File(tmpDir, "archive.test.gz");
+		File indexFile = new File(tmpDir, "archive.test.gz" + BlockIndex.EXTENSION);
+		assertTrue(indexFile.exists());
+
+		// a standard gzip reader reads all blocks
+		InputStream in = new GZIPInputStream(new FileInputStream(archive));
+		try {
+			assertArrayEquals(data, IOUtils.toByteArray(in));
+		} finally {
+			in.close();
+		}
+
+		final BlockGzipReader reader = new BlockGzipReader(archive);
+		try {
+			BlockIndex index = reader.getIndex();
+			assertTrue(index.getBlockCount() > 10);
+			assertEquals(data.length, index.getUncompressedLength());
+			assertEquals(archive.length(), index.getCompressedLength() + BlockGzipCodec.EOF_MARKER.length);
+
+			// the index rebuilt from the block headers is the written one
+			FileInputStream archiveIn = new FileInputStream(archive);
+			try {
+				BlockIndex scanned = BlockGzipReader.scan(archiveIn.getChannel());
+				assertEquals(index.getBlockCount(), scanned.getBlockCount());
+				for (int i = 0; i < index.getBlockCount(); i++) {
+					assertEquals(index.getCompressedOffset(i), scanned.getCompressedOffset(i));
+					assertEquals(index.getUncompressedOffset(i), scanned.getUncompressedOffset(i));
+				}
+			} finally {
+				archiveIn.close();
+			}
+
+			// every block but the first starts at a line
+			for (int i = 1; i < index.getBlockCount(); i++) {
+				assertEquals('\n', data[(int) index.getUncompressedOffset(i) - 1]);
+			}
+
+			// the blocks decompressed in parallel, in 4 splits
+			ExecutorService executor = Executors.newFixedThreadPool(4);
+			try {
+				List<Future<byte[]>> splits = new ArrayList<Future<byte[]>>();
+				int blocksPerSplit = (index.getBlockCount() + 3) / 4;
+				for (int first = 0; first < index.getBlockCount(); first += blocksPerSplit) {
+					final long offset = index.getUncompressedOffset(first);
+					final int end = first + blocksPerSplit;
+					splits.add(executor.submit(new Callable<byte[]>() {
+						@Override
+						public byte[] call() throws Exception {
+							return IOUtils.toByteArray(reader.open(offset, end));
+						}
+					}));
+				}
+				ByteArrayOutputStream joined = new ByteArrayOutputStream();
+				for (Future<byte[]> split : splits) {
+					joined.write(split.get());
+				}
+				assertArrayEquals(data, joined.toByteArray());
+			} finally {
+				executor.shutdown();
+			}
+
+			// seek into the middle of a block
+			long offset = data.length / 3 + 7;
+			byte[] tail = IOUtils.toByteArray(reader.open(offset));
+			assertArrayEquals(Arrays.copyOfRange(data, (int) offset, data.length), tail);
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testIncompressibleDataFitsTheBlocks() throws IOException {
+		byte[] data = new byte[5 * BlockGzipCodec.MAX_BLOCK_INPUT + 123];
+		new Random(7).nextBytes(data);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		BlockIndex index = new BlockGzipCodec(".gz", 9).compressIndexed(new ByteArrayInputStream(data),
+				compressed);
+		File archive = new File(tmpDir, "random.gz");
+		FileUtils.writeByteArrayToFile(archive, compressed.toByteArray());
+		assertEquals(6, index.getBlockCount());
+
+		BlockGzipReader reader = new BlockGzipReader(archive);
+		try {
+			assertArrayEquals(data, IOUtils.toByteArray(reader.open(0)));
+		} finally {
+			reader.close();
+		}
+	}
+
+	@After
+	public void cleanUp() throws IOException {
+		FileUtils.deleteDirectory(tmpDir);
+	}
+
+	private static byte[] textLines(int length) {
+		Random random = new Random(length);
+		StringBuilder lines = new StringBuilder(length + 100);
+		while (lines.length() < length) {
+			lines.append("event-").append(random.nextInt(100000)).append(' ').append(random.nextDouble()).append('\n');
+		}
+		return lines.substring(0, length).getBytes();
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2002-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.springframework.integration.x.rollover.file.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.integration.x.rollover.file.FileCompressor;
+
+public class CompressionCodecTest {
+
+	private static final String[] CODECS = { "gzip", "deflate", "lz4", "zstd", "snappy", "bgzf" };
+
+	File tmpDir = new File("test_results");
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		byte[] data = jsonLines(300 * 1024);
+		for (String name : CODECS) {
+			CompressionCodec codec = CompressionCodecs.create(name, -1, ".gz", 0, null);
+			assertEquals(name, codec.getName());
+
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			codec.compress(new ByteArrayInputStream(data), compressed);
+			assertTrue(name, compressed.size() < data.length / 2);
+			assertArrayEquals(name, data, decompress(codec, compressed.toByteArray()));
+
+			// record by record through the stream, as a compressing writer does
+			compressed.reset();
+			OutputStream out = codec.createOutputStream(compressed);
+			for (int i = 0; i < data.length; i += 1000) {
+				out.write(data, i, Math.min(1000, data.length - i));
+			}
+			out.close();
+			assertArrayEquals(name, data, decompress(codec, compressed.toByteArray()));
+		}
+	}
+
+	@Test
+	public void testLevels() throws IOException {
+		byte[] data = jsonLines(300 * 1024);
+		assertTrue(compress("zstd", 19, data) <= compress("zstd", 1, data));
+		assertTrue(compress("deflate", 9, data) <= compress("deflate", 1, data));
+	}
+
+	@Test
+	public void testGzipOutputIsStandardGzip() throws IOException {
+		byte[] data = jsonLines(1000);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		CompressionCodecs.create("GZIP", 9, ".gz", 0, null).compress(new ByteArrayInputStream(data), compressed);
+		assertArrayEquals(data,
+				IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray()))));
+	}
+
+	@Test
+	public void testCustomCodecClass() {
+		CompressionCodec codec = CompressionCodecs.create(DeflateCodec.class.getName(), -1, ".gz", 0, null);
+		assertEquals("deflate", codec.getName());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownCodec() {
+		CompressionCodecs.create("brotli", -1, ".gz", 0, null);
+	}
+
+	@Test
+	public void testFileCompressorUsesTheCodec() throws IOException {
+		tmpDir.mkdir();
+		File file = new File(tmpDir, "archive.test");
+		byte[] data = jsonLines(100 * 1024);
+		FileUtils.writeByteArrayToFile(file, data);
+
+		FileCompressor fileCompressor = new FileCompressor();
+		fileCompressor.setCompressionCodec("zstd");
+		fileCompressor.compressFile(file.getPath());
+
+		assertFalse(file.exists());
+		File compressedFile = new File(tmpDir, "archive.test.zst");
+		assertTrue(compressedFile.exists());
+		assertArrayEquals(data, decompress(fileCompressor.getCodec(), FileUtils.readFileToByteArray(compressedFile)));
+	}
+
+	@After
+	public void cleanUp() throws IOException {
+		FileUtils.deleteDirectory(tmpDir);
+	}
+
+	private static int compress(String name, int level, byte[] data) throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		CompressionCodecs.create(name, level, ".gz", 0, null).compress(new ByteArrayInputStream(data), compressed);
+		return compressed.size();
+	}
+
+	private static byte[] decompress(CompressionCodec codec, byte[] compressed) throws IOException {
+		InputStream in = codec.createInputStream(new ByteArrayInputStream(compressed));
+		try {
+			return IOUtils.toByteArray(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static byte[] jsonLines(int length) {
+		Random random = new Random(length);
+		StringBuilder lines = new StringBuilder(length + 100);
+		while (lines.length() < length) {
+			lines.append("{\"id\":").append(random.nextInt(100000)).append(",\"name\":\"event-")
+					.append(random.nextInt(50)).append("\",\"value\":").append(random.nextInt(1000)).append("}\n");
+		}
+		return lines.substring(0, length).getBytes();
+	}
+}